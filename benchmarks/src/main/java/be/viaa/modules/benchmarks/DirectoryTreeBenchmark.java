@@ -0,0 +1,83 @@
+package be.viaa.modules.benchmarks;
+
+import be.viaa.modules.EmbeddedFtpServer;
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of createDirectoryTree for directory depths up to 10, both when the whole tree already
+ * exists and when every level has to be created.
+ *
+ * @author VIAA vzw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryTreeBenchmark {
+
+    @Param({"1", "5", "10"})
+    public int depth;
+
+    private EmbeddedFtpServer server;
+
+    private FTPClient client;
+
+    private File existing;
+
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedFtpServer.start();
+        existing = new File(path("/existing", depth), "file.bin");
+        server.createFile(existing.getPath(), 0);
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        client = FtpUtils.createSession(config, EmbeddedFtpServer.USER, EmbeddedFtpServer.HOST,
+                server.getPort(), EmbeddedFtpServer.PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FtpUtils.disconnect(client);
+        server.stop();
+    }
+
+    @Benchmark
+    public boolean existingTree() throws IOException {
+        return FtpUtils.createDirectoryTree(existing, client);
+    }
+
+    @Benchmark
+    public boolean missingTree() throws IOException {
+        return FtpUtils.createDirectoryTree(new File(path("/missing-" + counter++, depth), "file.bin"), client);
+    }
+
+    private static String path(String root, int depth) {
+        StringBuilder path = new StringBuilder(root);
+        for (int level = 1; level < depth; level++) {
+            path.append("/level-").append(level);
+        }
+        return path.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package be.viaa.modules.benchmarks;
+
+import be.viaa.modules.EmbeddedFtpServer;
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of listing a folder and of checking whether a file in it exists, for growing folder sizes.
+ *
+ * @author VIAA vzw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ListingBenchmark {
+
+    private static final String FOLDER = "/listing";
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int entries;
+
+    private EmbeddedFtpServer server;
+
+    private FTPClient client;
+
+    private String lastFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedFtpServer.start();
+        for (int i = 0; i < entries; i++) {
+            server.createFile(FOLDER + "/file-" + i + ".xml", 0);
+        }
+        lastFile = "file-" + (entries - 1) + ".xml";
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        client = FtpUtils.createSession(config, EmbeddedFtpServer.USER, EmbeddedFtpServer.HOST,
+                server.getPort(), EmbeddedFtpServer.PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FtpUtils.disconnect(client);
+        server.stop();
+    }
+
+    @Benchmark
+    public FTPFile[] listFiles() {
+        return FtpUtils.listFiles(client, FOLDER);
+    }
+
+    @Benchmark
+    public boolean fileExists() {
+        return FtpUtils.fileExists(client, FOLDER, lastFile);
+    }
+}
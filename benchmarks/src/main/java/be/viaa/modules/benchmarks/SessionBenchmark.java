@@ -0,0 +1,71 @@
+package be.viaa.modules.benchmarks;
+
+import be.viaa.modules.EmbeddedFtpServer;
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting an authenticated session, with and without the session pool.
+ *
+ * @author VIAA vzw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnectorConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedFtpServer.start();
+        config = EmbeddedFtpServer.config();
+        config.setPoolEnabled(pooled);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        config.closeSessionPool();
+        server.stop();
+    }
+
+    @Benchmark
+    public FTPClient createSession() {
+        FTPClient client = FtpUtils.createSession(config, EmbeddedFtpServer.USER, EmbeddedFtpServer.HOST,
+                server.getPort(), EmbeddedFtpServer.PASSWORD);
+        FtpUtils.disconnect(client);
+        return client;
+    }
+
+    @Benchmark
+    public FTPClient openSession() {
+        FTPClient client = FtpUtils.openSession(config, EmbeddedFtpServer.USER, EmbeddedFtpServer.HOST,
+                server.getPort(), EmbeddedFtpServer.PASSWORD);
+        FtpUtils.closeSession(config, client);
+        return client;
+    }
+}
@@ -0,0 +1,135 @@
+package be.viaa.modules.benchmarks;
+
+import be.viaa.modules.EmbeddedFtpServer;
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import be.viaa.modules.utils.FtpConnectionClosingStream;
+import org.apache.commons.net.ftp.FTPClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of uploading and downloading a file, for file sizes from 1 KB to 1 GB. The buffered
+ * download keeps the whole file on the heap, hence the large heap.
+ *
+ * @author VIAA vzw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class TransferBenchmark {
+
+    private static final String FOLDER = "/transfer";
+
+    private static final String DOWNLOAD = "download.bin";
+
+    private static final String UPLOAD = "upload.bin";
+
+    @Param({"1024", "1048576", "104857600", "1073741824"})
+    public long size;
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnectorConfig config;
+
+    private FTPClient client;
+
+    private final byte[] buffer = new byte[65536];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedFtpServer.start();
+        server.createFile(FOLDER + "/" + DOWNLOAD, size);
+        config = EmbeddedFtpServer.config();
+        client = FtpUtils.createSession(config, EmbeddedFtpServer.USER, EmbeddedFtpServer.HOST,
+                server.getPort(), EmbeddedFtpServer.PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FtpUtils.disconnect(client);
+        server.stop();
+    }
+
+    @Benchmark
+    public void putFile() {
+        FtpUtils.putFile(client, new ZeroInputStream(size), FOLDER, UPLOAD);
+    }
+
+    @Benchmark
+    public void getFileStream(Blackhole blackhole) throws IOException {
+        drain(FtpUtils.getFileStream(client, FOLDER, DOWNLOAD), blackhole);
+    }
+
+    /**
+     * Streaming download, which needs a session of its own since the stream closes it
+     */
+    @Benchmark
+    public void openFileStream(Blackhole blackhole) throws IOException {
+        FTPClient session = FtpUtils.openSession(config, EmbeddedFtpServer.USER, EmbeddedFtpServer.HOST,
+                server.getPort(), EmbeddedFtpServer.PASSWORD);
+        InputStream stream = FtpUtils.openFileStream(session, FOLDER, DOWNLOAD);
+        drain(new FtpConnectionClosingStream(config, session, stream, true), blackhole);
+    }
+
+    private void drain(InputStream stream, Blackhole blackhole) throws IOException {
+        try (InputStream in = stream) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                blackhole.consume(read);
+            }
+        }
+    }
+
+    /**
+     * Stream of zeroes of a fixed length that does not allocate while being read
+     */
+    private static final class ZeroInputStream extends InputStream {
+
+        private long remaining;
+
+        private ZeroInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(len, remaining);
+            Arrays.fill(bytes, off, off + count, (byte) 0);
+            remaining -= count;
+            return count;
+        }
+    }
+}
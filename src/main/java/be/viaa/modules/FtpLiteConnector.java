@@ -7,20 +7,64 @@
  */
 package be.viaa.modules;
 
+import be.viaa.modules.cache.FtpDirectoryCache;
+import be.viaa.modules.cache.FtpListingCache;
+import be.viaa.modules.cache.FtpSnapshotStore;
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.metrics.HostMetrics.PhaseTimer;
+import be.viaa.modules.pool.FtpSessionKey;
+import be.viaa.modules.pool.SessionWarmer;
+import be.viaa.modules.transfer.ArchiveFormat;
+import be.viaa.modules.transfer.CompressedTransfer;
+import be.viaa.modules.transfer.Compression;
+import be.viaa.modules.transfer.DigestAlgorithm;
+import be.viaa.modules.transfer.FolderArchive;
+import be.viaa.modules.transfer.ResumableTransfer;
+import be.viaa.modules.transfer.SegmentedDownload;
+import be.viaa.modules.transfer.TransferProfile;
+import be.viaa.modules.transfer.TreeSync;
+import be.viaa.modules.utils.Checksum;
+import be.viaa.modules.utils.ChecksumInputStream;
+import be.viaa.modules.utils.FtpBatchResult;
+import be.viaa.modules.utils.FtpChanges;
 import be.viaa.modules.utils.FtpConnectionClosingStream;
+import be.viaa.modules.utils.FtpDigest;
+import be.viaa.modules.utils.FtpEntry;
+import be.viaa.modules.utils.FtpEntryType;
+import be.viaa.modules.utils.FtpFileFilter;
+import be.viaa.modules.utils.FtpListingPages;
+import be.viaa.modules.utils.FtpSyncResult;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPListParseEngine;
 
 import org.mule.api.annotations.*;
 import org.mule.api.annotations.display.Password;
+import org.mule.api.annotations.lifecycle.Start;
+import org.mule.api.annotations.lifecycle.Stop;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * FTP Light connector. It takes credentials in all calls. Opens and closes a connection on each
- * call to the server.
+ * call to the server, unless session pooling is enabled in the configuration, in which case
+ * authenticated sessions are reused per host, port and user.
  *
  * @author MuleSoft, Inc.
  * Modifications copyright (c) 2017 VIAA vzw
@@ -36,7 +80,22 @@ public class FtpLiteConnector
     private final static String STANDARD_FTP_PORT = "21";
 
     /**
-     * Get all folder and files in a Path, it defaults to the home folder when path is null
+     * The number of directories remembered during a batch upload when the directory cache is disabled
+     */
+    private final static int BATCH_DIRECTORY_CACHE_SIZE = 1000;
+
+    /**
+     * The time in milliseconds directories are remembered during a batch upload when the directory cache is disabled
+     */
+    private final static long BATCH_DIRECTORY_CACHE_TTL = 3600000L;
+
+    /**
+     * Get all folder and files in a Path, it defaults to the home folder when path is null.
+     * When the listing cache is enabled, a recent listing is returned without connecting, and an
+     * older one is reused if the folder's modification time did not change.
+     * Entries can be limited by name, type, size and modification time; the filter is applied while
+     * the listing is parsed. With namesOnly and at most a name filter, only the names are listed
+     * with NLST, passing simple globs on to the server.
      *
      * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-folder}
      *
@@ -45,6 +104,12 @@ public class FtpLiteConnector
      * @param password The password to use to login
      * @param port the port the FTP service is listening on
      * @param path the path to the folder to list
+     * @param namePattern a glob, or a regular expression prefixed with regex:, the names must match
+     * @param entryType the type of the entries to list, e.g. only files or only directories
+     * @param minSize the minimum size in bytes of the entries
+     * @param maxSize the maximum size in bytes of the entries
+     * @param modifiedSince the earliest modification time of the entries, in milliseconds since the epoch
+     * @param namesOnly whether entries only need their name, ignored when filtering on anything but the name
      * @return an array of Entries that represents directories and files in the path specified
      */
     
@@ -54,16 +119,155 @@ public class FtpLiteConnector
             String userName,
             @Password String password,
             @Default(value=STANDARD_FTP_PORT) String port,
-            @Optional String path)
+            @Optional String path,
+            @Optional String namePattern,
+            @Optional FtpEntryType entryType,
+            @Optional Long minSize,
+            @Optional Long maxSize,
+            @Optional Long modifiedSince,
+            @Default(value="false") boolean namesOnly)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.getFolder")) {
+            FtpFileFilter filter = FtpFileFilter.of(namePattern, entryType, minSize, maxSize, modifiedSince);
+            if (namesOnly && (filter == null || filter.isNameOnly())) {
+                FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+                try {
+                    return FtpUtils.listNames(client, path, filter);
+                } finally {
+                    FtpUtils.closeSession(config, client);
+                }
+            }
+            return listFolder(hostName, userName, password, port, path, filter);
+        }
+    }
+
+    /**
+     * Lists a folder through the listing cache when it is enabled. The cache holds complete listings,
+     * so cached listings are filtered afterwards, and uncached ones while they are parsed. Listings are
+     * only served from the cache to callers with the same credentials as the session that listed them.
+     */
+    private FTPFile[] listFolder(String hostName, String userName, String password, String port, String path,
+                                 FtpFileFilter filter)
+    {
+        FtpListingCache cache = config.getListingCache();
+        FtpSessionKey key = cache == null ? null : FtpUtils.sessionKey(userName, hostName, port, password);
+        FtpListingCache.Listing cached = cache == null ? null : cache.get(key, path);
+        if (cached != null && cached.isFresh()) {
+            return filtered(cached.getFiles(), filter);
+        }
+        FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+        try {
+            if (cache == null) {
+                return FtpUtils.listFiles(client, path, filter);
+            }
+            if (cache.getHomeDirectory(key) == null) {
+                // Sessions are opened, or given back to the pool, in their home directory
+                cache.setHomeDirectory(key, FtpUtils.getWorkingDirectory(client));
+                cached = cache.get(key, path);
+            }
+            Long modified = FtpUtils.getModificationTime(client, path);
+            if (cached != null && modified != null && modified.equals(cached.getModified())) {
+                cache.revalidate(key, path);
+                return filtered(cached.getFiles(), filter);
+            }
+            FTPFile[] files = FtpUtils.listFiles(client, path);
+            cache.put(key, path, files, modified);
+            return filter == null ? files.clone() : filter.filter(files);
+        } finally {
+            FtpUtils.closeSession(config, client);
+        }
+    }
+
+    private static FTPFile[] filtered(FTPFile[] files, FtpFileFilter filter) {
+        return filter == null ? files : filter.filter(files);
+    }
+
+    /**
+     * Get all folder and files in a Path in pages of a fixed size, it defaults to the home folder when path is null.
+     * The raw listing is read in full and the session given back before the first page is returned; its
+     * lines are only parsed into entries when their page is requested.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-folder-paged}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param path the path to the folder to list
+     * @param pageSize the number of entries in each page
+     * @param lightweight whether to return FtpEntry objects with only name, size, type and modification time instead of FTPFile objects
+     * @return an iterator over pages of entries that represent directories and files in the path specified
+     */
+
+    @Processor
+    public Iterator<List<Object>> getFolderPaged(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Optional String path,
+            @Default(value="1000") int pageSize,
+            @Default(value="false") boolean lightweight)
     {
-        FTPClient client = FtpUtils.createSession(config, userName, hostName, port, password);
-        FTPFile[] files = FtpUtils.listFiles(client, path);
-        FtpUtils.disconnect(client);
-        return files;
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.getFolderPaged")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            FTPListParseEngine engine;
+            try {
+                engine = FtpUtils.initiateListing(client, path);
+            } finally {
+                FtpUtils.closeSession(config, client);
+            }
+            Function<FTPFile, Object> mapper = lightweight ? FtpEntry::of : file -> file;
+            return new FtpListingPages<>(engine, pageSize, mapper);
+        }
     }
 
     /**
-     * Get a single file's content as a stream
+     * Get the files of a Path that were added, changed or removed since the previous poll of the same
+     * host, port, user and folder, however its path is written; it defaults to the home folder when path is
+     * null. The first poll reports every file as added. Folders are not reported.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:poll-changes}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param path the path to the folder to poll
+     * @param stableOnly whether new and changed files are only reported once a later poll finds the same size and modification time
+     * @return the files added, changed and removed since the previous poll
+     */
+
+    @Processor
+    public FtpChanges pollChanges(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Optional String path,
+            @Default(value="false") boolean stableOnly)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.pollChanges")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                // Sessions start out in the home directory, pooled ones are reset to it
+                FtpSnapshotStore.Snapshot snapshot = config.getSnapshotStore().get(
+                        FtpUtils.sessionKey(userName, hostName, port, password), FtpUtils.getWorkingDirectory(client), path);
+                // Held while listing, so concurrent polls of the same folder do not report the same changes twice
+                synchronized (snapshot) {
+                    return snapshot.update(FtpUtils.listFiles(client, path), stableOnly);
+                }
+            } finally {
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    /**
+     * Get a single file's content as a stream. Unless streaming, files of at least the configured
+     * segment threshold are downloaded over several sessions at once into a temporary file when
+     * segmentCount is larger than 1. With an offset or length only that range of the file is read: the download
+     * starts at the offset with REST, and is aborted once length bytes are read.
      *
      * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-file-content}
      *
@@ -72,21 +276,87 @@ public class FtpLiteConnector
      * @param password The password to use to login
      * @param port the port the SFTP service is listening on
      * @param filePath the path to the folder to list
+     * @param fileName the name of the file
+     * @param streaming whether to read the file straight from the data connection instead of buffering it in memory first
+     * @param transferProfile transfer settings for this operation, overriding those of the configuration
+     * @param compression whether the data connection is deflated with MODE Z, or the file is gunzipped by the connector
+     * @param digest the algorithm of a checksum computed while the file is read, available as the digest property of the stream
+     * @param verifyDigest whether the checksum is compared with the server's, when the server offers the algorithm
+     * @param offset the position of the first byte to read, from the start of the file when not given
+     * @param length the number of bytes to read, up to the end of the file when not given
      * @return an InputStream of the file
      */
 
     @Processor
-    public FtpConnectionClosingStream getFileContent(
+    public InputStream getFileContent(
             String hostName,
             String userName,
             @Password String password,
             @Default(value=STANDARD_FTP_PORT) String port,
             String filePath,
-            String fileName)
+            String fileName,
+            @Default(value="false") boolean streaming,
+            @Optional TransferProfile transferProfile,
+            @Default(value="NONE") Compression compression,
+            @Optional DigestAlgorithm digest,
+            @Default(value="true") boolean verifyDigest,
+            @Optional Long offset,
+            @Optional Long length)
     {
-        FTPClient client = FtpUtils.createSession(config, userName, hostName, port, password);
-        InputStream result = FtpUtils.getFileStream(client, filePath, fileName);
-        return new FtpConnectionClosingStream(client, result);
+        boolean ranged = offset != null || length != null;
+        if (ranged && (offset != null && offset < 0 || length != null && length < 0)) {
+            throw new FtpLiteException("The offset and length of a range cannot be negative");
+        }
+        if (ranged && compression != null && compression != Compression.NONE) {
+            throw new FtpLiteException("A range cannot be read from a compressed transfer");
+        }
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.getFileContent")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            // A range is small or cheap to read again, and is not resumed nor split in segments
+            ResumableTransfer resumable = ranged ? null : resumableTransfer(userName, hostName, port, password, client);
+            CompressedTransfer compressed = CompressedTransfer.of(compression, config.getCompressionLevel());
+            InputStream result = null;
+            String verifyPath = null;
+            FtpEntry segmented = null;
+            String segmentedPath = null;
+            try {
+                FtpUtils.applyTransferProfile(client, transferProfile);
+                if (ranged) {
+                    long start = offset == null ? 0 : offset;
+                    long limit = length == null ? -1 : length;
+                    result = streaming
+                            ? FtpUtils.openFileRange(client, filePath, fileName, start)
+                            : FtpUtils.getFileRange(client, filePath, fileName, start, limit);
+                    return new FtpConnectionClosingStream(config, client, result, streaming, Checksum.of(digest), null, limit);
+                }
+                // A streamed file is read as it arrives, rather than after all its segments are downloaded
+                if (!streaming && config.getSegmentCount() > 1 && compressed == null && digest == null) {
+                    FtpEntry info = FtpUtils.getFileInfo(client, filePath, fileName);
+                    if (info != null && SegmentedDownload.appliesTo(config, info.getSize())) {
+                        segmented = info;
+                        segmentedPath = FtpUtils.resolvePath(client, filePath, fileName);
+                    }
+                }
+                if (segmented == null) {
+                    // Resolved up front, a resumed download may continue over another session
+                    verifyPath = digest != null && verifyDigest && verifiable(transferProfile, resumable, compressed)
+                            ? FtpUtils.resolvePath(client, filePath, fileName) : null;
+                    result = streaming
+                            ? FtpUtils.openFileStream(client, filePath, fileName, compressed)
+                            : FtpUtils.getFileStream(client, filePath, fileName, resumable, compressed);
+                }
+            } catch (RuntimeException e) {
+                FtpUtils.closeSession(config, resumable == null ? client : resumable.getClient());
+                throw e;
+            }
+            if (segmented != null) {
+                // Given back first, the segments count against the same limit of sessions per host
+                FtpUtils.closeSession(config, client);
+                return new SegmentedDownload(config, userName, hostName, port, password).open(segmentedPath, segmented.getSize());
+            }
+            return new FtpConnectionClosingStream(config, resumable == null ? client : resumable.getClient(), result, streaming,
+                    Checksum.of(digest), verifyPath, -1, compressed);
+        }
     }
 
 
@@ -102,7 +372,8 @@ public class FtpLiteConnector
      * @param filePath the path to the folder to store the file in
      * @param fileName the name of the file to store
      * @param content an InputStream with the content to store in the file
-     * @return an LsEntry with the file's information
+     * @param transferProfile transfer settings for this operation, overriding those of the configuration
+     * @param compression whether the data connection is deflated with MODE Z, or the file is stored gzipped by the connector
      */
 
     @Processor
@@ -113,11 +384,133 @@ public class FtpLiteConnector
             @Default(value=STANDARD_FTP_PORT) String port,
             String filePath,
             String fileName,
-            @Default(value="#[payload]") InputStream content)
+            @Default(value="#[payload]") InputStream content,
+            @Optional TransferProfile transferProfile,
+            @Default(value="NONE") Compression compression)
     {
-        FTPClient client = FtpUtils.createSession(config, userName, hostName, port, password);
-        FtpUtils.putFile(client, content, filePath, fileName);
-        FtpUtils.disconnect(client);
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.uploadStream")) {
+            upload(hostName, userName, password, port, filePath, fileName, content, transferProfile, compression, null, false);
+        }
+    }
+
+    /**
+     * Uploads a file to the FTP server, computing its checksum while it is sent. When the server offers
+     * the algorithm through HASH, XMD5, XSHA256 or XCRC, the checksum is compared with the server's
+     * over the same session.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:upload-stream-with-digest}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to the folder to store the file in
+     * @param fileName the name of the file to store
+     * @param content an InputStream with the content to store in the file
+     * @param transferProfile transfer settings for this operation, overriding those of the configuration
+     * @param compression whether the data connection is deflated with MODE Z, or the file is stored gzipped by the connector
+     * @param digest the algorithm of the checksum
+     * @param verifyDigest whether the checksum is compared with the server's, when the server offers the algorithm
+     * @return the checksum of the content, with the server's when it was compared
+     */
+
+    @Processor
+    public FtpDigest uploadStreamWithDigest(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName,
+            @Default(value="#[payload]") InputStream content,
+            @Optional TransferProfile transferProfile,
+            @Default(value="NONE") Compression compression,
+            @Default(value="SHA_256") DigestAlgorithm digest,
+            @Default(value="true") boolean verifyDigest)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.uploadStreamWithDigest")) {
+            return upload(hostName, userName, password, port, filePath, fileName, content, transferProfile, compression,
+                    digest, verifyDigest);
+        }
+    }
+
+    /**
+     * Uploads a local file to the FTP server. The file is read through a FileChannel and streamed to the
+     * data connection, it never passes through the message.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:upload-from-file}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param localPath the path of the local file to upload
+     * @param filePath the path to the folder to store the file in
+     * @param fileName the name of the file to store
+     * @param transferProfile transfer settings for this operation, overriding those of the configuration
+     */
+
+    @Processor
+    public void uploadFromFile(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String localPath,
+            String filePath,
+            String fileName,
+            @Optional TransferProfile transferProfile)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.uploadFromFile")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                FtpUtils.applyTransferProfile(client, transferProfile);
+                FtpUtils.uploadFromFile(client, new File(localPath), filePath, fileName, config.getDirectoryCache(),
+                        FtpUtils.sessionKey(userName, hostName, port, password), config.getFileBufferPool());
+            } finally {
+                invalidateListing(userName, hostName, port, password, filePath);
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    /**
+     * Downloads a file to a local file. The file is written through a FileChannel to a temporary file that
+     * replaces the local file once complete; its content never passes through the message.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:download-to-file}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to where the file resides
+     * @param fileName the name of the file
+     * @param localPath the path of the local file to write, its folder is created when missing
+     * @param transferProfile transfer settings for this operation, overriding those of the configuration
+     * @return the number of bytes written
+     */
+
+    @Processor
+    public long downloadToFile(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName,
+            String localPath,
+            @Optional TransferProfile transferProfile)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.downloadToFile")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                FtpUtils.applyTransferProfile(client, transferProfile);
+                return FtpUtils.downloadToFile(client, filePath, fileName, new File(localPath), config.getFileBufferPool());
+            } finally {
+                FtpUtils.closeSession(config, client);
+            }
+        }
     }
 
     /**
@@ -142,10 +535,51 @@ public class FtpLiteConnector
             String filePath,
             String fileName)
     {
-        FTPClient client = FtpUtils.createSession(config, userName, hostName, port, password);
-        boolean exists = FtpUtils.fileExists(client, filePath, fileName);
-        FtpUtils.disconnect(client);
-        return exists;
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.fileExists")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                return FtpUtils.fileExists(client, filePath, fileName);
+            } finally {
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    /**
+     * Get a single file's size, modification time and type, looked up over the control connection
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-file-info}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to the folder the file is in
+     * @param fileName the name of the file
+     * @return an FtpEntry with the file's information
+     */
+
+    @Processor
+    public FtpEntry getFileInfo(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.getFileInfo")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                FtpEntry info = FtpUtils.getFileInfo(client, filePath, fileName);
+                if (info == null) {
+                    throw new FtpLiteException("File does not exist");
+                }
+                return info;
+            } finally {
+                FtpUtils.closeSession(config, client);
+            }
+        }
     }
 
     /**
@@ -170,10 +604,730 @@ public class FtpLiteConnector
             String filePath,
             String fileName)
     {
-        FTPClient client = FtpUtils.createSession(config, userName, hostName, port, password);
-        boolean deleted = FtpUtils.deleteFile(client, filePath, fileName);
-        FtpUtils.disconnect(client);
-        return deleted;
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.deleteFile")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                return FtpUtils.deleteFile(client, filePath, fileName);
+            } finally {
+                invalidateListing(userName, hostName, port, password, filePath);
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    /**
+     * Uploads many files over a single session. Each item is a map with a filePath, a fileName and
+     * a content (an InputStream, a byte array or a String). A failing item does not stop the batch.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:upload-batch}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param items the files to upload
+     * @return the outcome of each item, in the order of the items
+     */
+
+    @Processor
+    public List<FtpBatchResult> uploadBatch(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Default(value="#[payload]") List<Map<String, Object>> items)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.uploadBatch")) {
+            FtpSessionKey key = FtpUtils.sessionKey(userName, hostName, port, password);
+            // Directories created for one item are known to exist for the next ones
+            FtpDirectoryCache cache = config.getDirectoryCache() != null
+                    ? config.getDirectoryCache()
+                    : new FtpDirectoryCache(BATCH_DIRECTORY_CACHE_SIZE, BATCH_DIRECTORY_CACHE_TTL);
+            return runBatch(hostName, userName, password, port, items, (client, item) -> {
+                try {
+                    FtpUtils.putFile(client, toInputStream(item.get("content")), (String) item.get("filePath"),
+                            (String) item.get("fileName"), cache, key);
+                } finally {
+                    invalidateListing(userName, hostName, port, password, (String) item.get("filePath"));
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Deletes many files over a single session. Each item is a map with a filePath and a fileName.
+     * A failing item does not stop the batch.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:delete-batch}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param items the files to delete
+     * @return the outcome of each item, in the order of the items, with whether the file was deleted as result
+     */
+
+    @Processor
+    public List<FtpBatchResult> deleteBatch(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Default(value="#[payload]") List<Map<String, Object>> items)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.deleteBatch")) {
+            return runBatch(hostName, userName, password, port, items, (client, item) -> {
+                try {
+                    return FtpUtils.deleteFile(client, (String) item.get("filePath"), (String) item.get("fileName"));
+                } finally {
+                    invalidateListing(userName, hostName, port, password, (String) item.get("filePath"));
+                }
+            });
+        }
+    }
+
+    /**
+     * Moves a file on the server without transferring it, creating the target folder tree when needed
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:move-file}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to the folder of the file
+     * @param fileName the name of the file
+     * @param targetPath the path to the folder to move the file to
+     * @param targetName the name of the moved file, it defaults to fileName
+     */
+
+    @Processor
+    public void moveFile(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName,
+            String targetPath,
+            @Optional String targetName)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.moveFile")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                move(client, userName, hostName, port, password, filePath, fileName, targetPath, targetName);
+            } finally {
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    /**
+     * Renames a file within its folder
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:rename-file}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to the folder of the file
+     * @param fileName the name of the file
+     * @param newName the new name of the file
+     */
+
+    @Processor
+    public void renameFile(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName,
+            String newName)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.renameFile")) {
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                move(client, userName, hostName, port, password, filePath, fileName, filePath, newName);
+            } finally {
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    /**
+     * Moves many files on the server over a single session. Each item is a map with a filePath, a fileName,
+     * a targetPath and optionally a targetName. A failing item does not stop the batch.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:move-batch}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param items the files to move
+     * @return the outcome of each item, in the order of the items
+     */
+
+    @Processor
+    public List<FtpBatchResult> moveBatch(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Default(value="#[payload]") List<Map<String, Object>> items)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.moveBatch")) {
+            return runBatch(hostName, userName, password, port, items, (client, item) -> {
+                move(client, userName, hostName, port, password, (String) item.get("filePath"), (String) item.get("fileName"),
+                        (String) item.get("targetPath"), (String) item.get("targetName"));
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Copies a file on the server with SITE CPFR and CPTO, creating the target folder tree when needed.
+     * When the server cannot copy files, the file is copied through a temporary local file on the same session instead.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:copy-file}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to the folder of the file
+     * @param fileName the name of the file
+     * @param targetPath the path to the folder to copy the file to
+     * @param targetName the name of the copy, it defaults to fileName
+     * @return whether the server copied the file itself, false when it was copied through the connector
+     */
+
+    @Processor
+    public boolean copyFile(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName,
+            String targetPath,
+            @Optional String targetName)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.copyFile")) {
+            FtpSessionKey key = FtpUtils.sessionKey(userName, hostName, port, password);
+            FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+            try {
+                String source = absolutePath(client, filePath, fileName);
+                String target = absolutePath(client, targetPath, targetName == null ? fileName : targetName);
+                if (FtpUtils.copyFile(client, source, target, config.getDirectoryCache(), key)) {
+                    return true;
+                }
+                FtpUtils.stageCopy(client, source, target, config.getDirectoryCache(), key);
+                return false;
+            } finally {
+                invalidateListing(userName, hostName, port, password, targetPath);
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    private void move(FTPClient client, String userName, String hostName, String port, String password,
+                      String filePath, String fileName, String targetPath, String targetName)
+    {
+        try {
+            String source = absolutePath(client, filePath, fileName);
+            String target = absolutePath(client, targetPath, targetName == null ? fileName : targetName);
+            FtpUtils.moveFile(client, source, target, config.getDirectoryCache(),
+                    FtpUtils.sessionKey(userName, hostName, port, password));
+        } finally {
+            invalidateListing(userName, hostName, port, password, filePath);
+            invalidateListing(userName, hostName, port, password, targetPath);
+        }
+    }
+
+    /**
+     * Gets the content of many files over a single session. Each item is a map with a filePath and a
+     * fileName. A failing item does not stop the batch.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-files-batch}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param items the files to get
+     * @return the outcome of each item, in the order of the items, with an InputStream of the file as result
+     */
+
+    @Processor
+    public List<FtpBatchResult> getFilesBatch(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Default(value="#[payload]") List<Map<String, Object>> items)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.getFilesBatch")) {
+            return runBatch(hostName, userName, password, port, items, (client, item) ->
+                    FtpUtils.getFileStream(client, (String) item.get("filePath"), (String) item.get("fileName")));
+        }
+    }
+
+    /**
+     * Downloads a remote folder tree into a local folder, over at most the given number of sessions at once.
+     * Files whose size and modification time already match the local copy are skipped.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:download-tree}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param remotePath the remote folder to download
+     * @param localPath the local folder to download into
+     * @param concurrency the maximum number of sessions used at once
+     * @return the files transferred, skipped and failed
+     */
+
+    @Processor
+    public FtpSyncResult downloadTree(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String remotePath,
+            String localPath,
+            @Default("4") int concurrency)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.downloadTree")) {
+            return new TreeSync(config, userName, hostName, port, password)
+                    .download(remotePath, new File(localPath), concurrency);
+        }
+    }
+
+    /**
+     * Uploads a local folder tree into a remote folder, over at most the given number of sessions at once.
+     * Files whose size already matches and whose remote copy is not older than the local one are skipped.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:upload-tree}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param localPath the local folder to upload
+     * @param remotePath the remote folder to upload into
+     * @param concurrency the maximum number of sessions used at once
+     * @return the files transferred, skipped and failed
+     */
+
+    @Processor
+    public FtpSyncResult uploadTree(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String localPath,
+            String remotePath,
+            @Default("4") int concurrency)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.uploadTree")) {
+            return new TreeSync(config, userName, hostName, port, password)
+                    .upload(new File(localPath), remotePath, concurrency);
+        }
+    }
+
+    /**
+     * Get the files of a Path as a single zip or tar archive, it defaults to the home folder when path is null.
+     * The archive is written while it is read: files are fetched one after the other over one session, or
+     * downloaded ahead into temporary files over prefetch extra sessions, so memory use does not depend on
+     * the size of the folder. A file that cannot be fetched fails the read of the archive with an IOException.
+     * An archive the reader stops reading for the data timeout, or the host queue timeout without one, fails too.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-folder-as-archive}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param path the path to the folder to archive
+     * @param format the format of the archive
+     * @param recursive whether the files of subfolders are included
+     * @param prefetch the number of files downloaded ahead over extra sessions
+     * @return an InputStream of the archive
+     */
+
+    @Processor
+    public InputStream getFolderAsArchive(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Optional String path,
+            @Default(value="ZIP") ArchiveFormat format,
+            @Default(value="false") boolean recursive,
+            @Default(value="0") int prefetch)
+    {
+        try (PhaseTimer timer = config.getMetrics().host(hostName).start("operation.getFolderAsArchive")) {
+            return new FolderArchive(config, userName, hostName, port, password).open(path, format, recursive, prefetch);
+        }
+    }
+
+    /**
+     * Starts getFolder in the background. At most asyncMaxPerHost operations run against a host at once.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-folder-async}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param path the path to the folder to list
+     * @return a future of the files and folders in the path
+     */
+
+    @Processor
+    public CompletableFuture<FTPFile[]> getFolderAsync(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            @Optional String path)
+    {
+        return config.getOperationExecutor().submit(hostName, () ->
+                getFolder(hostName, userName, password, port, path, null, null, null, null, null, false));
+    }
+
+    /**
+     * Starts fileExists in the background. At most asyncMaxPerHost operations run against a host at once.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:file-exists-async}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @return a future of whether the file exists
+     */
+
+    @Processor
+    public CompletableFuture<Boolean> fileExistsAsync(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName)
+    {
+        return config.getOperationExecutor().submit(hostName, () ->
+                fileExists(hostName, userName, password, port, filePath, fileName));
+    }
+
+    /**
+     * Starts getFileContent in the background. At most asyncMaxPerHost operations run against a host at once.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:get-file-content-async}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @param streaming whether to read the file straight from the data connection instead of buffering it in memory first
+     * @param transferProfile transfer settings for this operation, overriding those of the configuration
+     * @param compression whether the data connection is deflated with MODE Z, or the file is gunzipped by the connector
+     * @param digest the algorithm of a checksum computed while the file is read, available as the digest property of the stream
+     * @param verifyDigest whether the checksum is compared with the server's, when the server offers the algorithm
+     * @return a future of the content of the file
+     */
+
+    @Processor
+    public CompletableFuture<InputStream> getFileContentAsync(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName,
+            @Default(value="false") boolean streaming,
+            @Optional TransferProfile transferProfile,
+            @Default(value="NONE") Compression compression,
+            @Optional DigestAlgorithm digest,
+            @Default(value="true") boolean verifyDigest)
+    {
+        return config.getOperationExecutor().submit(hostName, () ->
+                getFileContent(hostName, userName, password, port, filePath, fileName, streaming, transferProfile, compression,
+                        digest, verifyDigest, null, null));
+    }
+
+    /**
+     * Starts uploadStream in the background. At most asyncMaxPerHost operations run against a host at once.
+     * The content must stay readable until the future completes.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:upload-stream-async}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to the folder to store the file in
+     * @param fileName the name of the file
+     * @param content the content of the file
+     * @param transferProfile transfer settings for this operation, overriding those of the configuration
+     * @param compression whether the data connection is deflated with MODE Z, or the file is stored gzipped by the connector
+     * @return a future completed once the file is stored
+     */
+
+    @Processor
+    public CompletableFuture<Void> uploadStreamAsync(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName,
+            @Default(value="#[payload]") InputStream content,
+            @Optional TransferProfile transferProfile,
+            @Default(value="NONE") Compression compression)
+    {
+        return config.getOperationExecutor().submit(hostName, () -> {
+            uploadStream(hostName, userName, password, port, filePath, fileName, content, transferProfile, compression);
+            return null;
+        });
+    }
+
+    /**
+     * Starts deleteFile in the background. At most asyncMaxPerHost operations run against a host at once.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:delete-file-async}
+     *
+     * @param hostName The FTP host's name to connect to
+     * @param userName The user name to use to login
+     * @param password The password to use to login
+     * @param port the port the FTP service is listening on
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @return a future of whether the file was deleted
+     */
+
+    @Processor
+    public CompletableFuture<Boolean> deleteFileAsync(
+            String hostName,
+            String userName,
+            @Password String password,
+            @Default(value=STANDARD_FTP_PORT) String port,
+            String filePath,
+            String fileName)
+    {
+        return config.getOperationExecutor().submit(hostName, () ->
+                deleteFile(hostName, userName, password, port, filePath, fileName));
+    }
+
+    /**
+     * Waits for futures returned by the asynchronous operations and collects their results.
+     *
+     * {@sample.xml ../../../doc/Ftp-connector.xml.sample ftplite:await-all}
+     *
+     * @param futures the futures to wait for
+     * @param timeout the time in milliseconds to wait for all of them, 0 waits forever
+     * @return the results, in the order of the futures
+     */
+
+    @Processor
+    public List<Object> awaitAll(
+            @Default(value="#[payload]") List<Object> futures,
+            @Default(value="0") long timeout)
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        List<Object> results = new ArrayList<>(futures.size());
+        try {
+            for (Object future : futures) {
+                if (!(future instanceof Future)) {
+                    results.add(future);
+                } else if (timeout > 0) {
+                    results.add(((Future<?>) future).get(Math.max(0, deadline - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS));
+                } else {
+                    results.add(((Future<?>) future).get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FtpLiteException("Interrupted while waiting for the operations");
+        } catch (TimeoutException e) {
+            throw new FtpLiteException("Timed out waiting for the operations");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof FtpLiteException
+                    ? (FtpLiteException) e.getCause() : new FtpLiteException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Uploads a file, computing its checksum on the way when an algorithm is given
+     * @return the checksum, or null when no algorithm is given
+     */
+    private FtpDigest upload(String hostName, String userName, String password, String port, String filePath,
+                             String fileName, InputStream content, TransferProfile transferProfile,
+                             Compression compression, DigestAlgorithm digest, boolean verifyDigest)
+    {
+        FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+        ResumableTransfer resumable = resumableTransfer(userName, hostName, port, password, client);
+        try {
+            FtpUtils.applyTransferProfile(client, transferProfile);
+            CompressedTransfer compressed = CompressedTransfer.of(compression, config.getCompressionLevel());
+            Checksum checksum = Checksum.of(digest);
+            // Resolved up front, creating the directory tree changes the working directory
+            String fullPath = checksum == null ? null : absolutePath(client, filePath, fileName);
+            FtpUtils.putFile(client, checksum == null ? content : new ChecksumInputStream(content, checksum),
+                    filePath, fileName, config.getDirectoryCache(),
+                    FtpUtils.sessionKey(userName, hostName, port, password), resumable, compressed);
+            if (checksum == null) {
+                return null;
+            }
+            return FtpUtils.verifyDigest(resumable == null ? client : resumable.getClient(), fullPath, checksum,
+                    verifyDigest && verifiable(transferProfile, resumable, compressed));
+        } finally {
+            invalidateListing(userName, hostName, port, password, filePath);
+            FtpUtils.closeSession(config, resumable == null ? client : resumable.getClient());
+        }
+    }
+
+    private static String absolutePath(FTPClient client, String filePath, String fileName) {
+        String fullPath = FtpUtils.resolvePath(client, filePath, fileName);
+        return fullPath.startsWith("/") ? fullPath : FtpUtils.resolvePath(client, null, fullPath);
+    }
+
+    /**
+     * The server's checksum only matches when the bytes are stored as they were transferred: in binary
+     * mode, and not gzipped by the connector
+     */
+    private boolean verifiable(TransferProfile transferProfile, ResumableTransfer resumable, CompressedTransfer compressed) {
+        if (compressed != null) {
+            return compressed.getCompression() != Compression.GZIP;
+        }
+        if (resumable != null) {
+            return true;
+        }
+        return transferProfile != null && transferProfile.getBinary() != null
+                ? transferProfile.getBinary() : config.isBinaryMode();
+    }
+
+    /**
+     * Runs an operation for each item over one session, collecting the outcome of each item.
+     * When a failure leaves the session disconnected, or in an unknown state, a new one is opened
+     * for the next item; when that fails, the remaining items are reported as failed.
+     */
+    private List<FtpBatchResult> runBatch(String hostName, String userName, String password, String port,
+                                          List<Map<String, Object>> items,
+                                          BiFunction<FTPClient, Map<String, Object>, Object> operation)
+    {
+        List<FtpBatchResult> results = new ArrayList<>(items.size());
+        FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                Map<String, Object> item = items.get(i);
+                if (client == null || !client.isConnected()) {
+                    if (client != null) {
+                        FtpUtils.invalidateSession(config, client);
+                        client = null;
+                    }
+                    try {
+                        client = FtpUtils.openSession(config, userName, hostName, port, password);
+                    } catch (RuntimeException e) {
+                        for (Map<String, Object> remaining : items.subList(i, items.size())) {
+                            results.add(FtpBatchResult.failure(itemValue(remaining, "filePath"), itemValue(remaining, "fileName"),
+                                    "Could not reopen the session. " + e.getMessage()));
+                        }
+                        return results;
+                    }
+                }
+                try {
+                    results.add(FtpBatchResult.success(itemValue(item, "filePath"), itemValue(item, "fileName"),
+                            operation.apply(client, item)));
+                } catch (FtpLiteException e) {
+                    results.add(FtpBatchResult.failure(itemValue(item, "filePath"), itemValue(item, "fileName"), e.getMessage()));
+                } catch (RuntimeException e) {
+                    results.add(FtpBatchResult.failure(itemValue(item, "filePath"), itemValue(item, "fileName"), e.toString()));
+                    // Whatever went wrong may have left a transfer half done
+                    FtpUtils.invalidateSession(config, client);
+                    client = null;
+                }
+            }
+        } finally {
+            if (client != null) {
+                FtpUtils.closeSession(config, client);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return an item's value as text for its batch result, so an item of the wrong type still gets one
+     */
+    private static String itemValue(Map<String, Object> item, String key) {
+        Object value = item == null ? null : item.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Drops the cached listings of a folder the connector changed, and of the folders above it
+     */
+    private void invalidateListing(String userName, String hostName, String port, String password, String path)
+    {
+        FtpListingCache cache = config.getListingCache();
+        if (cache != null) {
+            cache.invalidate(FtpUtils.sessionKey(userName, hostName, port, password), path);
+        }
+    }
+
+    /**
+     * Returns a resumable transfer over the session when transfer retries are configured, null otherwise
+     */
+    private ResumableTransfer resumableTransfer(String userName, String hostName, String port, String password,
+                                                FTPClient client)
+    {
+        if (config.getTransferRetries() <= 0) {
+            return null;
+        }
+        return new ResumableTransfer(config, userName, hostName, port, password, client);
+    }
+
+    private InputStream toInputStream(Object content) {
+        if (content instanceof InputStream) {
+            return (InputStream) content;
+        } else if (content instanceof byte[]) {
+            return new ByteArrayInputStream((byte[]) content);
+        } else if (content instanceof String) {
+            return new ByteArrayInputStream(((String) content).getBytes(Charset.forName(config.getEncoding())));
+        }
+        throw new FtpLiteException("Unsupported content type " + (content == null ? "null" : content.getClass().getName()));
+    }
+
+    /**
+     * Starts warming up the configured endpoints when the connector is started
+     */
+    @Start
+    public void start() {
+        SessionWarmer.start(config);
+    }
+
+    /**
+     * Closes the pooled sessions when the connector is stopped
+     */
+    @Stop
+    public void stop() {
+        config.closeOperationExecutor();
+        config.closeSessionPool();
+        config.closeBufferPools();
+        config.closeMetrics();
     }
 
     public FtpLiteConnectorConfig getConfig() {
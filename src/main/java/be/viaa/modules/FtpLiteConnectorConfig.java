@@ -1,21 +1,377 @@
 package be.viaa.modules;
 
+import be.viaa.modules.async.FtpOperationExecutor;
+import be.viaa.modules.cache.FtpDirectoryCache;
+import be.viaa.modules.cache.FtpListingCache;
+import be.viaa.modules.cache.FtpSnapshotStore;
+import be.viaa.modules.cache.HostAddressCache;
+import be.viaa.modules.metrics.FtpMetrics;
+import be.viaa.modules.pool.BufferPool;
+import be.viaa.modules.pool.FtpSessionPool;
+import be.viaa.modules.pool.HostBulkhead;
+import be.viaa.modules.transfer.RateLimiter;
+import be.viaa.modules.transfer.TransferProfile;
 import org.mule.api.annotations.Configurable;
 import org.mule.api.annotations.components.Configuration;
 import org.mule.api.annotations.param.Default;
+import org.mule.api.annotations.param.Optional;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Configuration type Config
+ * Configuration type Config. Fields start out at their defaults, so a configuration created
+ * outside of Mule, as in the tests and benchmarks, behaves like one Mule creates.
  * @author VIAA vzw
  */
 @Configuration(friendlyName = "Configuration")
 public class FtpLiteConnectorConfig {
+
+    /**
+     * The size of pooled buffers when no buffer size is configured
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
 	/**
 	 * The encoding to use when connecting to the server
 	 */
     @Configurable
     @Default("UTF-8")
-    private String encoding;
+    private String encoding = "UTF-8";
+
+    /**
+     * Whether authenticated sessions are kept open and reused between operations
+     */
+    @Configurable
+    @Default("false")
+    private boolean poolEnabled;
+
+    /**
+     * The maximum number of pooled sessions per host, port and user
+     */
+    @Configurable
+    @Default("8")
+    private int poolMaxPerKey = 8;
+
+    /**
+     * The maximum number of pooled sessions over all hosts
+     */
+    @Configurable
+    @Default("64")
+    private int poolMaxTotal = 64;
+
+    /**
+     * The time in milliseconds after which an unused pooled session is closed
+     */
+    @Configurable
+    @Default("60000")
+    private long poolIdleTimeout = 60000L;
+
+    /**
+     * The time in milliseconds to wait for a pooled session when the pool is exhausted
+     */
+    @Configurable
+    @Default("30000")
+    private long poolMaxWait = 30000L;
+
+    /**
+     * The interval in milliseconds at which idle pooled sessions are sent a NOOP to keep them open, 0 sends none
+     */
+    @Configurable
+    @Default("0")
+    private long poolKeepAliveInterval;
+
+    /**
+     * Endpoints connected to when the connector starts, as user:password@host:port, or host:port to only
+     * resolve the host. Sessions of endpoints with credentials are kept open in the pool while pooling is enabled.
+     */
+    @Configurable
+    @Optional
+    private List<String> prewarmEndpoints;
+
+    /**
+     * The number of sessions kept open per endpoint with credentials in prewarmEndpoints
+     */
+    @Configurable
+    @Default("1")
+    private int prewarmSessions = 1;
+
+    /**
+     * The time in milliseconds the address of a host is remembered, 0 leaves caching to the JVM
+     */
+    @Configurable
+    @Default("0")
+    private long dnsCacheTtl;
+
+    /**
+     * Whether directories known to exist are remembered, so uploads into them skip creating the directory tree
+     */
+    @Configurable
+    @Default("false")
+    private boolean directoryCacheEnabled;
+
+    /**
+     * The folder the snapshots of pollChanges are written to, so they survive a restart. Without it they are kept in memory only.
+     */
+    @Configurable
+    @Optional
+    private String pollSnapshotDirectory;
+
+    /**
+     * The time in milliseconds a directory is remembered to exist
+     */
+    @Configurable
+    @Default("300000")
+    private long directoryCacheTtl = 300000L;
+
+    /**
+     * The maximum number of directories remembered over all hosts
+     */
+    @Configurable
+    @Default("10000")
+    private int directoryCacheMaxSize = 10000;
+
+    /**
+     * The number of sessions a large file is downloaded over at once, 1 disables segmented downloads
+     */
+    @Configurable
+    @Default("1")
+    private int segmentCount = 1;
+
+    /**
+     * The size in bytes from which a file is downloaded over several sessions
+     */
+    @Configurable
+    @Default("268435456")
+    private long segmentThreshold = 268435456L;
+
+    /**
+     * The minimum size in bytes of each segment of a segmented download
+     */
+    @Configurable
+    @Default("67108864")
+    private long segmentSize = 67108864L;
+
+    /**
+     * The number of times a broken upload or download is resumed, 0 disables resuming.
+     * Resumable transfers are always binary.
+     */
+    @Configurable
+    @Default("0")
+    private int transferRetries;
+
+    /**
+     * The time in milliseconds to wait before resuming a broken transfer
+     */
+    @Configurable
+    @Default("1000")
+    private long transferRetryDelay = 1000L;
+
+    /**
+     * The number of bytes of an upload kept in memory, so it can be resumed from the size the server received
+     */
+    @Configurable
+    @Default("4194304")
+    private int resumeBufferSize = 4194304;
+
+    /**
+     * Whether files are transferred in binary instead of ASCII mode
+     */
+    @Configurable
+    @Default("false")
+    private boolean binaryMode;
+
+    /**
+     * Whether data connections are opened by the client (passive mode) instead of the server (active mode)
+     */
+    @Configurable
+    @Default("false")
+    private boolean passiveMode;
+
+    /**
+     * The size in bytes of the buffers used to copy data
+     */
+    @Configurable
+    @Default("65536")
+    private int bufferSize = 65536;
+
+    /**
+     * The send buffer size in bytes of data sockets, 0 keeps the system default
+     */
+    @Configurable
+    @Default("0")
+    private int dataSendBufferSize;
+
+    /**
+     * The receive buffer size in bytes of data sockets, 0 keeps the system default
+     */
+    @Configurable
+    @Default("0")
+    private int dataReceiveBufferSize;
+
+    /**
+     * Whether Nagle's algorithm is disabled on the control connection
+     */
+    @Configurable
+    @Default("false")
+    private boolean tcpNoDelay;
+
+    /**
+     * The interval in seconds at which NOOPs are sent on the control connection during a transfer, 0 disables them
+     */
+    @Configurable
+    @Default("0")
+    private int controlKeepAliveTimeout;
+
+    /**
+     * The time in milliseconds to wait for a connection to the server, 0 waits forever
+     */
+    @Configurable
+    @Default("0")
+    private int connectTimeout;
+
+    /**
+     * The time in milliseconds to wait for a reply on the control connection, 0 waits forever
+     */
+    @Configurable
+    @Default("0")
+    private int controlTimeout;
+
+    /**
+     * The time in milliseconds to wait for data on a data connection, 0 waits forever
+     */
+    @Configurable
+    @Default("0")
+    private int dataTimeout;
+
+    /**
+     * The compression level, from 0 to 9, of transfers that ask for MODE Z or gzip compression
+     */
+    @Configurable
+    @Default("6")
+    private int compressionLevel = 6;
+
+    /**
+     * The size in bytes of the buffers used to copy between the data connection and a local file,
+     * taken from a pool of their own
+     */
+    @Configurable
+    @Default("1048576")
+    private int fileBufferSize = 1048576;
+
+    /**
+     * The maximum number of idle transfer buffers kept for reuse, per buffer size
+     */
+    @Configurable
+    @Default("64")
+    private int bufferPoolSize = 64;
+
+    /**
+     * Whether pooled buffers come with a direct buffer, so copies to and from local files skip a copy into the heap
+     */
+    @Configurable
+    @Default("false")
+    private boolean bufferPoolDirect;
+
+    /**
+     * Whether folder listings of getFolder are cached. Uploads and deletes through the connector
+     * drop the affected listings; other changes are noticed through the folder's modification
+     * time once a listing is no longer fresh.
+     */
+    @Configurable
+    @Default("false")
+    private boolean listingCacheEnabled;
+
+    /**
+     * The time in milliseconds a cached listing is used without checking the folder's modification time
+     */
+    @Configurable
+    @Default("5000")
+    private long listingCacheTtl = 5000L;
+
+    /**
+     * The maximum number of cached listings over all hosts
+     */
+    @Configurable
+    @Default("1000")
+    private int listingCacheMaxSize = 1000;
+
+    /**
+     * The number of threads running the asynchronous operations
+     */
+    @Configurable
+    @Default("16")
+    private int asyncThreads = 16;
+
+    /**
+     * The maximum number of asynchronous operations running against one host at once, others wait their turn
+     */
+    @Configurable
+    @Default("4")
+    private int asyncMaxPerHost = 4;
+
+    /**
+     * The maximum number of connections open per host over all users, idle pooled ones included, 0 leaves
+     * it unlimited. Operations over the limit close an idle pooled connection to the host, or wait for one
+     * to be closed.
+     */
+    @Configurable
+    @Default("0")
+    private int hostMaxSessions;
+
+    /**
+     * The maximum number of operations waiting for a connection per host, others fail right away
+     */
+    @Configurable
+    @Default("100")
+    private int hostMaxQueued = 100;
+
+    /**
+     * The time in milliseconds an operation waits for a connection to a host before it fails
+     */
+    @Configurable
+    @Default("30000")
+    private long hostQueueTimeout = 30000L;
+
+    /**
+     * The maximum transfer rate in bytes per second per host over all users, 0 leaves it unlimited
+     */
+    @Configurable
+    @Default("0")
+    private long hostMaxBytesPerSecond;
+
+    /**
+     * The maximum transfer rate in bytes per second per user of a host, 0 leaves it unlimited
+     */
+    @Configurable
+    @Default("0")
+    private long userMaxBytesPerSecond;
+
+    private FtpSessionPool sessionPool;
+
+    private FtpDirectoryCache directoryCache;
+
+    private FtpListingCache listingCache;
+
+    private FtpOperationExecutor operationExecutor;
+
+    private HostAddressCache hostAddressCache;
+
+    private HostBulkhead hostBulkhead;
+
+    private FtpSnapshotStore snapshotStore;
+
+    private BufferPool bufferPool;
+
+    private BufferPool fileBufferPool;
+
+    private FtpMetrics metrics;
+
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
 
     public String getEncoding() {
         return encoding;
@@ -24,4 +380,556 @@ public class FtpLiteConnectorConfig {
     public void setEncoding(String encoding) {
         this.encoding = encoding;
     }
+
+    public boolean isPoolEnabled() {
+        return poolEnabled;
+    }
+
+    public void setPoolEnabled(boolean poolEnabled) {
+        this.poolEnabled = poolEnabled;
+    }
+
+    public int getPoolMaxPerKey() {
+        return poolMaxPerKey;
+    }
+
+    public void setPoolMaxPerKey(int poolMaxPerKey) {
+        this.poolMaxPerKey = poolMaxPerKey;
+    }
+
+    public int getPoolMaxTotal() {
+        return poolMaxTotal;
+    }
+
+    public void setPoolMaxTotal(int poolMaxTotal) {
+        this.poolMaxTotal = poolMaxTotal;
+    }
+
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    public void setPoolIdleTimeout(long poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    public long getPoolMaxWait() {
+        return poolMaxWait;
+    }
+
+    public void setPoolMaxWait(long poolMaxWait) {
+        this.poolMaxWait = poolMaxWait;
+    }
+
+    public long getPoolKeepAliveInterval() {
+        return poolKeepAliveInterval;
+    }
+
+    public void setPoolKeepAliveInterval(long poolKeepAliveInterval) {
+        this.poolKeepAliveInterval = poolKeepAliveInterval;
+    }
+
+    public List<String> getPrewarmEndpoints() {
+        return prewarmEndpoints;
+    }
+
+    public void setPrewarmEndpoints(List<String> prewarmEndpoints) {
+        this.prewarmEndpoints = prewarmEndpoints;
+    }
+
+    public int getPrewarmSessions() {
+        return prewarmSessions;
+    }
+
+    public void setPrewarmSessions(int prewarmSessions) {
+        this.prewarmSessions = prewarmSessions;
+    }
+
+    public long getDnsCacheTtl() {
+        return dnsCacheTtl;
+    }
+
+    public void setDnsCacheTtl(long dnsCacheTtl) {
+        this.dnsCacheTtl = dnsCacheTtl;
+    }
+
+    public String getPollSnapshotDirectory() {
+        return pollSnapshotDirectory;
+    }
+
+    public void setPollSnapshotDirectory(String pollSnapshotDirectory) {
+        this.pollSnapshotDirectory = pollSnapshotDirectory;
+    }
+
+    public boolean isDirectoryCacheEnabled() {
+        return directoryCacheEnabled;
+    }
+
+    public void setDirectoryCacheEnabled(boolean directoryCacheEnabled) {
+        this.directoryCacheEnabled = directoryCacheEnabled;
+    }
+
+    public long getDirectoryCacheTtl() {
+        return directoryCacheTtl;
+    }
+
+    public void setDirectoryCacheTtl(long directoryCacheTtl) {
+        this.directoryCacheTtl = directoryCacheTtl;
+    }
+
+    public int getDirectoryCacheMaxSize() {
+        return directoryCacheMaxSize;
+    }
+
+    public void setDirectoryCacheMaxSize(int directoryCacheMaxSize) {
+        this.directoryCacheMaxSize = directoryCacheMaxSize;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+
+    public void setSegmentThreshold(long segmentThreshold) {
+        this.segmentThreshold = segmentThreshold;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getTransferRetries() {
+        return transferRetries;
+    }
+
+    public void setTransferRetries(int transferRetries) {
+        this.transferRetries = transferRetries;
+    }
+
+    public long getTransferRetryDelay() {
+        return transferRetryDelay;
+    }
+
+    public void setTransferRetryDelay(long transferRetryDelay) {
+        this.transferRetryDelay = transferRetryDelay;
+    }
+
+    public int getResumeBufferSize() {
+        return resumeBufferSize;
+    }
+
+    public void setResumeBufferSize(int resumeBufferSize) {
+        this.resumeBufferSize = resumeBufferSize;
+    }
+
+    public boolean isBinaryMode() {
+        return binaryMode;
+    }
+
+    public void setBinaryMode(boolean binaryMode) {
+        this.binaryMode = binaryMode;
+    }
+
+    public boolean isPassiveMode() {
+        return passiveMode;
+    }
+
+    public void setPassiveMode(boolean passiveMode) {
+        this.passiveMode = passiveMode;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getDataSendBufferSize() {
+        return dataSendBufferSize;
+    }
+
+    public void setDataSendBufferSize(int dataSendBufferSize) {
+        this.dataSendBufferSize = dataSendBufferSize;
+    }
+
+    public int getDataReceiveBufferSize() {
+        return dataReceiveBufferSize;
+    }
+
+    public void setDataReceiveBufferSize(int dataReceiveBufferSize) {
+        this.dataReceiveBufferSize = dataReceiveBufferSize;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getControlKeepAliveTimeout() {
+        return controlKeepAliveTimeout;
+    }
+
+    public void setControlKeepAliveTimeout(int controlKeepAliveTimeout) {
+        this.controlKeepAliveTimeout = controlKeepAliveTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getControlTimeout() {
+        return controlTimeout;
+    }
+
+    public void setControlTimeout(int controlTimeout) {
+        this.controlTimeout = controlTimeout;
+    }
+
+    public int getDataTimeout() {
+        return dataTimeout;
+    }
+
+    public void setDataTimeout(int dataTimeout) {
+        this.dataTimeout = dataTimeout;
+    }
+
+    /**
+     * Returns the transfer settings of the configuration, applied to every new session
+     * and restored on pooled sessions when they are given back
+     * @return the configured transfer profile
+     */
+    public TransferProfile getTransferProfile() {
+        TransferProfile profile = new TransferProfile();
+        profile.setBinary(binaryMode);
+        profile.setPassive(passiveMode);
+        profile.setBufferSize(positive(bufferSize));
+        profile.setSendBufferSize(positive(dataSendBufferSize));
+        profile.setReceiveBufferSize(positive(dataReceiveBufferSize));
+        profile.setTcpNoDelay(tcpNoDelay);
+        profile.setControlKeepAliveTimeout(positive(controlKeepAliveTimeout));
+        profile.setConnectTimeout(positive(connectTimeout));
+        profile.setControlTimeout(positive(controlTimeout));
+        profile.setDataTimeout(positive(dataTimeout));
+        return profile;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getFileBufferSize() {
+        return fileBufferSize;
+    }
+
+    public void setFileBufferSize(int fileBufferSize) {
+        this.fileBufferSize = fileBufferSize;
+    }
+
+    public int getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+
+    public void setBufferPoolSize(int bufferPoolSize) {
+        this.bufferPoolSize = bufferPoolSize;
+    }
+
+    public boolean isBufferPoolDirect() {
+        return bufferPoolDirect;
+    }
+
+    public void setBufferPoolDirect(boolean bufferPoolDirect) {
+        this.bufferPoolDirect = bufferPoolDirect;
+    }
+
+    private static Integer positive(int value) {
+        return value > 0 ? value : null;
+    }
+
+    public boolean isListingCacheEnabled() {
+        return listingCacheEnabled;
+    }
+
+    public void setListingCacheEnabled(boolean listingCacheEnabled) {
+        this.listingCacheEnabled = listingCacheEnabled;
+    }
+
+    public long getListingCacheTtl() {
+        return listingCacheTtl;
+    }
+
+    public void setListingCacheTtl(long listingCacheTtl) {
+        this.listingCacheTtl = listingCacheTtl;
+    }
+
+    public int getListingCacheMaxSize() {
+        return listingCacheMaxSize;
+    }
+
+    public void setListingCacheMaxSize(int listingCacheMaxSize) {
+        this.listingCacheMaxSize = listingCacheMaxSize;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public int getAsyncMaxPerHost() {
+        return asyncMaxPerHost;
+    }
+
+    public void setAsyncMaxPerHost(int asyncMaxPerHost) {
+        this.asyncMaxPerHost = asyncMaxPerHost;
+    }
+
+    public int getHostMaxSessions() {
+        return hostMaxSessions;
+    }
+
+    public void setHostMaxSessions(int hostMaxSessions) {
+        this.hostMaxSessions = hostMaxSessions;
+    }
+
+    public int getHostMaxQueued() {
+        return hostMaxQueued;
+    }
+
+    public void setHostMaxQueued(int hostMaxQueued) {
+        this.hostMaxQueued = hostMaxQueued;
+    }
+
+    public long getHostQueueTimeout() {
+        return hostQueueTimeout;
+    }
+
+    public void setHostQueueTimeout(long hostQueueTimeout) {
+        this.hostQueueTimeout = hostQueueTimeout;
+    }
+
+    public long getHostMaxBytesPerSecond() {
+        return hostMaxBytesPerSecond;
+    }
+
+    public void setHostMaxBytesPerSecond(long hostMaxBytesPerSecond) {
+        this.hostMaxBytesPerSecond = hostMaxBytesPerSecond;
+    }
+
+    public long getUserMaxBytesPerSecond() {
+        return userMaxBytesPerSecond;
+    }
+
+    public void setUserMaxBytesPerSecond(long userMaxBytesPerSecond) {
+        this.userMaxBytesPerSecond = userMaxBytesPerSecond;
+    }
+
+    /**
+     * Returns the listing cache, creating it on first use
+     * @return the listing cache, or null when it is disabled
+     */
+    public synchronized FtpListingCache getListingCache() {
+        if (!listingCacheEnabled) {
+            return null;
+        }
+        if (listingCache == null) {
+            listingCache = new FtpListingCache(listingCacheMaxSize, listingCacheTtl);
+        }
+        return listingCache;
+    }
+
+    /**
+     * Returns the directory cache, creating it on first use
+     * @return the directory cache, or null when it is disabled
+     */
+    public synchronized FtpDirectoryCache getDirectoryCache() {
+        if (!directoryCacheEnabled) {
+            return null;
+        }
+        if (directoryCache == null) {
+            directoryCache = new FtpDirectoryCache(directoryCacheMaxSize, directoryCacheTtl);
+        }
+        return directoryCache;
+    }
+
+    /**
+     * Returns the cache of host addresses, creating it on first use
+     * @return the cache, or null when it is disabled
+     */
+    public synchronized HostAddressCache getHostAddressCache() {
+        if (dnsCacheTtl <= 0) {
+            return null;
+        }
+        if (hostAddressCache == null) {
+            hostAddressCache = new HostAddressCache(dnsCacheTtl);
+        }
+        return hostAddressCache;
+    }
+
+    /**
+     * Returns the pool of buffers of bufferSize bytes that data is copied with, creating it on first use
+     * @return the pool
+     */
+    public synchronized BufferPool getBufferPool() {
+        if (bufferPool == null) {
+            bufferPool = new BufferPool(bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE, bufferPoolSize, bufferPoolDirect);
+            getMetrics().register("transfer", bufferPool);
+        }
+        return bufferPool;
+    }
+
+    /**
+     * Returns the pool of buffers of fileBufferSize bytes that local files are copied with, creating it on first use
+     * @return the pool
+     */
+    public synchronized BufferPool getFileBufferPool() {
+        if (fileBufferPool == null) {
+            fileBufferPool = new BufferPool(fileBufferSize > 0 ? fileBufferSize : DEFAULT_BUFFER_SIZE, bufferPoolSize, bufferPoolDirect);
+            getMetrics().register("file", fileBufferPool);
+        }
+        return fileBufferPool;
+    }
+
+    /**
+     * Returns the metrics of the hosts this configuration talks to, creating the registry on first use
+     * @return the registry
+     */
+    public synchronized FtpMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new FtpMetrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * Unregisters the MBeans of this configuration, leaving those of other configurations alone
+     */
+    public synchronized void closeMetrics() {
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+    }
+
+    /**
+     * Drops the buffer pools, if they were created
+     */
+    public synchronized void closeBufferPools() {
+        bufferPool = null;
+        fileBufferPool = null;
+    }
+
+    /**
+     * Returns the store of the snapshots of polled folders, creating it on first use
+     * @return the store
+     */
+    public synchronized FtpSnapshotStore getSnapshotStore() {
+        if (snapshotStore == null) {
+            snapshotStore = new FtpSnapshotStore(pollSnapshotDirectory == null ? null : Paths.get(pollSnapshotDirectory));
+        }
+        return snapshotStore;
+    }
+
+    /**
+     * Returns the limiter of connections open per host, creating it on first use
+     * @return the limiter, or null when the number of connections is unlimited
+     */
+    public synchronized HostBulkhead getHostBulkhead() {
+        if (hostMaxSessions <= 0) {
+            return null;
+        }
+        if (hostBulkhead == null) {
+            hostBulkhead = new HostBulkhead(getMetrics(), hostMaxSessions, hostMaxQueued, hostQueueTimeout);
+        }
+        return hostBulkhead;
+    }
+
+    /**
+     * Returns the transfer rate limits that apply to a user of a host, shared by all their sessions
+     * @param userName the user
+     * @param hostName the host
+     * @return the limits, empty when the transfer rate is unlimited
+     */
+    public List<RateLimiter> getRateLimiters(String userName, String hostName) {
+        String host = hostName.toLowerCase(Locale.ROOT);
+        List<RateLimiter> limiters = new ArrayList<>(2);
+        if (hostMaxBytesPerSecond > 0) {
+            limiters.add(rateLimiters.computeIfAbsent(host, key -> new RateLimiter(hostMaxBytesPerSecond)));
+        }
+        if (userMaxBytesPerSecond > 0) {
+            limiters.add(rateLimiters.computeIfAbsent(userName + "@" + host, key -> new RateLimiter(userMaxBytesPerSecond)));
+        }
+        return limiters;
+    }
+
+    /**
+     * Returns the session pool, creating it on first use
+     * @return the session pool, or null when pooling is disabled
+     */
+    public synchronized FtpSessionPool getSessionPool() {
+        if (!poolEnabled) {
+            return null;
+        }
+        if (sessionPool == null) {
+            sessionPool = new FtpSessionPool(poolMaxPerKey, poolMaxTotal, poolIdleTimeout, poolMaxWait, poolKeepAliveInterval,
+                    getTransferProfile());
+        }
+        return sessionPool;
+    }
+
+    /**
+     * Closes the session pool, if one was created
+     */
+    public synchronized void closeSessionPool() {
+        if (sessionPool != null) {
+            sessionPool.close();
+            sessionPool = null;
+        }
+    }
+
+    /**
+     * Returns the executor of the asynchronous operations, creating it on first use
+     * @return the executor
+     */
+    public synchronized FtpOperationExecutor getOperationExecutor() {
+        if (operationExecutor == null) {
+            operationExecutor = new FtpOperationExecutor(asyncThreads, asyncMaxPerHost);
+        }
+        return operationExecutor;
+    }
+
+    /**
+     * Stops the executor of the asynchronous operations, if one was created
+     */
+    public synchronized void closeOperationExecutor() {
+        if (operationExecutor != null) {
+            operationExecutor.close();
+            operationExecutor = null;
+        }
+    }
 }
@@ -8,20 +8,58 @@
 
 package be.viaa.modules;
 
+import be.viaa.modules.cache.FtpDirectoryCache;
+import be.viaa.modules.cache.HostAddressCache;
+import be.viaa.modules.exceptions.FtpLiteAuthException;
 import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.pool.BufferPool;
+import be.viaa.modules.pool.FtpSessionKey;
+import be.viaa.modules.pool.FtpSessionPool;
+import be.viaa.modules.pool.HostBulkhead;
+import be.viaa.modules.transfer.ChannelCopy;
+import be.viaa.modules.transfer.CompressedTransfer;
+import be.viaa.modules.transfer.DigestAlgorithm;
+import be.viaa.modules.transfer.RateLimiter;
+import be.viaa.modules.transfer.ResumableTransfer;
+import be.viaa.modules.transfer.ThrottledFtpClient;
+import be.viaa.modules.transfer.TransferProfile;
+import be.viaa.modules.utils.Checksum;
+import be.viaa.modules.utils.FtpDigest;
+import be.viaa.modules.utils.FtpEntry;
+import be.viaa.modules.utils.FtpEntryType;
+import be.viaa.modules.utils.FtpFileFilter;
+import be.viaa.modules.utils.PooledBufferOutputStream;
 import be.viaa.modules.utils.Strings;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+import org.apache.commons.net.ftp.FTPReply;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import be.viaa.modules.exceptions.FtpLiteHostException;
+import be.viaa.modules.metrics.FtpMetrics;
+import be.viaa.modules.metrics.HostMetrics;
+import be.viaa.modules.metrics.HostMetrics.PhaseTimer;
+import be.viaa.modules.metrics.MeteredFtpClient;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.TimeZone;
 import java.util.stream.Collectors;
 
 /**
@@ -43,22 +81,181 @@ public class FtpUtils {
 
     private final static String STRICT_HOST_KEY_CHECKING = "StrictHostKeyChecking";
 
+    private static final Logger LOGGER = LogManager.getLogger(FtpUtils.class);
+
+    /**
+     * Returns an authenticated session, taken from the session pool when pooling is enabled
+     * in the configuration. Sessions obtained here must be given back with {@link #closeSession}.
+     * When the number of connections per host is limited, opening a new one may wait for another
+     * to be closed.
+     */
+    public static FTPClient openSession (FtpLiteConnectorConfig config, String userName, String hostName, String port, String password) {
+        HostMetrics metrics = config.getMetrics().host(hostName);
+        FTPClient client;
+        try (PhaseTimer timer = metrics.start("session.open")) {
+            FtpSessionPool pool = config.getSessionPool();
+            if (pool == null) {
+                client = createSession(config, userName, hostName, port, password);
+            } else {
+                FtpSessionKey key = sessionKey(userName, hostName, port, password);
+                client = pool.borrow(key, () -> createSession(config, userName, hostName, port, password));
+            }
+        }
+        metrics.sessionLeased(client);
+        return client;
+    }
+
+    /**
+     * Creates the key identifying the server and credentials of a call
+     */
+    public static FtpSessionKey sessionKey (String userName, String hostName, String port, String password) {
+        try {
+            return new FtpSessionKey(hostName, Integer.parseInt(port), userName, password);
+        } catch (NumberFormatException e) {
+            throw new FtpLiteHostException("Port was incorrect and could not be parsed");
+        }
+    }
+
+    /**
+     * Gives a session obtained with {@link #openSession} back to the pool, or disconnects it
+     * when pooling is disabled.
+     */
+    public static void closeSession(FtpLiteConnectorConfig config, FTPClient client) {
+        FtpMetrics.of(client).sessionReleased(client);
+        FtpSessionPool pool = config == null ? null : config.getSessionPool();
+        if (pool == null) {
+            disconnect(client);
+        } else {
+            pool.release(client);
+        }
+    }
+
+    /**
+     * Closes a session obtained with {@link #openSession} without giving it back to the pool,
+     * for sessions that are left in an unknown state.
+     */
+    public static void invalidateSession(FtpLiteConnectorConfig config, FTPClient client) {
+        FtpMetrics.of(client).sessionReleased(client);
+        FtpSessionPool pool = config == null ? null : config.getSessionPool();
+        if (pool == null) {
+            disconnect(client);
+        } else {
+            pool.invalidate(client);
+        }
+    }
+
+    /**
+     * Applies the settings of a transfer profile given to a single operation. Settings the
+     * profile leaves null keep their configured value.
+     * @param client the session to apply the settings to
+     * @param profile the profile to apply, may be null
+     */
+    public static void applyTransferProfile(FTPClient client, TransferProfile profile) {
+        if (profile == null) {
+            return;
+        }
+        try {
+            profile.applyTo(client);
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error applying the transfer profile. " + e.toString());
+        }
+    }
+
     public static FTPClient createSession (FtpLiteConnectorConfig config, String userName, String hostName, String port, String password) {
-    	FTPClient ftp = new FTPClient();
+        return createSession(config, userName, hostName, port, password, true);
+    }
+
+    /**
+     * Connects and logs in a new session. When the number of connections per host is limited, the
+     * connection holds a permit until it is disconnected.
+     * @param queue whether to wait for a permit, closing idle pooled connections to the host; without,
+     *              the session is only opened when a permit is free right away
+     */
+    public static FTPClient createSession (FtpLiteConnectorConfig config, String userName, String hostName, String port, String password,
+                                           boolean queue) {
+    	HostMetrics metrics = config.getMetrics().host(hostName);
+    	List<RateLimiter> limiters = config.getRateLimiters(userName, hostName);
+    	MeteredFtpClient ftp = limiters.isEmpty() ? new MeteredFtpClient(metrics) : new ThrottledFtpClient(metrics, limiters);
+    	ftp.setBufferPool(config.getBufferPool());
     	ftp.setControlEncoding(config.getEncoding());
+    	TransferProfile profile = config.getTransferProfile();
+    	profile.applyBeforeConnect(ftp);
+    	HostBulkhead bulkhead = config.getHostBulkhead();
+    	if (bulkhead != null) {
+    		if (queue) {
+    			bulkhead.acquire(ftp, hostName, config.getSessionPool());
+    		} else if (!bulkhead.tryAcquire(ftp, hostName)) {
+    			throw new FtpLiteHostException("All connections to " + hostName + " are open already");
+    		}
+    		ftp.setHostBulkhead(bulkhead);
+    	}
+    	boolean opened = false;
     	try {
-			ftp.connect(hostName, Integer.parseInt(port));
-			ftp.login(userName, password);
+			HostAddressCache addresses = config.getHostAddressCache();
+			if (addresses == null) {
+				try (PhaseTimer timer = metrics.start("connect")) {
+					ftp.connect(hostName, Integer.parseInt(port));
+				}
+			} else {
+				connect(ftp, addresses, hostName, Integer.parseInt(port));
+			}
+			boolean loggedIn;
+			try (PhaseTimer timer = metrics.start("login")) {
+				loggedIn = ftp.login(userName, password);
+			}
+			if (!loggedIn) {
+				disconnect(ftp);
+				throw new FtpLiteAuthException("Login failed for user " + userName);
+			}
+			profile.applyTo(ftp);
+			opened = true;
 		} catch (NumberFormatException e) {
 			throw new FtpLiteHostException("Port was incorrect and could not be parsed");
 		} catch (SocketException e) {
 			throw new FtpLiteHostException("Error connecting. " + e.toString());
 		} catch (IOException e) {
 			throw new FtpLiteHostException("Error connecting. " + e.toString());
+		} finally {
+			if (!opened) {
+				// Also gives back the permit of the connection
+				try {
+					ftp.disconnect();
+				} catch (IOException e) {
+					LOGGER.debug("Error closing a session that failed to open", e);
+				}
+			}
 		}
     	return ftp;
     }
     
+    /**
+     * Connects to the cached address of a host. When that fails, the address is looked up again
+     * and, if it changed, tried once more.
+     */
+    private static void connect(FTPClient client, HostAddressCache addresses, String hostName, int port) throws IOException {
+        HostMetrics metrics = FtpMetrics.of(client);
+        InetAddress address;
+        try (PhaseTimer timer = metrics.start("resolve")) {
+            address = addresses.resolve(hostName);
+        }
+        try (PhaseTimer timer = metrics.start("connect")) {
+            client.connect(address, port);
+        } catch (IOException e) {
+            addresses.invalidate(hostName);
+            InetAddress fresh;
+            try (PhaseTimer timer = metrics.start("resolve")) {
+                fresh = addresses.resolve(hostName);
+            }
+            if (fresh.equals(address)) {
+                throw e;
+            }
+            try (PhaseTimer timer = metrics.start("connect")) {
+                client.connect(fresh, port);
+            }
+        }
+    }
+
     public static void disconnect(FTPClient client) {
     		try {
 				client.disconnect();
@@ -69,24 +266,282 @@ public class FtpUtils {
     }
 
     public static void putFile(FTPClient client, InputStream content, String filePath, String fileName) {
+        putFile(client, content, filePath, fileName, null, null, null);
+    }
+
+    public static void putFile(FTPClient client, InputStream content, String filePath, String fileName,
+                               FtpDirectoryCache cache, FtpSessionKey key) {
+        putFile(client, content, filePath, fileName, cache, key, null);
+    }
 
+    /**
+     * Stores a file, creating the directory tree first unless the directory cache knows the
+     * target directory exists. When the store is refused while the directory came from the
+     * cache, the entry is dropped and the store is tried once more after creating the tree.
+     * @param client the session to use
+     * @param content the content of the file
+     * @param filePath the path to the folder to store the file in
+     * @param fileName the name of the file
+     * @param cache the directory cache to use, or null
+     * @param key the server and user the session belongs to, used as the cache key
+     * @param resumable resumes the upload when it breaks, or null; when given, it holds the session to use
+     */
+    public static void putFile(FTPClient client, InputStream content, String filePath, String fileName,
+                               FtpDirectoryCache cache, FtpSessionKey key, ResumableTransfer resumable) {
+        putFile(client, content, filePath, fileName, cache, key, resumable, null);
+    }
+
+    /**
+     * Stores a file like {@link #putFile(FTPClient, InputStream, String, String, FtpDirectoryCache, FtpSessionKey, ResumableTransfer)},
+     * compressing it on the way. MODE Z is not used for resumable uploads, since a restart offset
+     * cannot point into a deflated stream.
+     * @param compressed the compression of the transfer, or null
+     */
+    public static void putFile(FTPClient client, InputStream content, String filePath, String fileName,
+                               FtpDirectoryCache cache, FtpSessionKey key, ResumableTransfer resumable,
+                               CompressedTransfer compressed) {
         try {
+            if (compressed != null && resumable == null) {
+                compressed.begin(client);
+            }
+            InputStream data = compressed == null ? content : compressed.encode(content);
         	String fullPath = createFullPath(filePath, fileName);
-        	File file = new File(fullPath);
-            createDirectoryTree(file, client);
-            client.storeFile(fullPath, content);
+            if (storeInDirectory(client, fullPath, cache, key, () -> storeFile(client, fullPath, data, resumable, compressed))) {
+                return;
+            }
+            throw new FtpLiteException("Error storing file into SFTP server. " + client.getReplyString());
+        } catch (IOException e) {
+            disconnect(resumable == null ? client : resumable.getClient());
+            throw new FtpLiteException("Error storing file into SFTP server");
+        }
+    }
+
+    /**
+     * Stores a local file, reading it through a FileChannel. The file is streamed to the data
+     * connection, it is never held in memory.
+     * @param client the session to use
+     * @param source the local file
+     * @param filePath the path to the folder to store the file in
+     * @param fileName the name of the file
+     * @param cache the directory cache to use, or null
+     * @param key the server and user the session belongs to, used as the cache key
+     * @param buffers the pool of the buffers used to copy the file
+     * @return the number of bytes stored
+     */
+    public static long uploadFromFile(FTPClient client, File source, String filePath, String fileName,
+                                      FtpDirectoryCache cache, FtpSessionKey key, BufferPool buffers) {
+        if (!source.isFile()) {
+            throw new FtpLiteException("Local file " + source + " does not exist");
+        }
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            String fullPath = createFullPath(filePath, fileName);
+            long[] bytes = new long[1];
+            if (storeInDirectory(client, fullPath, cache, key, () -> {
+                OutputStream out = client.storeFileStream(fullPath);
+                if (out == null) {
+                    return false;
+                }
+                long start = System.nanoTime();
+                try {
+                    bytes[0] = ChannelCopy.copy(channel, out, buffers);
+                } finally {
+                    out.close();
+                }
+                if (!client.completePendingCommand()) {
+                    throw new IOException("Transfer of " + fullPath + " failed. " + client.getReplyString());
+                }
+                FtpMetrics.of(client).sent(bytes[0], System.nanoTime() - start);
+                FtpMetrics.of(client).time("transfer.upload", start);
+                return true;
+            })) {
+                return bytes[0];
+            }
+            throw new FtpLiteException("Error storing file into SFTP server. " + client.getReplyString());
         } catch (IOException e) {
             disconnect(client);
             throw new FtpLiteException("Error storing file into SFTP server");
         }
     }
 
-    public static FTPFile[] listFiles (FTPClient client, String path) {
+    /**
+     * Retrieves a file into a local file through a FileChannel. The file is written to a temporary
+     * file next to the target first, which replaces the target once the transfer completed, so the
+     * target never holds a partial file.
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @param target the local file, its folder is created when missing
+     * @param buffers the pool of the buffers used to copy the file
+     * @return the number of bytes retrieved
+     */
+    public static long downloadToFile(FTPClient client, String filePath, String fileName, File target, BufferPool buffers) {
+        File folder = target.getAbsoluteFile().getParentFile();
+        Path temp;
         try {
+            Files.createDirectories(folder.toPath());
+            temp = Files.createTempFile(folder.toPath(), "." + target.getName(), ".part");
+        } catch (IOException e) {
+            throw new FtpLiteException("Could not create a temporary file in " + folder + ". " + e.getMessage());
+        }
+        try {
+            if (filePath == null || filePath.isEmpty()) {
+                filePath = client.printWorkingDirectory();
+            }
+            String fullPath = createFullPath(filePath, fileName);
+            long start = System.nanoTime();
+            InputStream in = client.retrieveFileStream(fullPath);
+            if (in == null) {
+                throw replyException(client, "Error retrieving file from SFTP");
+            }
+            long bytes;
+            try (InputStream data = in;
+                 FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                bytes = ChannelCopy.copy(data, channel, buffers);
+                channel.force(false);
+            }
+            if (!client.completePendingCommand()) {
+                throw new IOException("Transfer of " + fullPath + " failed. " + client.getReplyString());
+            }
+            FtpMetrics.of(client).received(bytes, System.nanoTime() - start);
+            FtpMetrics.of(client).time("transfer.download", start);
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return bytes;
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error retrieving file from SFTP");
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete temporary file " + temp, e);
+            }
+        }
+    }
+
+    /**
+     * Stores a file, creating the directory tree first unless the directory cache knows the target
+     * directory exists. When the store is refused while the directory came from the cache, the entry
+     * is dropped and the store is tried once more after creating the tree.
+     * @return whether the file was stored
+     */
+    private static boolean storeInDirectory(FTPClient client, String fullPath, FtpDirectoryCache cache,
+                                            FtpSessionKey key, Store store) throws IOException {
+        File file = new File(fullPath);
+        String directory = file.getParent();
+        // Only absolute paths can be cached, relative ones depend on the working directory
+        boolean cacheable = cache != null && key != null && directory.startsWith("/");
+        boolean cached = cacheable && cache.contains(key, directory);
+
+        if (!cached) {
+            createDirectoryTree(file, client);
+            if (cacheable) {
+                cache.put(key, directory);
+            }
+        }
+        if (store.store()) {
+            return true;
+        }
+        if (cached) {
+            cache.invalidate(key, directory);
+            createDirectoryTree(file, client);
+            cache.put(key, directory);
+            return store.store();
+        }
+        return false;
+    }
+
+    /**
+     * Stores a file, returning false without reading any content when the server refuses the STOR
+     */
+    private interface Store {
+        boolean store() throws IOException;
+    }
+
+    /**
+     * Stores a file. Returns false, without reading any content, when the server refuses
+     * the STOR before the data connection is opened.
+     */
+    private static boolean storeFile(FTPClient client, String fullPath, InputStream content,
+                                     ResumableTransfer resumable, CompressedTransfer compressed) throws IOException {
+        if (resumable != null) {
+            return resumable.upload(fullPath, content);
+        }
+        long start = System.nanoTime();
+        OutputStream out = client.storeFileStream(fullPath);
+        if (out == null) {
+            return false;
+        }
+        long bytes;
+        try {
+            if (compressed != null) {
+                out = compressed.wrap(out);
+            }
+            bytes = copy(client, content, out);
+        } finally {
+            out.close();
+        }
+        if (!client.completePendingCommand()) {
+            throw new IOException("Transfer of " + fullPath + " failed. " + client.getReplyString());
+        }
+        if (compressed != null) {
+            compressed.end(client);
+        }
+        FtpMetrics.of(client).sent(bytes, System.nanoTime() - start);
+        FtpMetrics.of(client).time("transfer.upload", start);
+        return true;
+    }
+
+    /**
+     * Retrieves a file with a buffer from the session's pool, over a deflated data connection when
+     * the transfer uses MODE Z
+     */
+    private static boolean retrieveFile(FTPClient client, String fullPath, OutputStream target,
+                                        CompressedTransfer compressed) throws IOException {
+        InputStream in = client.retrieveFileStream(fullPath);
+        if (in == null) {
+            return false;
+        }
+        boolean modeZ = compressed != null && compressed.isModeZ();
+        try (InputStream data = modeZ ? compressed.wrap(in) : in) {
+            copy(client, data, target);
+        }
+        if (!client.completePendingCommand()) {
+            throw new IOException("Transfer of " + fullPath + " failed. " + client.getReplyString());
+        }
+        if (modeZ) {
+            compressed.end(client);
+        }
+        return true;
+    }
+
+    /**
+     * Copies a stream with a buffer from the session's pool
+     * @return the number of bytes copied
+     */
+    private static long copy(FTPClient client, InputStream in, OutputStream out) throws IOException {
+        try (BufferPool.Buffer buffer = BufferPool.of(client).acquire()) {
+            return IOUtils.copyLarge(in, out, buffer.array());
+        }
+    }
+
+    public static FTPFile[] listFiles (FTPClient client, String path) {
+        return listFiles(client, path, null);
+    }
+
+    /**
+     * Lists a folder, keeping only the entries a filter accepts. The filter is applied as each
+     * line of the listing is parsed, so the entries it drops are not collected.
+     * @param client the session to use
+     * @param path the folder, the working directory when null
+     * @param filter the filter, or null to keep all entries
+     * @return the entries that were kept
+     */
+    public static FTPFile[] listFiles (FTPClient client, String path, FtpFileFilter filter) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("list")) {
             if (path == null || path.isEmpty()) {
                 path = client.printWorkingDirectory();
             }
-            return client.listFiles(path);
+            return filter == null ? client.listFiles(path) : client.listFiles(path, filter);
         } catch (IOException e) {
         	try {
         		client.disconnect();
@@ -97,49 +552,474 @@ public class FtpUtils {
 		}
     }
 
+    /**
+     * Lists only the names in a folder with NLST. When the filter's name pattern is a simple glob,
+     * it is sent along for the server to expand; the pattern is applied to the names returned
+     * either way, for servers that ignore it. When the server refuses the glob, the whole folder is
+     * listed and filtered here instead.
+     * @param client the session to use
+     * @param path the folder, the working directory when null
+     * @param filter the filter of the names, or null to keep all names
+     * @return entries with only their name set, of unknown type
+     * @throws FtpLiteException when the folder cannot be listed
+     */
+    public static FTPFile[] listNames (FTPClient client, String path, FtpFileFilter filter) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("list.names")) {
+            if (path == null || path.isEmpty()) {
+                path = client.printWorkingDirectory();
+            }
+            String pattern = filter == null ? null : filter.getServerPattern();
+            String[] names = pattern == null ? null : client.listNames(createFullPath(path, pattern));
+            if (names == null) {
+                // Not every server expands wildcards, nor lists a glob that matches nothing
+                names = client.listNames(path);
+            }
+            if (names == null) {
+                int reply = client.getReplyCode();
+                String replyString = client.getReplyString();
+                // Also the reply of many servers to an empty folder, unlike a refused or broken transfer
+                boolean empty = (reply == FTPReply.FILE_ACTION_NOT_TAKEN || reply == FTPReply.FILE_UNAVAILABLE)
+                        && isDirectory(client, path);
+                if (!empty) {
+                    throw new FtpLiteException("Error listing " + path + ". " + replyString);
+                }
+                return new FTPFile[0];
+            }
+            List<FTPFile> files = new ArrayList<>(names.length);
+            for (String line : names) {
+                // Some servers return the names prefixed with the folder
+                String name = line.substring(line.lastIndexOf('/') + 1);
+                if (!name.isEmpty() && (filter == null || filter.acceptName(name))) {
+                    FTPFile file = new FTPFile();
+                    file.setName(name);
+                    file.setRawListing(line);
+                    files.add(file);
+                }
+            }
+            return files.toArray(new FTPFile[files.size()]);
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("There was an error fetching files from SFTP");
+        }
+    }
+
+    /**
+     * Tells whether a path is a folder the session can change into, and changes back to the working directory
+     */
+    private static boolean isDirectory(FTPClient client, String path) throws IOException {
+        String workingDirectory = client.printWorkingDirectory();
+        if (!client.changeWorkingDirectory(path)) {
+            return false;
+        }
+        if (workingDirectory != null && !client.changeWorkingDirectory(workingDirectory)) {
+            throw new IOException("Could not change back to " + workingDirectory + ". " + client.getReplyString());
+        }
+        return true;
+    }
+
+    /**
+     * Reads the listing of a folder without parsing it, using MLSD when the server supports it.
+     * The whole raw listing is read into memory and the data connection completed before
+     * returning, so the session can be given back before the lines are parsed into entries.
+     * @param client the session to use
+     * @param path the path to the folder to list, defaults to the working directory
+     * @return the unparsed listing
+     */
+    public static FTPListParseEngine initiateListing (FTPClient client, String path) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("list")) {
+            if (path == null || path.isEmpty()) {
+                path = client.printWorkingDirectory();
+            }
+            if (listsWithMlsd(client)) {
+                return ((MeteredFtpClient) client).initiateMListParsing(path);
+            }
+            return client.initiateListParsing(path);
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("There was an error fetching files from SFTP");
+        }
+    }
+
+    /**
+     * Tells whether {@link #initiateListing(FTPClient, String)} lists with MLSD on a session. MLSD gives
+     * modification times in UTC to the second; LIST gives them at best to the minute, in the server's
+     * own time zone.
+     * @param client the session to use
+     * @return whether folders are listed with MLSD
+     */
+    public static boolean listsWithMlsd(FTPClient client) throws IOException {
+        return client instanceof MeteredFtpClient && client.hasFeature("MLST");
+    }
+
+    /**
+     * @return whether the path is a file or a link; entries of an unknown type are not counted
+     */
     public static boolean fileExists(FTPClient client, String filePath, String fileName) {
-        try {
+        FtpEntry info = getFileInfo(client, filePath, fileName);
+        return info != null && (info.isFile() || info.getType() == FtpEntryType.LINK);
+    }
+
+    /**
+     * Looks up a file's size, modification time and type over the control connection. Uses
+     * MLST when the server advertises it, SIZE and MDTM otherwise, and only falls back to a
+     * listing of the parent folder when those do not tell whether the path is a file. Only
+     * files have a SIZE, yet MDTM answers for directories on some servers.
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @return the file's information, or null when the file does not exist
+     */
+    public static FtpEntry getFileInfo(FTPClient client, String filePath, String fileName) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("lookup")) {
+            if (filePath == null || filePath.isEmpty()) {
+                filePath = client.printWorkingDirectory();
+            }
             String fullPath = createFullPath(filePath, fileName);
-            client.changeWorkingDirectory(filePath);
-            if (client.listFiles(fileName).length == 1) {
-                return true;
+
+            if (client.hasFeature("MLST")) {
+                FTPFile file = client.mlistFile(fullPath);
+                if (file != null) {
+                    return FtpEntry.of(fileName, file);
+                }
+                if (client.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
+                    return null;
+                }
+            }
+
+            int modifiedReply = client.sendCommand("MDTM", fullPath);
+            Long modified = modifiedReply == FTPReply.FILE_STATUS ? parseModificationTime(replyValue(client)) : null;
+            int sizeReply = client.sendCommand("SIZE", fullPath);
+            Long size = sizeReply == FTPReply.FILE_STATUS ? parseSize(replyValue(client)) : null;
+
+            if (size != null) {
+                return new FtpEntry(fileName, size, FtpEntryType.FILE, modified);
+            }
+            if (modified == null && (modifiedReply == FTPReply.FILE_UNAVAILABLE || sizeReply == FTPReply.FILE_UNAVAILABLE)) {
+                return null;
             }
-            else {
-                return false;
+
+            // The parent is listed by its full path, which leaves the working directory of the session alone
+            FTPFile[] files = client.listFiles(filePath, file -> file != null && fileName.equals(file.getName()));
+            if (files.length == 1) {
+                FtpEntry entry = FtpEntry.of(fileName, files[0]);
+                return modified == null ? entry : new FtpEntry(fileName, entry.getSize(), entry.getType(), modified);
             }
+            return modified == null ? null : new FtpEntry(fileName, -1, FtpEntryType.UNKNOWN, modified);
         } catch (IOException e) {
             throw new FtpLiteException("Error looking up the file");
         }
     }
 
     public static InputStream getFileStream (FTPClient client, String filePath, String fileName) {
+        return getFileStream(client, filePath, fileName, null);
+    }
+
+    /**
+     * Retrieves a file into memory
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @param resumable resumes the download when it breaks, or null; when given, it holds the session to use
+     * @return a stream over the content of the file
+     */
+    public static InputStream getFileStream (FTPClient client, String filePath, String fileName, ResumableTransfer resumable) {
+        return getFileStream(client, filePath, fileName, resumable, null);
+    }
+
+    /**
+     * Retrieves a file into memory, decompressing it on the way. MODE Z is not used for resumable
+     * downloads, since a restart offset cannot point into a deflated stream.
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @param resumable resumes the download when it breaks, or null; when given, it holds the session to use
+     * @param compressed the compression of the transfer, or null
+     * @return a stream over the content of the file
+     */
+    public static InputStream getFileStream (FTPClient client, String filePath, String fileName, ResumableTransfer resumable,
+                                             CompressedTransfer compressed) {
     	try {
             if (filePath == null || filePath.isEmpty()) {
                 filePath = client.printWorkingDirectory();
             }
+            if (compressed != null && resumable == null) {
+                compressed.begin(client);
+            }
             String fullPath = createFullPath(filePath, fileName);
-            ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-            if (fileExists(client, filePath, fileName)) {
-                client.retrieveFile(fullPath, outStream);
-                return new ByteArrayInputStream(outStream.toByteArray());
-            } else {
-                throw new FtpLiteException("File does not exist");
+            // Collected in pooled buffers, given back as the returned stream is read
+            PooledBufferOutputStream outStream = new PooledBufferOutputStream(BufferPool.of(client));
+            try {
+                long start = System.nanoTime();
+                boolean retrieved = resumable != null
+                        ? resumable.download(fullPath, outStream)
+                        : retrieveFile(client, fullPath, outStream, compressed);
+                if (retrieved) {
+                    HostMetrics metrics = FtpMetrics.of(resumable == null ? client : resumable.getClient());
+                    metrics.received(outStream.size(), System.nanoTime() - start);
+                    metrics.time("transfer.download", start);
+                    InputStream result = outStream.toInputStream();
+                    return compressed == null ? result : compressed.decode(result);
+                }
+                FtpLiteException exception = replyException(client, "Error retrieving file stream from SFTP");
+                if (compressed != null && resumable == null) {
+                    compressed.end(client);
+                }
+                throw exception;
+            } finally {
+                outStream.close();
             }
+        } catch (IOException e) {
+            disconnect(resumable == null ? client : resumable.getClient());
+            throw new FtpLiteException("Error retrieving file stream from SFTP");
+        }
+    }
+
+    /**
+     * Opens the data connection of a file without reading it. The returned stream is the live
+     * data socket; the caller must close it and complete the pending command, which
+     * {@link be.viaa.modules.utils.FtpConnectionClosingStream} does.
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @return the live data stream of the file
+     */
+    public static InputStream openFileStream (FTPClient client, String filePath, String fileName) {
+        return openFileStream(client, filePath, fileName, null);
+    }
+
+    /**
+     * Opens the data connection of a file without reading it, decompressing it while it is read.
+     * A session left in MODE Z is switched back to stream mode when it is given back to the pool.
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @param compressed the compression of the transfer, or null
+     * @return the live data stream of the file
+     */
+    public static InputStream openFileStream (FTPClient client, String filePath, String fileName, CompressedTransfer compressed) {
+        try {
+            if (filePath == null || filePath.isEmpty()) {
+                filePath = client.printWorkingDirectory();
+            }
+            if (compressed != null) {
+                compressed.begin(client);
+            }
+            InputStream stream = client.retrieveFileStream(createFullPath(filePath, fileName));
+            if (stream == null) {
+                FtpLiteException exception = replyException(client, "Error retrieving file stream from SFTP");
+                if (compressed != null) {
+                    compressed.end(client);
+                }
+                throw exception;
+            }
+            return compressed == null ? stream : compressed.decode(compressed.wrap(stream));
         } catch (IOException e) {
             disconnect(client);
             throw new FtpLiteException("Error retrieving file stream from SFTP");
         }
     }
 
-    public static boolean deleteFile(FTPClient client, String filePath, String fileName) {
+    /**
+     * Opens the data connection of a file in binary mode, starting at an offset sent with REST.
+     * The returned stream is the live data socket, as with {@link #openFileStream(FTPClient, String, String)}.
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @param offset the position of the first byte to read
+     * @return the live data stream of the file from the offset on
+     */
+    public static InputStream openFileRange (FTPClient client, String filePath, String fileName, long offset) {
+        try {
+            if (filePath == null || filePath.isEmpty()) {
+                filePath = client.printWorkingDirectory();
+            }
+            // Offsets count bytes, which only holds when nothing is converted
+            if (!client.setFileType(org.apache.commons.net.ftp.FTP.BINARY_FILE_TYPE)) {
+                throw replyException(client, "Error setting binary mode");
+            }
+            client.setRestartOffset(offset);
+            InputStream stream = client.retrieveFileStream(createFullPath(filePath, fileName));
+            if (stream == null) {
+                throw replyException(client, "Error retrieving file range from SFTP");
+            }
+            return stream;
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error retrieving file range from SFTP");
+        }
+    }
+
+    /**
+     * Retrieves a range of a file into memory. Once length bytes are read the transfer is aborted,
+     * so the rest of the file is not sent.
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read, or -1 to read up to the end of the file
+     * @return a stream over the range of the file
+     */
+    public static InputStream getFileRange (FTPClient client, String filePath, String fileName, long offset, long length) {
+        InputStream stream = openFileRange(client, filePath, fileName, offset);
+        PooledBufferOutputStream outStream = new PooledBufferOutputStream(BufferPool.of(client));
         try {
+            long start = System.nanoTime();
+            long read;
+            try (BufferPool.Buffer buffer = BufferPool.of(client).acquire()) {
+                read = length < 0
+                        ? IOUtils.copyLarge(stream, outStream, buffer.array())
+                        : IOUtils.copyLarge(stream, outStream, 0, length, buffer.array());
+            } finally {
+                stream.close();
+            }
+            boolean completed = length >= 0 && read == length ? abortTransfer(client) : client.completePendingCommand();
+            if (!completed) {
+                // The control connection may be out of step with the server, so it is not fit for reuse
+                FtpLiteException error = replyException(client, "Error retrieving file range from SFTP");
+                disconnect(client);
+                throw error;
+            }
+            HostMetrics metrics = FtpMetrics.of(client);
+            metrics.received(read, System.nanoTime() - start);
+            metrics.time("transfer.download", start);
+            return outStream.toInputStream();
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error retrieving file range from SFTP");
+        } finally {
+            outStream.close();
+        }
+    }
+
+    /**
+     * Ends a RETR whose data connection was closed before the end of the file. ABOR gets the
+     * server to answer the RETR, with 426 or with 226 when it had sent everything already,
+     * and then the ABOR itself, which leaves the control connection in step for reuse.
+     * @param client the session whose data connection was closed
+     * @return whether the server acknowledged the abort
+     * @throws IOException when the control connection fails
+     */
+    public static boolean abortTransfer (FTPClient client) throws IOException {
+        client.abort();
+        return client.completePendingCommand();
+    }
+
+    /**
+     * Moves or renames a file on the server with RNFR and RNTO, creating the directory tree of the
+     * target first unless the directory cache knows it exists
+     * @param client the session to use
+     * @param source the absolute path of the file
+     * @param target the absolute path to move it to
+     * @param cache the directory cache to use, or null
+     * @param key the server and user the session belongs to, used as the cache key
+     */
+    public static void moveFile(FTPClient client, String source, String target, FtpDirectoryCache cache, FtpSessionKey key) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("move")) {
+            if (!storeInDirectory(client, target, cache, key, () -> client.rename(source, target))) {
+                throw new FtpLiteException("Error moving " + source + " to " + target + ". " + client.getReplyString());
+            }
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error moving " + source + " to " + target);
+        }
+    }
+
+    /**
+     * Copies a file on the server with SITE CPFR and CPTO, creating the directory tree of the target
+     * first unless the directory cache knows it exists. Servers without these commands leave the
+     * copy to the caller.
+     * @param client the session to use
+     * @param source the absolute path of the file
+     * @param target the absolute path to copy it to
+     * @param cache the directory cache to use, or null
+     * @param key the server and user the session belongs to, used as the cache key
+     * @return whether the server copied the file, false when it does not support copying
+     */
+    public static boolean copyFile(FTPClient client, String source, String target, FtpDirectoryCache cache, FtpSessionKey key) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("copy")) {
+            boolean[] supported = {true};
+            boolean copied = storeInDirectory(client, target, cache, key, () -> {
+                int reply = client.sendCommand("SITE", "CPFR " + source);
+                if (reply == FTPReply.UNRECOGNIZED_COMMAND || reply == FTPReply.COMMAND_NOT_IMPLEMENTED
+                        || reply == FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER) {
+                    // Not refused because of the target folder, so there is no point in creating it again
+                    supported[0] = false;
+                    return true;
+                }
+                if (!FTPReply.isPositiveIntermediate(reply)) {
+                    throw replyException(client, "Error copying " + source);
+                }
+                return FTPReply.isPositiveCompletion(client.sendCommand("SITE", "CPTO " + target));
+            });
+            if (!copied) {
+                throw new FtpLiteException("Error copying " + source + " to " + target + ". " + client.getReplyString());
+            }
+            return supported[0];
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error copying " + source + " to " + target);
+        }
+    }
+
+    /**
+     * Copies a file through a temporary local file, for servers that cannot copy files themselves.
+     * The file is retrieved and stored again with the one session, so the copy never waits for a
+     * second session to the same host. The session is switched to binary, and disconnected when the copy breaks.
+     * @param client the session to use
+     * @param source the absolute path of the file
+     * @param target the absolute path to copy it to
+     * @param cache the directory cache to use, or null
+     * @param key the server and user the session belongs to, used as the cache key
+     */
+    public static void stageCopy(FTPClient client, String source, String target, FtpDirectoryCache cache, FtpSessionKey key) {
+        Path staged;
+        try {
+            staged = Files.createTempFile("ftplite-", ".copy");
+        } catch (IOException e) {
+            throw new FtpLiteException("Could not create a temporary file to copy " + source + ". " + e.getMessage());
+        }
+        try {
+            client.setFileType(org.apache.commons.net.ftp.FTP.BINARY_FILE_TYPE);
+            long start = System.nanoTime();
+            boolean retrieved;
+            try (OutputStream out = Files.newOutputStream(staged)) {
+                retrieved = retrieveFile(client, source, out, null);
+            }
+            if (!retrieved) {
+                throw replyException(client, "Error retrieving file from SFTP");
+            }
+            FtpMetrics.of(client).received(Files.size(staged), System.nanoTime() - start);
+            FtpMetrics.of(client).time("transfer.download", start);
+            boolean stored = storeInDirectory(client, target, cache, key, () -> {
+                try (InputStream data = Files.newInputStream(staged)) {
+                    return storeFile(client, target, data, null, null);
+                }
+            });
+            if (!stored) {
+                throw new FtpLiteException("Error storing file into SFTP server. " + client.getReplyString());
+            }
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error copying " + source + " to " + target);
+        } finally {
+            try {
+                Files.deleteIfExists(staged);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete temporary file " + staged, e);
+            }
+        }
+    }
+
+    public static boolean deleteFile(FTPClient client, String filePath, String fileName) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("delete")) {
         	String fullPath = createFullPath(filePath, fileName);
-            ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-            if (fileExists(client, filePath, fileName)) {
-                return client.deleteFile(fullPath);
-            } else {
+            if (client.deleteFile(fullPath)) {
+                return true;
+            }
+            if (client.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
                 throw new FtpLiteException("File does not exist");
             }
+            return false;
         } catch (IOException e) {
             disconnect(client);
             throw new FtpLiteException("Error retrieving file stream from SFTP");
@@ -147,6 +1027,12 @@ public class FtpUtils {
     }
 
     public static boolean createDirectoryTree(File file, FTPClient client) throws IOException {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("directoryTree")) {
+            return createDirectoryTree(client, file);
+        }
+    }
+
+    private static boolean createDirectoryTree(FTPClient client, File file) throws IOException {
         Deque<String> directoryStructure = new LinkedList<>(Arrays.asList(file.getParent().split("/"))
                 .stream()
                 .filter(dir -> !dir.isEmpty())
@@ -172,13 +1058,261 @@ public class FtpUtils {
         for (Iterator<String> iterator = directoryUnexistant.iterator(); iterator.hasNext();) {
             String directory = iterator.next();
 
-            if (!client.makeDirectory(directory) || !client.changeWorkingDirectory(directory)) {
+            // A refused MKD is fine when another session created the directory in the meantime
+            client.makeDirectory(directory);
+            if (!client.changeWorkingDirectory(directory)) {
                 throw new IOException("could not create directory tree");
             }
         }
         return true;
     }
 
+    /**
+     * Asks the server for the modification time of a file or folder, with MLST when the server
+     * advertises it and MDTM otherwise
+     * @param client the session to use
+     * @param path the full path of the file or folder, defaults to the working directory
+     * @return the modification time in milliseconds since the epoch, or null when the server did not tell
+     */
+    public static Long getModificationTime(FTPClient client, String path) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("lookup")) {
+            if (path == null || path.isEmpty()) {
+                path = client.printWorkingDirectory();
+            }
+            if (client.hasFeature("MLST")) {
+                FTPFile file = client.mlistFile(path);
+                if (file != null && file.getTimestamp() != null) {
+                    return file.getTimestamp().getTimeInMillis();
+                }
+            }
+            if (client.sendCommand("MDTM", path) == FTPReply.FILE_STATUS) {
+                return parseModificationTime(replyValue(client));
+            }
+            return null;
+        } catch (IOException e) {
+            throw new FtpLiteException("Error looking up the modification time");
+        }
+    }
+
+    /**
+     * Asks the server for the size of a file with SIZE
+     * @param client the session to use
+     * @param fullPath the full path of the file
+     * @return the size of the file, or -1 when it does not exist or the server did not tell
+     */
+    public static long getRemoteSize(FTPClient client, String fullPath) {
+        try {
+            if (client.sendCommand("SIZE", fullPath) == FTPReply.FILE_STATUS) {
+                Long size = parseSize(replyValue(client));
+                return size == null ? -1 : size;
+            }
+            return -1;
+        } catch (IOException e) {
+            throw new FtpLiteException("Error looking up the file size");
+        }
+    }
+
+    /**
+     * Creates the exception for a refused command, mapping a 550 reply to a missing file
+     * @param client the session the command was refused on
+     * @param message the message to use for any other reply
+     * @return the exception to throw
+     */
+    private static FtpLiteException replyException(FTPClient client, String message) {
+        if (client.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
+            return new FtpLiteException("File does not exist");
+        }
+        return new FtpLiteException(message + ". " + client.getReplyString());
+    }
+
+    /**
+     * Returns the text of the last reply without its reply code
+     */
+    private static String replyValue(FTPClient client) {
+        String[] lines = client.getReplyStrings();
+        String line = lines == null || lines.length == 0 ? "" : lines[0];
+        return line.length() > 4 ? line.substring(4).trim() : "";
+    }
+
+    private static Long parseSize(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an MDTM time value (YYYYMMDDHHMMSS[.sss], always UTC)
+     * @return the time in milliseconds since the epoch, or null when it could not be parsed
+     */
+    private static Long parseModificationTime(String value) {
+        if (value.length() < 14) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value.substring(0, 14)).getTime();
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Asks the server for the checksum of a file, with HASH when the server advertises the algorithm
+     * there, and with XMD5, XSHA256 or XCRC when it advertises those. An algorithm selected with
+     * OPTS HASH is switched back to the one the server had selected, so sessions go back to the pool
+     * as FEAT describes them.
+     * @param client the session to use
+     * @param fullPath the full path of the file
+     * @param algorithm the algorithm of the checksum
+     * @return the checksum in lowercase hexadecimal digits, or null when the server does not offer the algorithm
+     */
+    public static String getServerDigest(FTPClient client, String fullPath, DigestAlgorithm algorithm) {
+        try (PhaseTimer timer = FtpMetrics.of(client).start("digest")) {
+            String hashes = client.hasFeature("HASH") ? client.featureValue("HASH") : null;
+            Boolean selected = hashSelected(hashes, algorithm);
+            String command;
+            if (selected != null) {
+                if (!selected && !FTPReply.isPositiveCompletion(client.sendCommand("OPTS", "HASH " + algorithm.getHashName()))) {
+                    return null;
+                }
+                command = "HASH";
+            } else if (client.hasFeature(algorithm.getCommand())) {
+                command = algorithm.getCommand();
+            } else {
+                return null;
+            }
+            try {
+                if (!FTPReply.isPositiveCompletion(client.sendCommand(command, fullPath))) {
+                    return null;
+                }
+                return parseDigest(client.getReplyStrings()[0], algorithm);
+            } finally {
+                if (Boolean.FALSE.equals(selected)) {
+                    restoreHash(client, hashes);
+                }
+            }
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error asking the server for the checksum");
+        }
+    }
+
+    /**
+     * Selects the algorithm the server had selected according to FEAT again. A session whose
+     * selection cannot be restored is disconnected, so it is not reused with another algorithm selected.
+     */
+    private static void restoreHash(FTPClient client, String hashes) throws IOException {
+        String previous = selectedHash(hashes);
+        if (previous == null || !FTPReply.isPositiveCompletion(client.sendCommand("OPTS", "HASH " + previous))) {
+            disconnect(client);
+        }
+    }
+
+    /**
+     * Finishes the checksum of a transfer, comparing it with the one the server computes
+     * @param client the session to use
+     * @param fullPath the full path of the transferred file
+     * @param checksum the checksum of the transferred bytes
+     * @param verify whether the server is asked for its checksum
+     * @return the checksum, with the server's one when the server offers the algorithm
+     * @throws FtpLiteException when the server computed a different checksum
+     */
+    public static FtpDigest verifyDigest(FTPClient client, String fullPath, Checksum checksum, boolean verify) {
+        String serverValue = verify ? getServerDigest(client, fullPath, checksum.getAlgorithm()) : null;
+        FtpDigest digest = new FtpDigest(checksum.getAlgorithm(), checksum.getValue(), serverValue, checksum.getBytes());
+        if (serverValue != null && !digest.isVerified()) {
+            throw new FtpLiteException("Checksum mismatch for " + fullPath + ": " + digest.getValue()
+                    + " transferred, " + serverValue + " on the server");
+        }
+        return digest;
+    }
+
+    /**
+     * @param hashes the value of the HASH feature, like "SHA-1;SHA-256*;MD5", where * marks the selected algorithm
+     * @return whether the algorithm is selected, or null when the server does not offer it
+     */
+    private static Boolean hashSelected(String hashes, DigestAlgorithm algorithm) {
+        if (hashes == null) {
+            return null;
+        }
+        for (String hash : hashes.trim().split(";")) {
+            boolean selected = hash.endsWith("*");
+            if ((selected ? hash.substring(0, hash.length() - 1) : hash).equalsIgnoreCase(algorithm.getHashName())) {
+                return selected;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param hashes the value of the HASH feature, like "SHA-1;SHA-256*;MD5"
+     * @return the algorithm the server has selected, or null when none is marked
+     */
+    private static String selectedHash(String hashes) {
+        for (String hash : hashes.trim().split(";")) {
+            if (hash.endsWith("*")) {
+                return hash.substring(0, hash.length() - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the checksum out of a reply. HASH replies with "213 SHA-256 0-49 &lt;hash&gt; &lt;file&gt;",
+     * the X commands with "250 &lt;hash&gt;", sometimes followed or preceded by the file.
+     */
+    private static String parseDigest(String reply, DigestAlgorithm algorithm) {
+        String text = reply.length() > 4 ? reply.substring(4).trim() : "";
+        for (String token : text.split("\\s+")) {
+            if (!token.matches("[0-9a-fA-F]+")) {
+                continue;
+            }
+            if (algorithm == DigestAlgorithm.CRC32 && token.length() <= algorithm.getLength()) {
+                // Servers tend to leave out leading zeros of a CRC
+                return String.format("%08x", Long.parseLong(token, 16));
+            }
+            if (token.length() == algorithm.getLength()) {
+                return token.toLowerCase();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param client the session to use
+     * @return the working directory of the session
+     */
+    public static String getWorkingDirectory(FTPClient client) {
+        try {
+            return client.printWorkingDirectory();
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error looking up the working directory");
+        }
+    }
+
+    /**
+     * Creates a full path from a filepath and filename, using the working directory when no filepath is given
+     * @param client the session to use
+     * @param filePath the path to where the file resides
+     * @param fileName the filename
+     * @return the full path
+     */
+    public static String resolvePath(FTPClient client, String filePath, String fileName) {
+        try {
+            if (filePath == null || filePath.isEmpty()) {
+                filePath = client.printWorkingDirectory();
+            }
+            return createFullPath(filePath, fileName);
+        } catch (IOException e) {
+            disconnect(client);
+            throw new FtpLiteException("Error looking up the working directory");
+        }
+    }
+
     /**
      * Creates a full path from a filepath and filename
      * @param filePath the path to where the file resides
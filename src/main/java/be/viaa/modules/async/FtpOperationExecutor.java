@@ -0,0 +1,159 @@
+package be.viaa.modules.async;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs operations in the background on a fixed number of threads, with at most a fixed number of
+ * operations per host at once. Operations over the cap wait in a queue per host without holding a
+ * thread, so a slow host cannot take up the threads other hosts need.
+ *
+ * @author VIAA vzw
+ */
+public class FtpOperationExecutor {
+
+    private static final long THREAD_IDLE_TIMEOUT = 60000L;
+
+    private final ThreadPoolExecutor executor;
+
+    private final int maxPerHost;
+
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    private boolean closed;
+
+    public FtpOperationExecutor(int threads, int maxPerHost) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, THREAD_IDLE_TIMEOUT, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "ftplite-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.maxPerHost = Math.max(1, maxPerHost);
+    }
+
+    /**
+     * Runs an operation against a host in the background
+     * @param hostName the host the operation connects to
+     * @param operation the operation
+     * @return a future completed with the result of the operation, or with the exception it threw
+     */
+    public <T> CompletableFuture<T> submit(String hostName, Callable<T> operation) {
+        Task<T> task = new Task<>(hostName.toLowerCase(Locale.ROOT), operation);
+        synchronized (this) {
+            if (closed) {
+                throw new FtpLiteException("The connector is stopped");
+            }
+            Host host = hosts.computeIfAbsent(task.host, key -> new Host());
+            if (host.running >= maxPerHost) {
+                host.waiting.add(task);
+                return task.future;
+            }
+            host.running++;
+        }
+        execute(task);
+        return task.future;
+    }
+
+    /**
+     * @return the number of operations waiting for their host to drop below the cap
+     */
+    public synchronized int getQueued(String hostName) {
+        Host host = hosts.get(hostName.toLowerCase(Locale.ROOT));
+        return host == null ? 0 : host.waiting.size();
+    }
+
+    /**
+     * Stops the threads. Queued operations fail, running ones are interrupted.
+     */
+    public void close() {
+        List<Task<?>> dropped = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Host host : hosts.values()) {
+                dropped.addAll(host.waiting);
+            }
+            hosts.clear();
+        }
+        executor.shutdownNow();
+        for (Task<?> task : dropped) {
+            task.future.completeExceptionally(new FtpLiteException("The connector is stopped"));
+        }
+    }
+
+    private void execute(Task<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(new FtpLiteException("The connector is stopped"));
+        }
+    }
+
+    private void finished(String hostName) {
+        Task<?> next;
+        synchronized (this) {
+            Host host = hosts.get(hostName);
+            if (host == null) {
+                return;
+            }
+            next = host.waiting.poll();
+            if (next == null && --host.running == 0) {
+                hosts.remove(hostName);
+            }
+        }
+        if (next != null) {
+            execute(next);
+        }
+    }
+
+    private class Task<T> implements Runnable {
+
+        private final String host;
+
+        private final Callable<T> operation;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task(String host, Callable<T> operation) {
+            this.host = host;
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Cancelled while queued
+                if (!future.isDone()) {
+                    future.complete(operation.call());
+                }
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                finished(host);
+            }
+        }
+    }
+
+    private static class Host {
+
+        private int running;
+
+        private final Deque<Task<?>> waiting = new ArrayDeque<>();
+    }
+}
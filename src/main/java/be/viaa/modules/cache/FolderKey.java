@@ -0,0 +1,80 @@
+package be.viaa.modules.cache;
+
+import be.viaa.modules.pool.FtpSessionKey;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Identifies a folder as seen with one set of credentials. The session key includes the hash of the
+ * password, so a cached entry is only ever served to callers that could log in with the same
+ * credentials. Folders are kept as normalized absolute paths, so every way of writing a path ends up
+ * at the same key.
+ *
+ * @author VIAA vzw
+ */
+final class FolderKey {
+
+    private final FtpSessionKey session;
+
+    private final String folder;
+
+    FolderKey(FtpSessionKey session, String folder) {
+        this.session = session;
+        this.folder = folder;
+    }
+
+    FtpSessionKey getSession() {
+        return session;
+    }
+
+    String getFolder() {
+        return folder;
+    }
+
+    /**
+     * Resolves a path against the home directory and removes empty, "." and ".." segments
+     * @param home the absolute home directory, or null when it is not known
+     * @param path the path, relative to the home directory unless it starts with a slash; null for the home directory
+     * @return the absolute path, or null when a relative path cannot be resolved
+     */
+    static String normalize(String home, String path) {
+        if (path == null || path.isEmpty() || !path.startsWith("/")) {
+            if (home == null || !home.startsWith("/")) {
+                return null;
+            }
+            path = path == null || path.isEmpty() ? home : home + "/" + path;
+        }
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FolderKey)) {
+            return false;
+        }
+        FolderKey other = (FolderKey) o;
+        return session.equals(other.session) && folder.equals(other.folder);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * session.hashCode() + folder.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return session + folder;
+    }
+}
@@ -0,0 +1,79 @@
+package be.viaa.modules.cache;
+
+import be.viaa.modules.pool.FtpSessionKey;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which directories are known to exist on a server, so uploads into them can
+ * skip creating the directory tree. Entries expire after a fixed time and the least
+ * recently used entries are dropped once the cache is full. Entries are kept per set of
+ * credentials, password included, and per normalized absolute path.
+ *
+ * @author VIAA vzw
+ */
+public class FtpDirectoryCache {
+
+    private final long ttl;
+
+    private final Map<FolderKey, Long> entries;
+
+    public FtpDirectoryCache(final int maxSize, long ttl) {
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<FolderKey, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2431297456358765811L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FolderKey, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns whether a directory is known to exist
+     * @param key the server and user the directory was seen with
+     * @param directory the absolute path of the directory
+     * @return true if the directory was seen less than the time to live ago
+     */
+    public synchronized boolean contains(FtpSessionKey key, String directory) {
+        FolderKey cacheKey = cacheKey(key, directory);
+        Long expires = cacheKey == null ? null : entries.get(cacheKey);
+        if (expires == null) {
+            return false;
+        }
+        if (expires < System.currentTimeMillis()) {
+            entries.remove(cacheKey);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that a directory exists. Relative paths are not recorded, they depend on the working directory.
+     * @param key the server and user the directory was seen with
+     * @param directory the absolute path of the directory
+     */
+    public synchronized void put(FtpSessionKey key, String directory) {
+        FolderKey cacheKey = cacheKey(key, directory);
+        if (cacheKey != null) {
+            entries.put(cacheKey, System.currentTimeMillis() + ttl);
+        }
+    }
+
+    /**
+     * Forgets a directory, e.g. after it turned out to no longer exist
+     * @param key the server and user the directory was seen with
+     * @param directory the absolute path of the directory
+     */
+    public synchronized void invalidate(FtpSessionKey key, String directory) {
+        String folder = FolderKey.normalize(null, directory);
+        entries.keySet().removeIf(entry -> entry.getSession().isSameUser(key) && entry.getFolder().equals(folder));
+    }
+
+    private static FolderKey cacheKey(FtpSessionKey key, String directory) {
+        String folder = FolderKey.normalize(null, directory);
+        return folder == null ? null : new FolderKey(key, folder);
+    }
+}
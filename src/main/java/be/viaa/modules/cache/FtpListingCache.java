@@ -0,0 +1,173 @@
+package be.viaa.modules.cache;
+
+import be.viaa.modules.pool.FtpSessionKey;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers folder listings, so repeated listings of the same folder do not need a session.
+ * A listing is fresh for a fixed time; after that it can be revalidated with the folder's
+ * modification time instead of being listed again. The least recently used listings are
+ * dropped once the cache is full.
+ * <p>
+ * Listings are cached per set of credentials, password included, so a listing is only returned
+ * without logging in to callers that already logged in with the same credentials. Relative paths
+ * are resolved against the home directory of those credentials once it is known, so a folder
+ * has one entry however its path is written.
+ *
+ * @author VIAA vzw
+ */
+public class FtpListingCache {
+
+    private final long ttl;
+
+    private final Map<FolderKey, Listing> entries;
+
+    private final Map<FtpSessionKey, String> homeDirectories;
+
+    public FtpListingCache(final int maxSize, long ttl) {
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<FolderKey, Listing>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4963120784711935301L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FolderKey, Listing> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.homeDirectories = new LinkedHashMap<FtpSessionKey, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = -5329385816203637411L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FtpSessionKey, String> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the home directory a set of credentials logs in to, when it is known
+     * @param key the server and credentials
+     * @return the absolute home directory, or null
+     */
+    public synchronized String getHomeDirectory(FtpSessionKey key) {
+        return homeDirectories.get(key);
+    }
+
+    /**
+     * Records the home directory a set of credentials logs in to, used to resolve relative paths
+     * @param key the server and credentials
+     * @param homeDirectory the working directory of a session right after logging in
+     */
+    public synchronized void setHomeDirectory(FtpSessionKey key, String homeDirectory) {
+        if (homeDirectory != null && homeDirectory.startsWith("/")) {
+            homeDirectories.put(key, homeDirectory);
+        }
+    }
+
+    /**
+     * Returns a cached listing, fresh or not
+     * @param key the server and credentials the folder was listed with
+     * @param path the path of the folder
+     * @return the listing, or null when the folder is not cached
+     */
+    public synchronized Listing get(FtpSessionKey key, String path) {
+        FolderKey folder = folderKey(key, path);
+        return folder == null ? null : entries.get(folder);
+    }
+
+    /**
+     * Caches a listing. Listings of relative paths are not cached until the home directory is known.
+     * @param key the server and credentials the folder was listed with
+     * @param path the path of the folder
+     * @param files the entries of the folder
+     * @param modified the modification time of the folder, or null when the server did not tell
+     */
+    public synchronized void put(FtpSessionKey key, String path, FTPFile[] files, Long modified) {
+        FolderKey folder = folderKey(key, path);
+        if (folder != null) {
+            entries.put(folder, new Listing(files, modified, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Marks a listing as fresh again, after its modification time turned out to be unchanged
+     * @param key the server and credentials the folder was listed with
+     * @param path the path of the folder
+     */
+    public synchronized void revalidate(FtpSessionKey key, String path) {
+        FolderKey folder = folderKey(key, path);
+        Listing listing = folder == null ? null : entries.get(folder);
+        if (listing != null) {
+            entries.put(folder, new Listing(listing.files, listing.modified, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Forgets the listing of a folder and of all folders above it, e.g. after a file was written
+     * into it or directories were created along its path. The listings of the same user cached with
+     * other passwords are forgotten as well. When a relative path cannot be resolved, every listing
+     * of the user is forgotten.
+     * @param key the server and credentials the folder was changed with
+     * @param path the path of the folder
+     */
+    public synchronized void invalidate(FtpSessionKey key, String path) {
+        String resolved = FolderKey.normalize(homeDirectories.get(key), path);
+        Set<String> folders = new HashSet<>();
+        for (String folder = resolved; folder != null; folder = parent(folder)) {
+            folders.add(folder);
+        }
+        entries.keySet().removeIf(entry -> entry.getSession().isSameUser(key)
+                && (resolved == null || folders.contains(entry.getFolder())));
+    }
+
+    private FolderKey folderKey(FtpSessionKey key, String path) {
+        String folder = FolderKey.normalize(homeDirectories.get(key), path);
+        return folder == null ? null : new FolderKey(key, folder);
+    }
+
+    private static String parent(String folder) {
+        if (folder.equals("/")) {
+            return null;
+        }
+        int index = folder.lastIndexOf('/');
+        return index == 0 ? "/" : folder.substring(0, index);
+    }
+
+    /**
+     * A cached listing
+     */
+    public static final class Listing {
+
+        private final FTPFile[] files;
+
+        private final Long modified;
+
+        private final long expires;
+
+        private Listing(FTPFile[] files, Long modified, long expires) {
+            this.files = files;
+            this.modified = modified;
+            this.expires = expires;
+        }
+
+        /**
+         * @return a copy of the entries of the folder
+         */
+        public FTPFile[] getFiles() {
+            return files.clone();
+        }
+
+        public Long getModified() {
+            return modified;
+        }
+
+        public boolean isFresh() {
+            return expires >= System.currentTimeMillis();
+        }
+    }
+}
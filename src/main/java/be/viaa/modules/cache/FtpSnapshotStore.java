@@ -0,0 +1,239 @@
+package be.viaa.modules.cache;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.pool.FtpSessionKey;
+import be.viaa.modules.transfer.DigestAlgorithm;
+import be.viaa.modules.utils.Checksum;
+import be.viaa.modules.utils.FtpChanges;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the size and modification time of the files of polled folders, per host, port, user
+ * and normalized absolute path, so a poll only reports what changed since the previous one. Snapshots are kept in
+ * memory, and written to a folder when one is given so they survive a restart.
+ *
+ * @author VIAA vzw
+ */
+public class FtpSnapshotStore {
+
+    private static final Logger LOGGER = LogManager.getLogger(FtpSnapshotStore.class);
+
+    private final Path directory;
+
+    private final Map<String, Snapshot> snapshots = new HashMap<>();
+
+    /**
+     * @param directory the folder snapshots are written to, or null to keep them in memory only
+     */
+    public FtpSnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the snapshot of a folder, read from the snapshot folder or empty when it was never polled.
+     * Callers lock the snapshot while comparing and updating it.
+     * @param session the server and user the folder is polled with
+     * @param homeDirectory the working directory of a session right after logging in, used to resolve a relative path
+     * @param path the path of the folder, null for the home directory
+     */
+    public Snapshot get(FtpSessionKey session, String homeDirectory, String path) {
+        // Every way of writing the path shares one snapshot, or each would report every file as added once
+        String folder = FolderKey.normalize(homeDirectory, path);
+        if (folder == null) {
+            folder = path == null ? "" : path;
+        }
+        String key = session.getHostName().toLowerCase(Locale.ROOT) + ":" + session.getPort() + ":" + session.getUserName()
+                + ":" + folder;
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = snapshots.get(key);
+            if (snapshot == null) {
+                snapshot = new Snapshot(key, directory == null ? null : directory.resolve(fileName(key)));
+                snapshots.put(key, snapshot);
+            }
+        }
+        synchronized (snapshot) {
+            snapshot.load();
+        }
+        return snapshot;
+    }
+
+    private static String fileName(String key) {
+        Checksum checksum = Checksum.of(DigestAlgorithm.SHA_256);
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        checksum.update(bytes, 0, bytes.length);
+        return checksum.getValue() + ".snapshot";
+    }
+
+    /**
+     * The known files of one folder
+     */
+    public static final class Snapshot {
+
+        private final String key;
+
+        private final Path file;
+
+        private Map<String, Entry> entries;
+
+        private Snapshot(String key, Path file) {
+            this.key = key;
+            this.file = file;
+        }
+
+        /**
+         * Compares a listing of the folder with the snapshot and updates the snapshot to match it.
+         * Only files are compared, folders are left out. The snapshot is written before the changes are returned,
+         * and left as it was when that fails.
+         * @param files the current listing
+         * @param stableOnly whether new and changed files are held back until a later poll finds them unchanged,
+         *                   so files still being written are not reported
+         * @return the changes since the previous poll
+         */
+        public FtpChanges update(FTPFile[] files, boolean stableOnly) {
+            FtpChanges changes = new FtpChanges();
+            Map<String, Entry> current = new HashMap<>();
+            for (FTPFile file : files) {
+                if (file == null || !file.isFile()) {
+                    continue;
+                }
+                long size = file.getSize();
+                long modified = file.getTimestamp() == null ? 0 : file.getTimestamp().getTimeInMillis();
+                Entry previous = entries.get(file.getName());
+                boolean known = previous != null && previous.state != State.PENDING_ADDED;
+                State state = State.REPORTED;
+                if (previous != null && previous.matches(size, modified)) {
+                    if (previous.state == State.PENDING_ADDED) {
+                        changes.added(file);
+                    } else if (previous.state == State.PENDING_CHANGED) {
+                        changes.changed(file);
+                    }
+                } else if (stableOnly) {
+                    state = known ? State.PENDING_CHANGED : State.PENDING_ADDED;
+                } else if (known) {
+                    changes.changed(file);
+                } else {
+                    changes.added(file);
+                }
+                current.put(file.getName(), new Entry(state, size, modified));
+            }
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (!current.containsKey(entry.getKey()) && entry.getValue().state != State.PENDING_ADDED) {
+                    changes.removed(entry.getKey());
+                }
+            }
+            Map<String, Entry> previous = entries;
+            entries = current;
+            try {
+                save();
+            } catch (RuntimeException e) {
+                entries = previous;
+                throw e;
+            }
+            return changes;
+        }
+
+        private void save() {
+            if (file == null) {
+                return;
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(file.getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    writer.write(key);
+                    writer.newLine();
+                    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                        Entry value = entry.getValue();
+                        writer.write(value.state.ordinal() + " " + value.size + " " + value.modified + " " + entry.getKey());
+                        writer.newLine();
+                    }
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new FtpLiteException("Error writing the snapshot of " + key + " to " + file + ". " + e);
+            }
+        }
+
+        private void load() {
+            if (entries != null) {
+                return;
+            }
+            entries = new HashMap<>();
+            if (file == null) {
+                return;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                if (!key.equals(reader.readLine())) {
+                    LOGGER.warn("Ignoring snapshot " + file + ", it belongs to another folder");
+                    return;
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(" ", 4);
+                    entries.put(fields[3], new Entry(State.values()[Integer.parseInt(fields[0])],
+                            Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+            } catch (NoSuchFileException e) {
+                // never polled
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Ignoring unreadable snapshot " + file, e);
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Whether the last seen version of a file was reported, or is held back until it stops changing
+     */
+    private enum State {
+        REPORTED,
+        /**
+         * Held back, no earlier version was reported
+         */
+        PENDING_ADDED,
+        /**
+         * Held back, an earlier version was reported
+         */
+        PENDING_CHANGED
+    }
+
+    /**
+     * The last seen size and modification time of a file
+     */
+    private static final class Entry {
+
+        private final State state;
+
+        private final long size;
+
+        private final long modified;
+
+        private Entry(State state, long size, long modified) {
+            this.state = state;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * @return whether a file has the same size and modification time
+         */
+        public boolean matches(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package be.viaa.modules.cache;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the address host names resolved to, so new sessions skip the lookup. Entries
+ * expire after a fixed time, and are dropped when connecting to the address fails.
+ *
+ * @author VIAA vzw
+ */
+public class HostAddressCache {
+
+    private final long ttl;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public HostAddressCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the address of a host, looking it up when it is not known or has expired
+     * @param hostName the host name
+     * @return the address
+     * @throws UnknownHostException when the host name cannot be resolved
+     */
+    public InetAddress resolve(String hostName) throws UnknownHostException {
+        String key = hostName.toLowerCase(Locale.ROOT);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() < entry.expires) {
+                return entry.address;
+            }
+        }
+        InetAddress address = InetAddress.getByName(hostName);
+        synchronized (this) {
+            entries.put(key, new Entry(address, System.currentTimeMillis() + ttl));
+        }
+        return address;
+    }
+
+    /**
+     * Returns whether the address of a host is known and not expired
+     */
+    public synchronized boolean contains(String hostName) {
+        Entry entry = entries.get(hostName.toLowerCase(Locale.ROOT));
+        return entry != null && System.currentTimeMillis() < entry.expires;
+    }
+
+    /**
+     * Forgets the address of a host, so the next session looks it up again
+     */
+    public synchronized void invalidate(String hostName) {
+        entries.remove(hostName.toLowerCase(Locale.ROOT));
+    }
+
+    private static final class Entry {
+
+        private final InetAddress address;
+
+        private final long expires;
+
+        private Entry(InetAddress address, long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+}
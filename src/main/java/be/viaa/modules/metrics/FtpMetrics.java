@@ -0,0 +1,154 @@
+package be.viaa.modules.metrics;
+
+import be.viaa.modules.pool.BufferPool;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of the metrics of every host one connector configuration talks to. The metrics of each
+ * host are registered as an MBean named be.viaa.modules:type=FtpLiteConnector,config=&lt;n&gt;,host=&lt;host&gt;,
+ * where n numbers the configurations in the application, so closing the registry of one configuration
+ * leaves the MBeans of the others alone. Host names are compared case-insensitively and without a
+ * trailing dot; past {@link #MAX_HOSTS} hosts, further hosts share the metrics named "(other)".
+ *
+ * @author VIAA vzw
+ */
+public class FtpMetrics {
+
+    private static final Logger LOGGER = LogManager.getLogger(FtpMetrics.class);
+
+    /**
+     * The number of hosts that get metrics of their own
+     */
+    public static final int MAX_HOSTS = 256;
+
+    private static final String DOMAIN = "be.viaa.modules";
+
+    private static final String UNKNOWN_HOST = "unknown";
+
+    private static final String OTHER_HOSTS = "(other)";
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    /**
+     * The metrics of sessions not created by the connector, and of hosts used after the registry was closed,
+     * which are not registered with JMX
+     */
+    private static final HostMetrics UNREGISTERED = new HostMetrics(UNKNOWN_HOST);
+
+    private final String instance = String.valueOf(INSTANCES.incrementAndGet());
+
+    private final Map<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    private boolean closed;
+
+    /**
+     * Returns the metrics of a host, registering them with JMX on first use
+     * @param hostName the host's name
+     * @return the metrics of the host
+     */
+    public HostMetrics host(String hostName) {
+        String key = normalize(hostName);
+        HostMetrics metrics = hosts.get(key);
+        if (metrics != null) {
+            return metrics;
+        }
+        synchronized (registered) {
+            if (closed) {
+                return UNREGISTERED;
+            }
+            if (!hosts.containsKey(key) && hosts.size() >= MAX_HOSTS) {
+                key = OTHER_HOSTS;
+            }
+            return hosts.computeIfAbsent(key, this::register);
+        }
+    }
+
+    /**
+     * Returns the metrics of the host a session is connected to
+     * @param client the session
+     * @return the metrics of the session's host
+     */
+    public static HostMetrics of(FTPClient client) {
+        if (client instanceof MeteredFtpClient) {
+            return ((MeteredFtpClient) client).getMetrics();
+        }
+        return UNREGISTERED;
+    }
+
+    /**
+     * Registers a pool of transfer buffers as an MBean named be.viaa.modules:type=FtpLiteConnector,config=&lt;n&gt;,bufferPool=&lt;name&gt;
+     * @param poolName the name of the pool
+     * @param pool the pool
+     */
+    public void register(String poolName, BufferPool pool) {
+        synchronized (registered) {
+            if (!closed) {
+                register("bufferPool=" + ObjectName.quote(poolName), pool, "buffer pool " + poolName);
+            }
+        }
+    }
+
+    /**
+     * Removes the MBeans of this registry, e.g. when the connector is stopped. Hosts used afterwards
+     * are no longer registered.
+     */
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            closed = true;
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException e) {
+                    LOGGER.debug("Could not unregister " + name, e);
+                }
+            }
+            registered.clear();
+            hosts.clear();
+        }
+    }
+
+    private static String normalize(String hostName) {
+        String key = hostName == null ? "" : hostName.trim().toLowerCase(Locale.ROOT);
+        if (key.endsWith(".")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key.isEmpty() ? UNKNOWN_HOST : key;
+    }
+
+    private HostMetrics register(String hostName) {
+        HostMetrics metrics = new HostMetrics(hostName);
+        register("host=" + ObjectName.quote(hostName), metrics, "metrics of " + hostName);
+        return metrics;
+    }
+
+    private void register(String property, Object bean, String description) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=FtpLiteConnector,config=" + instance + "," + property);
+            if (server.isRegistered(name)) {
+                // Another application in the same server numbers its configurations the same way
+                name = new ObjectName(name + ",instance=" + Integer.toHexString(System.identityHashCode(this)));
+            }
+            server.registerMBean(bean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            LOGGER.warn("Could not register the " + description + " with JMX", e);
+        }
+    }
+}
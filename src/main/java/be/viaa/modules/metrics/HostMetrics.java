@@ -0,0 +1,205 @@
+package be.viaa.modules.metrics;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, transfer and session metrics of a single host.
+ *
+ * @author VIAA vzw
+ */
+public class HostMetrics implements HostMetricsMXBean {
+
+    private final String hostName;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Map<Integer, LongAdder> failures = new ConcurrentHashMap<>();
+
+    private final LongAdder bytesSent = new LongAdder();
+
+    private final LongAdder bytesReceived = new LongAdder();
+
+    private final LongAdder sendNanos = new LongAdder();
+
+    private final LongAdder receiveNanos = new LongAdder();
+
+    private final AtomicInteger openSessions = new AtomicInteger();
+
+    private final AtomicInteger queuedOperations = new AtomicInteger();
+
+    private final Set<FTPClient> activeSessions = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<FTPClient, Boolean>()));
+
+    HostMetrics(String hostName) {
+        this.hostName = hostName;
+    }
+
+    /**
+     * Starts timing a phase, recorded when the returned timer is closed
+     * @param phase the name of the phase
+     * @return the running timer
+     */
+    public PhaseTimer start(String phase) {
+        long start = System.nanoTime();
+        return () -> time(phase, start);
+    }
+
+    /**
+     * Records the time elapsed since a start time
+     * @param phase the name of the phase
+     * @param startNanos the start time, from {@link System#nanoTime()}
+     */
+    public void time(String phase, long startNanos) {
+        timers.computeIfAbsent(phase, name -> new Timer()).record(System.nanoTime() - startNanos);
+    }
+
+    public void sent(long bytes, long nanos) {
+        bytesSent.add(bytes);
+        sendNanos.add(nanos);
+    }
+
+    public void received(long bytes, long nanos) {
+        bytesReceived.add(bytes);
+        receiveNanos.add(nanos);
+    }
+
+    public void failure(int replyCode) {
+        failures.computeIfAbsent(replyCode, code -> new LongAdder()).increment();
+    }
+
+    public void sessionOpened() {
+        openSessions.incrementAndGet();
+    }
+
+    public void sessionClosed() {
+        openSessions.decrementAndGet();
+    }
+
+    public void queueEntered() {
+        queuedOperations.incrementAndGet();
+    }
+
+    public void queueLeft() {
+        queuedOperations.decrementAndGet();
+    }
+
+    public void sessionLeased(FTPClient client) {
+        activeSessions.add(client);
+    }
+
+    public void sessionReleased(FTPClient client) {
+        activeSessions.remove(client);
+    }
+
+    @Override
+    public String getHostName() {
+        return hostName;
+    }
+
+    @Override
+    public Map<String, TimerStats> getTimers() {
+        Map<String, TimerStats> result = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public double getSendThroughput() {
+        return throughput(bytesSent.sum(), sendNanos.sum());
+    }
+
+    @Override
+    public double getReceiveThroughput() {
+        return throughput(bytesReceived.sum(), receiveNanos.sum());
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByReplyCode() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : failures.entrySet()) {
+            result.put(String.valueOf(entry.getKey()), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return activeSessions.size();
+    }
+
+    @Override
+    public int getQueuedOperations() {
+        return queuedOperations.get();
+    }
+
+    @Override
+    public void reset() {
+        timers.clear();
+        failures.clear();
+        bytesSent.reset();
+        bytesReceived.reset();
+        sendNanos.reset();
+        receiveNanos.reset();
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    /**
+     * Timer that is recorded when closed
+     */
+    public interface PhaseTimer extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class Timer {
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry until the maximum is updated or a larger one was recorded
+            }
+        }
+
+        private TimerStats snapshot() {
+            return new TimerStats(count.sum(), totalNanos.sum() / 1e6, maxNanos.get() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package be.viaa.modules.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a single host.
+ *
+ * @author VIAA vzw
+ */
+public interface HostMetricsMXBean {
+
+    String getHostName();
+
+    /**
+     * @return the latency per phase (connect, login, list, ...), per FTP command and per operation
+     */
+    Map<String, TimerStats> getTimers();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    /**
+     * @return the average upload speed in bytes per second while transferring
+     */
+    double getSendThroughput();
+
+    /**
+     * @return the average download speed in bytes per second while transferring
+     */
+    double getReceiveThroughput();
+
+    /**
+     * @return the number of negative replies per reply code
+     */
+    Map<String, Long> getFailuresByReplyCode();
+
+    /**
+     * @return the number of connected sessions, including idle pooled sessions
+     */
+    int getOpenSessions();
+
+    /**
+     * @return the number of sessions in use by an operation
+     */
+    int getActiveSessions();
+
+    /**
+     * @return the number of operations waiting for a session, the time they wait is timed as session.queue
+     */
+    int getQueuedOperations();
+
+    void reset();
+}
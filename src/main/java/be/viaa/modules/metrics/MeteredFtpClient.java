@@ -0,0 +1,119 @@
+package be.viaa.modules.metrics;
+
+import be.viaa.modules.pool.BufferPool;
+import be.viaa.modules.pool.HostBulkhead;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * FTP client that records the latency and negative replies of every command and the number
+ * of open connections in the metrics of its host. A connection holding a permit of the
+ * limiter of connections per host gives it back when it is disconnected.
+ *
+ * @author VIAA vzw
+ */
+public class MeteredFtpClient extends FTPClient {
+
+    private final HostMetrics metrics;
+
+    private BufferPool bufferPool;
+
+    private HostBulkhead hostBulkhead;
+
+    public MeteredFtpClient(HostMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public HostMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the pool of the buffers this session copies data with, or null
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @param hostBulkhead the limiter of connections per host this connection holds a permit of, or null
+     */
+    public void setHostBulkhead(HostBulkhead hostBulkhead) {
+        this.hostBulkhead = hostBulkhead;
+    }
+
+    /**
+     * Connecting by host name also ends up here, after the name is resolved
+     */
+    @Override
+    public void connect(InetAddress host, int port) throws SocketException, IOException {
+        super.connect(host, port);
+        metrics.sessionOpened();
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        boolean connected = isConnected();
+        try {
+            super.disconnect();
+        } finally {
+            if (connected) {
+                metrics.sessionClosed();
+            }
+            if (hostBulkhead != null) {
+                hostBulkhead.release(this);
+            }
+        }
+    }
+
+    @Override
+    public int sendCommand(String command, String args) throws IOException {
+        long start = System.nanoTime();
+        int reply = super.sendCommand(command, args);
+        metrics.time("command." + command, start);
+        if (reply >= 400) {
+            metrics.failure(reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Reads an MLSD listing for parsing later, which FTPClient only does for LIST
+     * @param path the folder to list
+     * @return the unparsed listing, empty when the server refused it
+     */
+    public FTPListParseEngine initiateMListParsing(String path) throws IOException {
+        FTPListParseEngine engine = new FTPListParseEngine(MLSxEntryParser.getInstance());
+        Socket socket = _openDataConnection_(FTPCmd.MLSD, path);
+        if (socket == null) {
+            return engine;
+        }
+        try {
+            engine.readServerList(socket.getInputStream(), getControlEncoding());
+        } finally {
+            socket.close();
+            completePendingCommand();
+        }
+        return engine;
+    }
+
+    @Override
+    public boolean completePendingCommand() throws IOException {
+        boolean completed = super.completePendingCommand();
+        if (!completed) {
+            metrics.failure(getReplyCode());
+        }
+        return completed;
+    }
+}
@@ -0,0 +1,37 @@
+package be.viaa.modules.metrics;
+
+/**
+ * Snapshot of the latency of a phase or operation.
+ *
+ * @author VIAA vzw
+ */
+public class TimerStats {
+
+    private final long count;
+
+    private final double totalMillis;
+
+    private final double maxMillis;
+
+    public TimerStats(long count, double totalMillis, double maxMillis) {
+        this.count = count;
+        this.totalMillis = totalMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public double getMeanMillis() {
+        return count == 0 ? 0 : totalMillis / count;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+}
@@ -0,0 +1,176 @@
+package be.viaa.modules.pool;
+
+import be.viaa.modules.metrics.MeteredFtpClient;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of fixed-size transfer buffers shared by all sessions. Buffers are handed out without
+ * waiting: when none is idle a new one is allocated, and buffers given back to a full pool are
+ * left to the garbage collector, so at most maxBuffers stay allocated between transfers. Each
+ * acquisition is a lease of its own, so closing a lease again, after its memory went to another
+ * owner, does not give that memory back a second time.
+ *
+ * @author VIAA vzw
+ */
+public class BufferPool implements BufferPoolMXBean {
+
+    /**
+     * Used for sessions created without a pool, keeps no buffers
+     */
+    private static final BufferPool UNPOOLED = new BufferPool(65536, 0, false);
+
+    private final int bufferSize;
+
+    private final boolean direct;
+
+    private final int maxBuffers;
+
+    private final BlockingQueue<Block> idle;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * @param bufferSize the size in bytes of each buffer
+     * @param maxBuffers the maximum number of idle buffers kept
+     * @param direct whether buffers come with a direct ByteBuffer for file channels
+     */
+    public BufferPool(int bufferSize, int maxBuffers, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.maxBuffers = maxBuffers;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxBuffers));
+    }
+
+    /**
+     * Returns the pool of the buffers a session copies data with
+     */
+    public static BufferPool of(FTPClient client) {
+        if (client instanceof MeteredFtpClient) {
+            BufferPool pool = ((MeteredFtpClient) client).getBufferPool();
+            if (pool != null) {
+                return pool;
+            }
+        }
+        return UNPOOLED;
+    }
+
+    /**
+     * Takes an idle buffer, or allocates one when there is none. Buffers must be given back by closing them.
+     */
+    public Buffer acquire() {
+        Block block = idle.poll();
+        if (block == null) {
+            misses.increment();
+            block = new Block(bufferSize);
+        } else {
+            hits.increment();
+        }
+        outstanding.incrementAndGet();
+        return new Buffer(this, block);
+    }
+
+    private void release(Block block) {
+        outstanding.decrementAndGet();
+        if (maxBuffers > 0) {
+            idle.offer(block);
+        }
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public int getOutstandingBuffers() {
+        return outstanding.get();
+    }
+
+    @Override
+    public int getIdleBuffers() {
+        return idle.size();
+    }
+
+    /**
+     * The memory of a buffer, which goes from lease to lease
+     */
+    private static final class Block {
+
+        private final byte[] array;
+
+        private ByteBuffer byteBuffer;
+
+        private Block(int size) {
+            this.array = new byte[size];
+        }
+    }
+
+    /**
+     * A lease of a buffer taken from the pool, given back when closed
+     */
+    public static final class Buffer implements AutoCloseable {
+
+        private final BufferPool pool;
+
+        private final Block block;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Buffer(BufferPool pool, Block block) {
+            this.pool = pool;
+            this.block = block;
+        }
+
+        public byte[] array() {
+            return block.array;
+        }
+
+        /**
+         * @return a direct buffer of the same size when the pool hands out direct buffers, otherwise
+         * the array wrapped; cleared either way
+         */
+        public ByteBuffer byteBuffer() {
+            if (block.byteBuffer == null) {
+                block.byteBuffer = pool.direct ? ByteBuffer.allocateDirect(block.array.length) : ByteBuffer.wrap(block.array);
+            }
+            block.byteBuffer.clear();
+            return block.byteBuffer;
+        }
+
+        /**
+         * Gives the buffer back to the pool, only once per lease
+         */
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                pool.release(block);
+            }
+        }
+    }
+}
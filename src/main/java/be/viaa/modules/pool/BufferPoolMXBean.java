@@ -0,0 +1,30 @@
+package be.viaa.modules.pool;
+
+/**
+ * JMX view of a pool of transfer buffers.
+ *
+ * @author VIAA vzw
+ */
+public interface BufferPoolMXBean {
+
+    int getBufferSize();
+
+    boolean isDirect();
+
+    /**
+     * @return the number of buffers taken from the pool
+     */
+    long getHits();
+
+    /**
+     * @return the number of buffers allocated because none was idle
+     */
+    long getMisses();
+
+    /**
+     * @return the number of buffers in use
+     */
+    int getOutstandingBuffers();
+
+    int getIdleBuffers();
+}
@@ -0,0 +1,92 @@
+package be.viaa.modules.pool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Identifies the tenant an authenticated FTP session belongs to. Sessions are only ever
+ * shared between calls that use exactly the same host, port and credentials. The password
+ * itself is not kept, only a SHA-256 hash of it.
+ *
+ * @author VIAA vzw
+ */
+public final class FtpSessionKey {
+
+    private final String hostName;
+
+    private final int port;
+
+    private final String userName;
+
+    private final String passwordHash;
+
+    public FtpSessionKey(String hostName, int port, String userName, String password) {
+        this.hostName = hostName == null ? "" : hostName.toLowerCase(Locale.ROOT);
+        this.port = port;
+        this.userName = userName == null ? "" : userName;
+        this.passwordHash = hash(password == null ? "" : password);
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * @return whether both keys are for the same user of the same server, whatever the password
+     */
+    public boolean isSameUser(FtpSessionKey other) {
+        return port == other.port && hostName.equals(other.hostName) && userName.equals(other.userName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FtpSessionKey)) {
+            return false;
+        }
+        FtpSessionKey other = (FtpSessionKey) o;
+        return port == other.port
+                && hostName.equals(other.hostName)
+                && userName.equals(other.userName)
+                && passwordHash.equals(other.passwordHash);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hostName.hashCode();
+        result = 31 * result + port;
+        result = 31 * result + userName.hashCode();
+        result = 31 * result + passwordHash.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return userName + "@" + hostName + ":" + port;
+    }
+
+    private static String hash(String password) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package be.viaa.modules.pool;
+
+import be.viaa.modules.exceptions.FtpLiteHostException;
+import be.viaa.modules.transfer.TransferProfile;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Pool of authenticated FTP sessions, keyed by tenant (host, port and credentials).
+ *
+ * Sessions are validated with a NOOP when they are borrowed and are reset to the home
+ * directory and the configured transfer settings when they are given back. Idle sessions are
+ * closed once they have not been used for the configured idle timeout, except for the sessions
+ * kept warm for a key, which are replaced when they fail. With a keep-alive interval, idle
+ * sessions are sent a NOOP at that interval so the server does not drop them.
+ *
+ * @author VIAA vzw
+ */
+public class FtpSessionPool {
+
+    private static final Logger LOGGER = LogManager.getLogger(FtpSessionPool.class);
+
+    private final int maxPerKey;
+
+    private final int maxTotal;
+
+    private final long idleTimeout;
+
+    private final long maxWait;
+
+    private final long keepAliveInterval;
+
+    /**
+     * The settings sessions are reset to when they are given back
+     */
+    private final TransferProfile defaults;
+
+    /**
+     * Idle sessions per key, most recently used first
+     */
+    private final Map<FtpSessionKey, Deque<PooledSession>> idle = new HashMap<>();
+
+    /**
+     * Number of sessions per key, idle, leased or being created
+     */
+    private final Map<FtpSessionKey, Integer> counts = new HashMap<>();
+
+    private final Map<FTPClient, PooledSession> leased = new IdentityHashMap<>();
+
+    /**
+     * The keys that keep a number of idle sessions open, with the factory to replace them
+     */
+    private final Map<FtpSessionKey, Warm> warm = new HashMap<>();
+
+    private final ScheduledExecutorService evictor;
+
+    private int total;
+
+    private boolean closed;
+
+    public FtpSessionPool(int maxPerKey, int maxTotal, long idleTimeout, long maxWait, TransferProfile defaults) {
+        this(maxPerKey, maxTotal, idleTimeout, maxWait, 0, defaults);
+    }
+
+    public FtpSessionPool(int maxPerKey, int maxTotal, long idleTimeout, long maxWait, long keepAliveInterval,
+                          TransferProfile defaults) {
+        this.maxPerKey = Math.max(1, maxPerKey);
+        this.maxTotal = Math.max(this.maxPerKey, maxTotal);
+        this.idleTimeout = idleTimeout;
+        this.maxWait = maxWait;
+        this.keepAliveInterval = keepAliveInterval;
+        this.defaults = defaults;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ftplite-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000L, idleTimeout / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        if (keepAliveInterval > 0) {
+            this.evictor.scheduleWithFixedDelay(this::keepAlive, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Keeps a number of idle sessions open for a key: they are opened now, are not closed when
+     * they are idle, and are replaced when they fail. Opening them counts against the pool's limits.
+     *
+     * @param key the tenant the sessions are for
+     * @param factory creates a new, authenticated session
+     * @param sessions the number of idle sessions to keep open
+     */
+    public void keepWarm(FtpSessionKey key, Supplier<FTPClient> factory, int sessions) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            warm.put(key, new Warm(factory, Math.min(sessions, maxPerKey)));
+        }
+        replenish(key);
+    }
+
+    /**
+     * Borrows a session for the given key, creating a new one with the factory when no
+     * valid idle session is available.
+     *
+     * @param key the tenant the session is for
+     * @param factory creates a new, authenticated session
+     * @return an authenticated session
+     */
+    public FTPClient borrow(FtpSessionKey key, Supplier<FTPClient> factory) {
+        long deadline = System.currentTimeMillis() + maxWait;
+        while (true) {
+            PooledSession session = null;
+            List<PooledSession> discarded = new ArrayList<>();
+            synchronized (this) {
+                while (session == null) {
+                    if (closed) {
+                        throw new FtpLiteHostException("The FTP session pool is closed");
+                    }
+                    session = pollIdle(key, discarded);
+                    if (session != null) {
+                        leased.put(session.client, session);
+                    } else if (count(key) < maxPerKey && (total < maxTotal || evictOldest(discarded))) {
+                        counts.put(key, count(key) + 1);
+                        total++;
+                        break;
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new FtpLiteHostException("Timed out waiting for a pooled connection to " + key);
+                        }
+                        try {
+                            wait(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new FtpLiteHostException("Interrupted while waiting for a pooled connection to " + key);
+                        }
+                    }
+                }
+            }
+            closeAll(discarded);
+
+            if (session == null) {
+                return create(key, factory);
+            }
+            if (validate(session)) {
+                return session.client;
+            }
+            destroy(session);
+        }
+    }
+
+    /**
+     * Gives a session back to the pool. Sessions that are no longer connected or that
+     * cannot be reset are closed instead.
+     *
+     * @param client the session to give back
+     */
+    public void release(FTPClient client) {
+        PooledSession session;
+        synchronized (this) {
+            session = leased.remove(client);
+        }
+        if (session == null) {
+            quietlyClose(client);
+            return;
+        }
+        if (!client.isConnected() || !reset(session)) {
+            destroy(session);
+            return;
+        }
+        synchronized (this) {
+            if (!closed) {
+                session.lastUsed = System.currentTimeMillis();
+                session.lastChecked = session.lastUsed;
+                idle.computeIfAbsent(session.key, k -> new LinkedList<>()).addFirst(session);
+                notifyAll();
+                return;
+            }
+        }
+        destroy(session);
+    }
+
+    /**
+     * Closes a leased session instead of giving it back, e.g. when it is in an unknown state.
+     *
+     * @param client the session to close
+     */
+    public void invalidate(FTPClient client) {
+        PooledSession session;
+        synchronized (this) {
+            session = leased.remove(client);
+        }
+        if (session == null) {
+            quietlyClose(client);
+        } else {
+            destroy(session);
+        }
+    }
+
+    /**
+     * Closes the least recently used idle session to a host, of any key, so its connection can be
+     * opened for another tenant. Warm sessions are replaced once the host has room again.
+     *
+     * @param hostName the host
+     * @return whether a session was closed
+     */
+    public boolean closeIdle(String hostName) {
+        String host = hostName.toLowerCase(Locale.ROOT);
+        PooledSession session;
+        synchronized (this) {
+            Deque<PooledSession> oldest = null;
+            for (Deque<PooledSession> sessions : idle.values()) {
+                if (!sessions.isEmpty() && sessions.peekLast().key.getHostName().equals(host)
+                        && (oldest == null || sessions.peekLast().lastUsed < oldest.peekLast().lastUsed)) {
+                    oldest = sessions;
+                }
+            }
+            if (oldest == null) {
+                return false;
+            }
+            session = oldest.removeLast();
+            if (oldest.isEmpty()) {
+                idle.remove(session.key);
+            }
+            decrement(session.key);
+        }
+        quietlyClose(session.client);
+        return true;
+    }
+
+    /**
+     * Closes all idle sessions and stops the pool. Leased sessions are closed when they are released.
+     */
+    public void close() {
+        List<PooledSession> discarded = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            warm.clear();
+            for (Deque<PooledSession> sessions : idle.values()) {
+                discarded.addAll(sessions);
+            }
+            idle.clear();
+            notifyAll();
+        }
+        evictor.shutdownNow();
+        for (PooledSession session : discarded) {
+            destroy(session);
+        }
+    }
+
+    private FTPClient create(FtpSessionKey key, Supplier<FTPClient> factory) {
+        FTPClient client = null;
+        try {
+            client = factory.get();
+            PooledSession session = new PooledSession(key, client, client.printWorkingDirectory());
+            synchronized (this) {
+                leased.put(client, session);
+            }
+            return client;
+        } catch (IOException | RuntimeException e) {
+            if (client != null) {
+                quietlyClose(client);
+            }
+            synchronized (this) {
+                decrement(key);
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new FtpLiteHostException("Error connecting. " + e.toString());
+        }
+    }
+
+    private boolean validate(PooledSession session) {
+        try {
+            return session.client.isConnected() && session.client.sendNoOp();
+        } catch (IOException e) {
+            LOGGER.debug("Pooled connection to " + session.key + " failed validation", e);
+            return false;
+        }
+    }
+
+    private boolean reset(PooledSession session) {
+        FTPClient client = session.client;
+        try {
+            client.setRestartOffset(0);
+            defaults.applyTo(client);
+            return client.setFileTransferMode(FTP.STREAM_TRANSFER_MODE)
+                    && (session.homeDirectory == null || client.changeWorkingDirectory(session.homeDirectory));
+        } catch (IOException e) {
+            LOGGER.debug("Could not reset pooled connection to " + session.key, e);
+            return false;
+        }
+    }
+
+    private void destroy(PooledSession session) {
+        synchronized (this) {
+            decrement(session.key);
+        }
+        quietlyClose(session.client);
+    }
+
+    private void evictIdle() {
+        List<PooledSession> discarded = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Deque<PooledSession>> it = idle.values().iterator(); it.hasNext();) {
+                Deque<PooledSession> sessions = it.next();
+                int keep = warmSessions(sessions.isEmpty() ? null : sessions.peekFirst().key);
+                while (sessions.size() > keep && now - sessions.peekLast().lastUsed >= idleTimeout) {
+                    discard(sessions.removeLast(), discarded);
+                }
+                if (sessions.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        closeAll(discarded);
+        List<FtpSessionKey> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(warm.keySet());
+        }
+        for (FtpSessionKey key : keys) {
+            replenish(key);
+        }
+    }
+
+    /**
+     * Sends a NOOP over the sessions that have been idle for the keep-alive interval. They are
+     * taken out of the pool meanwhile; those that fail are closed.
+     */
+    private void keepAlive() {
+        List<PooledSession> due = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Deque<PooledSession>> it = idle.values().iterator(); it.hasNext();) {
+                Deque<PooledSession> sessions = it.next();
+                for (Iterator<PooledSession> sessionIt = sessions.iterator(); sessionIt.hasNext();) {
+                    PooledSession session = sessionIt.next();
+                    if (now - session.lastChecked >= keepAliveInterval) {
+                        sessionIt.remove();
+                        due.add(session);
+                    }
+                }
+                if (sessions.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        for (PooledSession session : due) {
+            if (validate(session)) {
+                session.lastChecked = System.currentTimeMillis();
+                returnIdle(session);
+            } else {
+                destroy(session);
+            }
+        }
+    }
+
+    /**
+     * Opens sessions for a warm key until it has the number of idle sessions it keeps,
+     * as far as the pool's limits allow
+     */
+    private void replenish(FtpSessionKey key) {
+        while (true) {
+            Warm target;
+            synchronized (this) {
+                target = warm.get(key);
+                Deque<PooledSession> sessions = idle.get(key);
+                int idleCount = sessions == null ? 0 : sessions.size();
+                if (closed || target == null || idleCount >= target.sessions
+                        || count(key) >= maxPerKey || total >= maxTotal) {
+                    return;
+                }
+                counts.put(key, count(key) + 1);
+                total++;
+            }
+            FTPClient client = null;
+            try {
+                client = target.factory.get();
+                returnIdle(new PooledSession(key, client, client.printWorkingDirectory()));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Could not open a warm connection to " + key + ": " + e.getMessage());
+                if (client != null) {
+                    quietlyClose(client);
+                }
+                synchronized (this) {
+                    decrement(key);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Puts a session that was taken out of the pool back among the idle ones, in the order of use
+     */
+    private void returnIdle(PooledSession session) {
+        synchronized (this) {
+            if (!closed) {
+                Deque<PooledSession> sessions = idle.computeIfAbsent(session.key, k -> new LinkedList<>());
+                ListIterator<PooledSession> it = ((LinkedList<PooledSession>) sessions).listIterator();
+                while (it.hasNext()) {
+                    if (it.next().lastUsed <= session.lastUsed) {
+                        it.previous();
+                        break;
+                    }
+                }
+                it.add(session);
+                notifyAll();
+                return;
+            }
+        }
+        destroy(session);
+    }
+
+    /**
+     * The number of idle sessions kept open for a key. Must be called while holding the pool's lock.
+     */
+    private int warmSessions(FtpSessionKey key) {
+        Warm target = key == null ? null : warm.get(key);
+        return target == null ? 0 : target.sessions;
+    }
+
+    /**
+     * Takes the most recently used idle session for the key, discarding any that have expired.
+     * Must be called while holding the pool's lock.
+     */
+    private PooledSession pollIdle(FtpSessionKey key, List<PooledSession> discarded) {
+        Deque<PooledSession> sessions = idle.get(key);
+        if (sessions == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        PooledSession result = null;
+        while (result == null && !sessions.isEmpty()) {
+            PooledSession session = sessions.removeFirst();
+            // Warm sessions do not expire, they are validated like any other
+            if (now - session.lastUsed < idleTimeout || warm.containsKey(key)) {
+                result = session;
+            } else {
+                discard(session, discarded);
+            }
+        }
+        if (sessions.isEmpty()) {
+            idle.remove(key);
+        }
+        return result;
+    }
+
+    /**
+     * Frees a slot by discarding the least recently used idle session of any key.
+     * Must be called while holding the pool's lock.
+     */
+    private boolean evictOldest(List<PooledSession> discarded) {
+        Deque<PooledSession> oldest = null;
+        for (Deque<PooledSession> sessions : idle.values()) {
+            if (!sessions.isEmpty() && (oldest == null || sessions.peekLast().lastUsed < oldest.peekLast().lastUsed)) {
+                oldest = sessions;
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        PooledSession session = oldest.removeLast();
+        if (oldest.isEmpty()) {
+            idle.remove(session.key);
+        }
+        discard(session, discarded);
+        return true;
+    }
+
+    private void discard(PooledSession session, List<PooledSession> discarded) {
+        decrement(session.key);
+        discarded.add(session);
+    }
+
+    private void decrement(FtpSessionKey key) {
+        int count = count(key) - 1;
+        if (count <= 0) {
+            counts.remove(key);
+        } else {
+            counts.put(key, count);
+        }
+        total--;
+        notifyAll();
+    }
+
+    private int count(FtpSessionKey key) {
+        Integer count = counts.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private static void closeAll(List<PooledSession> sessions) {
+        for (PooledSession session : sessions) {
+            quietlyClose(session.client);
+        }
+    }
+
+    private static void quietlyClose(FTPClient client) {
+        try {
+            if (client.isConnected()) {
+                client.logout();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Error logging out of pooled connection", e);
+        }
+        try {
+            client.disconnect();
+        } catch (IOException e) {
+            LOGGER.debug("Error closing pooled connection", e);
+        }
+    }
+
+    private static final class PooledSession {
+
+        private final FtpSessionKey key;
+
+        private final FTPClient client;
+
+        private final String homeDirectory;
+
+        private long lastUsed;
+
+        /**
+         * When the session was last known to be alive, by use or by a keep-alive NOOP
+         */
+        private long lastChecked;
+
+        private PooledSession(FtpSessionKey key, FTPClient client, String homeDirectory) {
+            this.key = key;
+            this.client = client;
+            this.homeDirectory = homeDirectory;
+            this.lastUsed = System.currentTimeMillis();
+            this.lastChecked = lastUsed;
+        }
+    }
+
+    private static final class Warm {
+
+        private final Supplier<FTPClient> factory;
+
+        private final int sessions;
+
+        private Warm(Supplier<FTPClient> factory, int sessions) {
+            this.factory = factory;
+            this.sessions = sessions;
+        }
+    }
+}
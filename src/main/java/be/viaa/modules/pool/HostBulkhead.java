@@ -0,0 +1,150 @@
+package be.viaa.modules.pool;
+
+import be.viaa.modules.exceptions.FtpLiteHostException;
+import be.viaa.modules.metrics.FtpMetrics;
+import be.viaa.modules.metrics.HostMetrics;
+import be.viaa.modules.metrics.HostMetrics.PhaseTimer;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of connections open per host, over all tenants of that host. A connection
+ * holds its permit from the moment it is opened until it is disconnected, whether it is in use or
+ * idle in the session pool. Connections over the limit first close an idle pooled connection to the
+ * host, and otherwise wait in line, up to a maximum number of waiting operations and a maximum wait,
+ * so a burst against one partner neither floods it with logins nor ties up every worker thread.
+ *
+ * @author VIAA vzw
+ */
+public class HostBulkhead {
+
+    /**
+     * How often a waiting connection looks for an idle pooled connection to close, since sessions
+     * given back to the pool keep their permit
+     */
+    private static final long RECLAIM_INTERVAL = 100L;
+
+    private final FtpMetrics metrics;
+
+    private final int maxSessions;
+
+    private final int maxQueued;
+
+    private final long timeout;
+
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    /**
+     * The host each connection holding a permit was opened to
+     */
+    private final Map<FTPClient, Host> holders = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public HostBulkhead(FtpMetrics metrics, int maxSessions, int maxQueued, long timeout) {
+        this.metrics = metrics;
+        this.maxSessions = maxSessions;
+        this.maxQueued = maxQueued;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Waits for a permit to open a connection to a host and hands it to the connection, to be given
+     * back with {@link #release(FTPClient)} once it is disconnected. Idle connections to the host are
+     * closed in the pool to free their permits.
+     * @param client the connection about to be opened
+     * @param hostName the host
+     * @param pool the pool whose idle connections may be closed, or null
+     * @throws FtpLiteHostException when too many operations are waiting already, or the wait times out
+     */
+    public void acquire(FTPClient client, String hostName, FtpSessionPool pool) {
+        Host host = host(hostName);
+        if (!host.permits.tryAcquire() && !reclaim(host, hostName, pool)) {
+            await(host, hostName, pool);
+        }
+        holders.put(client, host);
+    }
+
+    /**
+     * Hands a permit to a connection only when one is free right away, for connections opened ahead
+     * of use, which should neither wait nor close the connections of others
+     * @param client the connection about to be opened
+     * @param hostName the host
+     * @return whether the connection holds a permit
+     */
+    public boolean tryAcquire(FTPClient client, String hostName) {
+        Host host = host(hostName);
+        if (!host.permits.tryAcquire()) {
+            return false;
+        }
+        holders.put(client, host);
+        return true;
+    }
+
+    /**
+     * Gives back the permit held by a connection, if it holds one
+     */
+    public void release(FTPClient client) {
+        Host host = holders.remove(client);
+        if (host != null) {
+            host.permits.release();
+        }
+    }
+
+    private void await(Host host, String hostName, FtpSessionPool pool) {
+        HostMetrics metrics = this.metrics.host(hostName);
+        if (host.queued.incrementAndGet() > maxQueued) {
+            host.queued.decrementAndGet();
+            throw new FtpLiteHostException("Too many operations waiting for a session to " + hostName);
+        }
+        metrics.queueEntered();
+        try (PhaseTimer timer = metrics.start("session.queue")) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new FtpLiteHostException("Timed out waiting for a session to " + hostName);
+                }
+                long wait = pool == null ? remaining : Math.min(remaining, RECLAIM_INTERVAL);
+                if (host.permits.tryAcquire(wait, TimeUnit.MILLISECONDS) || reclaim(host, hostName, pool)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FtpLiteHostException("Interrupted while waiting for a session to " + hostName);
+        } finally {
+            host.queued.decrementAndGet();
+            metrics.queueLeft();
+        }
+    }
+
+    /**
+     * Closes an idle pooled connection to the host, which gives back its permit, and takes that
+     * permit unless another connection was quicker
+     */
+    private boolean reclaim(Host host, String hostName, FtpSessionPool pool) {
+        return pool != null && pool.closeIdle(hostName) && host.permits.tryAcquire();
+    }
+
+    private synchronized Host host(String hostName) {
+        return hosts.computeIfAbsent(hostName.toLowerCase(Locale.ROOT), key -> new Host(maxSessions));
+    }
+
+    private static final class Host {
+
+        private final Semaphore permits;
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private Host(int maxSessions) {
+            this.permits = new Semaphore(maxSessions, true);
+        }
+    }
+}
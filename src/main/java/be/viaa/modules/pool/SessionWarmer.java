@@ -0,0 +1,125 @@
+package be.viaa.modules.pool;
+
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import be.viaa.modules.cache.HostAddressCache;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connects to the configured endpoints in the background when the connector starts, so the first
+ * operation against them does not pay for the lookup, connect and login. Hosts are resolved into
+ * the address cache; endpoints with credentials get warm sessions in the pool.
+ *
+ * @author VIAA vzw
+ */
+public class SessionWarmer implements Runnable {
+
+    private static final Logger LOGGER = LogManager.getLogger(SessionWarmer.class);
+
+    private static final String STANDARD_FTP_PORT = "21";
+
+    private final FtpLiteConnectorConfig config;
+
+    private final List<Endpoint> endpoints;
+
+    private SessionWarmer(FtpLiteConnectorConfig config, List<Endpoint> endpoints) {
+        this.config = config;
+        this.endpoints = endpoints;
+    }
+
+    /**
+     * Starts warming the configured endpoints on a background thread
+     * @param config the configuration holding the endpoints
+     */
+    public static void start(FtpLiteConnectorConfig config) {
+        List<String> configured = config.getPrewarmEndpoints();
+        if (configured == null || configured.isEmpty()) {
+            return;
+        }
+        List<Endpoint> endpoints = new ArrayList<>(configured.size());
+        for (String endpoint : configured) {
+            endpoints.add(Endpoint.parse(endpoint.trim()));
+        }
+        Thread thread = new Thread(new SessionWarmer(config, endpoints), "ftplite-prewarm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        for (Endpoint endpoint : endpoints) {
+            try {
+                resolve(endpoint.host);
+                if (endpoint.user == null) {
+                    continue;
+                }
+                FtpSessionPool pool = config.getSessionPool();
+                if (pool == null) {
+                    LOGGER.info("Not keeping sessions to " + endpoint.host + " open, pooling is disabled");
+                    continue;
+                }
+                pool.keepWarm(FtpUtils.sessionKey(endpoint.user, endpoint.host, endpoint.port, endpoint.password),
+                        // Warm sessions only take connections that are free, they do not wait for nor close others
+                        () -> FtpUtils.createSession(config, endpoint.user, endpoint.host, endpoint.port, endpoint.password, false),
+                        config.getPrewarmSessions());
+            } catch (UnknownHostException | RuntimeException e) {
+                LOGGER.warn("Could not warm up " + endpoint.host + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void resolve(String host) throws UnknownHostException {
+        HostAddressCache addresses = config.getHostAddressCache();
+        if (addresses != null) {
+            addresses.resolve(host);
+        } else {
+            InetAddress.getByName(host);
+        }
+    }
+
+    private static final class Endpoint {
+
+        private final String user;
+
+        private final String password;
+
+        private final String host;
+
+        private final String port;
+
+        private Endpoint(String user, String password, String host, String port) {
+            this.user = user;
+            this.password = password;
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Parses user:password@host:port, where the credentials and the port are optional.
+         * The password may contain ':' and '@', the host ends at the last '@'.
+         */
+        private static Endpoint parse(String endpoint) {
+            int at = endpoint.lastIndexOf('@');
+            String address = endpoint.substring(at + 1);
+            String user = null;
+            String password = null;
+            if (at >= 0) {
+                String credentials = endpoint.substring(0, at);
+                int colon = credentials.indexOf(':');
+                user = colon < 0 ? credentials : credentials.substring(0, colon);
+                password = colon < 0 ? "" : credentials.substring(colon + 1);
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                return new Endpoint(user, password, address, STANDARD_FTP_PORT);
+            }
+            return new Endpoint(user, password, address.substring(0, colon), address.substring(colon + 1));
+        }
+    }
+}
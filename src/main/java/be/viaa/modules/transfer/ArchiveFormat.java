@@ -0,0 +1,19 @@
+package be.viaa.modules.transfer;
+
+/**
+ * The format of an archive of a folder
+ *
+ * @author VIAA vzw
+ */
+public enum ArchiveFormat {
+
+    /**
+     * Deflated zip archive
+     */
+    ZIP,
+
+    /**
+     * Uncompressed tar archive in the ustar format
+     */
+    TAR
+}
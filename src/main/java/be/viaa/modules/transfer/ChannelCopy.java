@@ -0,0 +1,73 @@
+package be.viaa.modules.transfer;
+
+import be.viaa.modules.pool.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies between the data connection and a local file through a FileChannel. commons-net only
+ * offers the data connection as a stream, so the bytes pass through an array on that side; when
+ * the pool hands out direct buffers, the file side goes through one, so the channel does not copy
+ * into one of its own. Both are taken from the pool and given back after the copy.
+ *
+ * @author VIAA vzw
+ */
+public final class ChannelCopy {
+
+    private ChannelCopy() {
+    }
+
+    /**
+     * Copies a stream into a file channel, from the channel's position
+     * @return the number of bytes copied
+     */
+    public static long copy(InputStream in, FileChannel out, BufferPool pool) throws IOException {
+        try (BufferPool.Buffer buffer = pool.acquire()) {
+            byte[] array = buffer.array();
+            ByteBuffer bytes = buffer.byteBuffer();
+            long copied = 0;
+            int read;
+            while ((read = in.read(array)) != -1) {
+                if (bytes.hasArray()) {
+                    bytes.limit(read).position(0);
+                } else {
+                    bytes.clear();
+                    bytes.put(array, 0, read);
+                    bytes.flip();
+                }
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                copied += read;
+            }
+            return copied;
+        }
+    }
+
+    /**
+     * Copies a file channel, from its position, into a stream
+     * @return the number of bytes copied
+     */
+    public static long copy(FileChannel in, OutputStream out, BufferPool pool) throws IOException {
+        try (BufferPool.Buffer buffer = pool.acquire()) {
+            byte[] array = buffer.array();
+            ByteBuffer bytes = buffer.byteBuffer();
+            long copied = 0;
+            while (in.read(bytes) != -1) {
+                bytes.flip();
+                int count = bytes.remaining();
+                if (!bytes.hasArray()) {
+                    bytes.get(array, 0, count);
+                }
+                out.write(array, 0, count);
+                copied += count;
+                bytes.clear();
+            }
+            return copied;
+        }
+    }
+}
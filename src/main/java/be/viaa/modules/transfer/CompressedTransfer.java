@@ -0,0 +1,143 @@
+package be.viaa.modules.transfer;
+
+import be.viaa.modules.utils.GzipCompressingInputStream;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses the content of a single transfer. The data connection is deflated with MODE Z
+ * once the server agreed to it in {@link #begin(FTPClient)}, the file is gzipped or gunzipped
+ * by the client in {@link #encode(InputStream)} and {@link #decode(InputStream)}. Compressed
+ * transfers are binary.
+ *
+ * @author VIAA vzw
+ */
+public class CompressedTransfer {
+
+    private static final Logger LOGGER = LogManager.getLogger(CompressedTransfer.class);
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Compression compression;
+
+    private final int level;
+
+    private boolean modeZ;
+
+    private CompressedTransfer(Compression compression, int level) {
+        this.compression = compression;
+        this.level = level;
+    }
+
+    /**
+     * @param compression the compression to use, or null
+     * @param level the compression level, from 0 to 9
+     * @return the compressed transfer, or null when the content is transferred as is
+     */
+    public static CompressedTransfer of(Compression compression, int level) {
+        if (compression == null || compression == Compression.NONE) {
+            return null;
+        }
+        return new CompressedTransfer(compression, Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level)));
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Prepares the session for the transfer: switches to binary, and to MODE Z when it was asked
+     * for and the server advertises it. Stream mode is kept when the server does not support it.
+     * @param client the session the file is transferred over
+     * @throws IOException when the server refuses binary mode
+     */
+    public void begin(FTPClient client) throws IOException {
+        if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+            throw new IOException("Server refused the transfer type. " + client.getReplyString());
+        }
+        if (compression != Compression.MODE_Z) {
+            return;
+        }
+        if (!client.hasFeature("MODE", "Z")) {
+            LOGGER.debug("Server does not advertise MODE Z, transferring in stream mode");
+            return;
+        }
+        modeZ = FTPReply.isPositiveCompletion(client.sendCommand("MODE", "Z"));
+        if (modeZ) {
+            // Only a hint for what the server sends, servers that do not know it keep their own level
+            client.sendCommand("OPTS", "MODE Z LEVEL " + level);
+        } else {
+            LOGGER.debug("Server refused MODE Z, transferring in stream mode. " + client.getReplyString());
+        }
+    }
+
+    /**
+     * @return whether the data connection is deflated
+     */
+    public boolean isModeZ() {
+        return modeZ;
+    }
+
+    /**
+     * Wraps the stream of a data connection a file is read from
+     */
+    public InputStream wrap(InputStream data) {
+        return modeZ ? new InflaterInputStream(data) : data;
+    }
+
+    /**
+     * Wraps the stream of a data connection a file is written to. Closing the returned stream finishes it.
+     */
+    public OutputStream wrap(OutputStream data) {
+        if (!modeZ) {
+            return data;
+        }
+        return new DeflaterOutputStream(data, new Deflater(level), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Compresses the content to upload when the file is stored gzipped
+     */
+    public InputStream encode(InputStream content) {
+        return compression == Compression.GZIP ? new GzipCompressingInputStream(content, level, BUFFER_SIZE) : content;
+    }
+
+    /**
+     * Decompresses the downloaded content when the file is stored gzipped
+     * @throws IOException when the content does not start with a gzip header
+     */
+    public InputStream decode(InputStream content) throws IOException {
+        return compression == Compression.GZIP ? new GZIPInputStream(content, BUFFER_SIZE) : content;
+    }
+
+    /**
+     * Switches the session back to stream mode after the transfer
+     * @param client the session the file was transferred over
+     */
+    public void end(FTPClient client) throws IOException {
+        if (modeZ) {
+            client.sendCommand("MODE", "S");
+            modeZ = false;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package be.viaa.modules.transfer;
+
+/**
+ * How the content of a file is compressed while it is transferred
+ *
+ * @author VIAA vzw
+ */
+public enum Compression {
+
+    /**
+     * The content is transferred as is
+     */
+    NONE,
+
+    /**
+     * The data connection is deflated with MODE Z when the server advertises it in FEAT,
+     * the file itself is stored as is. Falls back to stream mode otherwise.
+     */
+    MODE_Z,
+
+    /**
+     * Uploads are gzipped by the client and stored compressed, downloads are gunzipped by the client
+     */
+    GZIP
+}
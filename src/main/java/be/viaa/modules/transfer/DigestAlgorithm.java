@@ -0,0 +1,48 @@
+package be.viaa.modules.transfer;
+
+/**
+ * The algorithms a transfer can be checksummed with, with the names servers know them by
+ *
+ * @author VIAA vzw
+ */
+public enum DigestAlgorithm {
+
+    MD5("MD5", "XMD5", 32),
+
+    SHA_256("SHA-256", "XSHA256", 64),
+
+    CRC32("CRC32", "XCRC", 8);
+
+    /**
+     * The name in the HASH feature, which is also the name of the JCA MessageDigest
+     */
+    private final String hashName;
+
+    /**
+     * The command of servers that offer this algorithm outside of HASH
+     */
+    private final String command;
+
+    /**
+     * The number of hexadecimal digits of a checksum
+     */
+    private final int length;
+
+    DigestAlgorithm(String hashName, String command, int length) {
+        this.hashName = hashName;
+        this.command = command;
+        this.length = length;
+    }
+
+    public String getHashName() {
+        return hashName;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,381 @@
+package be.viaa.modules.transfer;
+
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.metrics.FtpMetrics;
+import be.viaa.modules.pool.BufferPool;
+import be.viaa.modules.utils.BlockingPipe;
+import be.viaa.modules.utils.TarOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the files of a remote folder as a single zip or tar archive. An operation on the connector's
+ * executor fetches the files one after the other and writes them into the archive, which flows to the
+ * reader through a bounded pipe, so memory does not grow with the folder. When the reader stops
+ * reading for the data timeout, or the host queue timeout without one, the writer gives up and
+ * releases its sessions. With prefetch, upcoming files are
+ * downloaded into temporary files over extra sessions while the current one is written.
+ *
+ * A tar header holds the size of its file and precedes the data, so a file streamed straight into a
+ * tar archive is sized with SIZE just before it is retrieved. When it still changes in between, its
+ * entry is padded with zeros or cut off at that size, and a warning is logged, rather than failing
+ * an archive the reader is already consuming.
+ *
+ * @author VIAA vzw
+ */
+public class FolderArchive {
+
+    private static final Logger LOGGER = LogManager.getLogger(FolderArchive.class);
+
+    /**
+     * The number of full buffers the archive runs ahead of the reader
+     */
+    private static final int PIPE_CAPACITY = 4;
+
+    private final FtpLiteConnectorConfig config;
+
+    private final String userName;
+
+    private final String hostName;
+
+    private final String port;
+
+    private final String password;
+
+    public FolderArchive(FtpLiteConnectorConfig config, String userName, String hostName, String port, String password) {
+        this.config = config;
+        this.userName = userName;
+        this.hostName = hostName;
+        this.port = port;
+        this.password = password;
+    }
+
+    /**
+     * Lists a folder and starts writing its archive
+     * @param path the folder, the home folder when null
+     * @param format the format of the archive
+     * @param recursive whether the files of subfolders are included
+     * @param prefetch the number of files downloaded ahead over extra sessions, 0 fetches them one by one over one session
+     * @return the archive, failing with an IOException when a file could not be fetched
+     */
+    public InputStream open(String path, ArchiveFormat format, boolean recursive, int prefetch) {
+        FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+        List<Entry> entries;
+        try {
+            entries = walk(client, path, recursive);
+            if (prefetch > 0) {
+                FtpUtils.closeSession(config, client);
+                client = null;
+            } else if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+                throw new FtpLiteException("Could not switch to binary mode. " + client.getReplyString());
+            }
+        } catch (IOException | RuntimeException e) {
+            if (client != null) {
+                FtpUtils.closeSession(config, client);
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new FtpLiteException("There was an error fetching files from SFTP");
+        }
+        // A reader that drops the archive without closing it would otherwise keep the writer and its sessions forever
+        long stallTimeout = config.getDataTimeout() > 0 ? config.getDataTimeout() : config.getHostQueueTimeout();
+        BlockingPipe pipe = new BlockingPipe(config.getBufferPool(), PIPE_CAPACITY, stallTimeout);
+        FTPClient session = client;
+        try {
+            config.getOperationExecutor().submit(hostName, () -> {
+                write(session, entries, format, prefetch, pipe);
+                return null;
+            }).whenComplete((result, e) -> {
+                // Only when the writer never ran, since it passes on its own failures
+                if (e != null) {
+                    pipe.fail(e);
+                    if (session != null) {
+                        FtpUtils.closeSession(config, session);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            if (session != null) {
+                FtpUtils.closeSession(config, session);
+            }
+            throw e;
+        }
+        return pipe.getSource();
+    }
+
+    private void write(FTPClient client, List<Entry> entries, ArchiveFormat format, int prefetch, BlockingPipe pipe) {
+        ExecutorService executor = prefetch > 0 ? Executors.newFixedThreadPool(prefetch, runnable -> {
+            Thread thread = new Thread(runnable, "ftplite-prefetch-" + hostName);
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        Deque<Future<File>> fetched = new ArrayDeque<>();
+        long start = System.nanoTime();
+        boolean complete = false;
+        try {
+            OutputStream sink = pipe.getSink();
+            ZipOutputStream zip = format == ArchiveFormat.ZIP ? new ZipOutputStream(sink) : null;
+            TarOutputStream tar = format == ArchiveFormat.TAR ? new TarOutputStream(sink) : null;
+            int next = 0;
+            for (Entry entry : entries) {
+                if (entry.directory) {
+                    begin(zip, tar, entry, 0);
+                    end(zip, tar);
+                    continue;
+                }
+                if (executor == null) {
+                    copyRemote(client, entry, zip, tar);
+                    continue;
+                }
+                while (next < entries.size() && fetched.size() < prefetch) {
+                    Entry ahead = entries.get(next++);
+                    if (!ahead.directory) {
+                        fetched.add(executor.submit(() -> fetch(ahead)));
+                    }
+                }
+                File file = fetched.poll().get();
+                try (InputStream in = new FileInputStream(file)) {
+                    begin(zip, tar, entry, file.length());
+                    copy(in, zip != null ? zip : tar);
+                    end(zip, tar);
+                } finally {
+                    file.delete();
+                }
+            }
+            if (zip != null) {
+                zip.finish();
+            } else {
+                tar.finish();
+            }
+            sink.close();
+            complete = true;
+            config.getMetrics().host(hostName).time("transfer.archive", start);
+        } catch (ExecutionException e) {
+            pipe.fail(e.getCause());
+        } catch (Throwable e) {
+            // Anything not passed on leaves the reader waiting for the rest of the archive
+            pipe.fail(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                for (Future<File> future : fetched) {
+                    discard(future);
+                }
+            }
+            if (client != null) {
+                if (complete) {
+                    FtpUtils.closeSession(config, client);
+                } else {
+                    FtpUtils.invalidateSession(config, client);
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams a file straight from the data connection into the archive
+     */
+    private void copyRemote(FTPClient client, Entry entry, ZipOutputStream zip, TarOutputStream tar) throws IOException {
+        long start = System.nanoTime();
+        long size = entry.size;
+        if (tar != null) {
+            long current = FtpUtils.getRemoteSize(client, entry.fullPath);
+            size = current < 0 ? size : current;
+        }
+        InputStream in = client.retrieveFileStream(entry.fullPath);
+        if (in == null) {
+            throw new IOException("Error retrieving " + entry.fullPath + ". " + client.getReplyString());
+        }
+        long bytes;
+        boolean truncated = false;
+        try (InputStream data = in) {
+            begin(zip, tar, entry, size);
+            if (zip != null) {
+                bytes = copy(data, zip);
+            } else {
+                bytes = copy(data, tar, size);
+                truncated = bytes == size && data.read() != -1;
+                if (truncated || bytes < size) {
+                    LOGGER.warn(entry.fullPath + " changed while it was archived, its tar entry is "
+                            + (truncated ? "cut off" : "padded with zeros") + " at " + size + " bytes");
+                    zeros(tar, size - bytes);
+                }
+            }
+            end(zip, tar);
+        }
+        if (!(truncated ? FtpUtils.abortTransfer(client) : client.completePendingCommand())) {
+            throw new IOException("Transfer of " + entry.fullPath + " failed. " + client.getReplyString());
+        }
+        FtpMetrics.of(client).received(bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Downloads a file into a temporary file over a session of its own
+     */
+    private File fetch(Entry entry) throws IOException {
+        File target = File.createTempFile("ftplite-", ".archive");
+        FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+        try {
+            if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+                throw new FtpLiteException("Could not switch to binary mode. " + client.getReplyString());
+            }
+            FtpUtils.downloadToFile(client, entry.folder, entry.name, target, config.getFileBufferPool());
+            return target;
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        } finally {
+            FtpUtils.closeSession(config, client);
+        }
+    }
+
+    private static void begin(ZipOutputStream zip, TarOutputStream tar, Entry entry, long size) throws IOException {
+        String name = entry.directory ? entry.relative + "/" : entry.relative;
+        if (zip != null) {
+            ZipEntry zipEntry = new ZipEntry(name);
+            if (entry.modified != null) {
+                zipEntry.setTime(entry.modified);
+            }
+            zip.putNextEntry(zipEntry);
+        } else {
+            tar.putNextEntry(name, size, entry.modified == null ? System.currentTimeMillis() : entry.modified, entry.directory);
+        }
+    }
+
+    private static void end(ZipOutputStream zip, TarOutputStream tar) throws IOException {
+        if (zip != null) {
+            zip.closeEntry();
+        } else {
+            tar.closeEntry();
+        }
+    }
+
+    private long copy(InputStream in, OutputStream out) throws IOException {
+        try (BufferPool.Buffer buffer = config.getBufferPool().acquire()) {
+            byte[] array = buffer.array();
+            long bytes = 0;
+            int read;
+            while ((read = in.read(array)) != -1) {
+                out.write(array, 0, read);
+                bytes += read;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Copies at most limit bytes
+     */
+    private long copy(InputStream in, OutputStream out, long limit) throws IOException {
+        try (BufferPool.Buffer buffer = config.getBufferPool().acquire()) {
+            return IOUtils.copyLarge(in, out, 0, limit, buffer.array());
+        }
+    }
+
+    private static void zeros(OutputStream out, long count) throws IOException {
+        byte[] zeros = new byte[(int) Math.min(count, 8192)];
+        while (count > 0) {
+            int length = (int) Math.min(count, zeros.length);
+            out.write(zeros, 0, length);
+            count -= length;
+        }
+    }
+
+    private static void discard(Future<File> future) {
+        try {
+            future.get().delete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.debug("Prefetch of an archive entry failed", e.getCause());
+        }
+    }
+
+    /**
+     * Lists the entries of the archive, folders before their contents
+     */
+    private static List<Entry> walk(FTPClient client, String path, boolean recursive) throws IOException {
+        String root = path == null || path.isEmpty() ? client.printWorkingDirectory() : path;
+        if (root == null) {
+            throw new FtpLiteException("Could not look up the home folder. " + client.getReplyString());
+        }
+        List<Entry> entries = new ArrayList<>();
+        Deque<String> folders = new ArrayDeque<>();
+        folders.add("");
+        while (!folders.isEmpty()) {
+            String folder = folders.poll();
+            String folderPath = join(root, folder);
+            for (FTPFile file : FtpUtils.listFiles(client, folderPath)) {
+                if (file == null || ".".equals(file.getName()) || "..".equals(file.getName())) {
+                    continue;
+                }
+                String relative = folder.isEmpty() ? file.getName() : folder + "/" + file.getName();
+                Long modified = file.getTimestamp() == null ? null : file.getTimestamp().getTimeInMillis();
+                if (file.isDirectory() && recursive) {
+                    entries.add(new Entry(relative, folderPath, file.getName(), 0, modified, true));
+                    folders.add(relative);
+                } else if (file.isFile()) {
+                    entries.add(new Entry(relative, folderPath, file.getName(), file.getSize(), modified, false));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static String join(String folder, String relative) {
+        if (relative.isEmpty()) {
+            return folder;
+        }
+        return folder.endsWith("/") ? folder + relative : folder + "/" + relative;
+    }
+
+    private static final class Entry {
+
+        private final String relative;
+
+        private final String folder;
+
+        private final String name;
+
+        private final String fullPath;
+
+        private final long size;
+
+        private final Long modified;
+
+        private final boolean directory;
+
+        private Entry(String relative, String folder, String name, long size, Long modified, boolean directory) {
+            this.relative = relative;
+            this.folder = folder;
+            this.name = name;
+            this.fullPath = join(folder, name);
+            this.size = size;
+            this.modified = modified;
+            this.directory = directory;
+        }
+    }
+}
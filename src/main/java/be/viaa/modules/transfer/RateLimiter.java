@@ -0,0 +1,54 @@
+package be.viaa.modules.transfer;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which bytes flow, shared by every stream it is given to. Up to one second
+ * worth of bytes can be taken at once; beyond that callers sleep until the rate catches up.
+ *
+ * @author VIAA vzw
+ */
+public class RateLimiter {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+
+    private double available;
+
+    private long updated = System.nanoTime();
+
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = bytesPerSecond;
+    }
+
+    /**
+     * Takes bytes from the budget, waiting when the budget is spent
+     * @param bytes the number of bytes about to be transferred
+     * @throws InterruptedIOException when interrupted while waiting
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(bytesPerSecond, available + (now - updated) * (double) bytesPerSecond / SECOND);
+            updated = now;
+            available -= bytes;
+            wait = available < 0 ? (long) (-available * SECOND / bytesPerSecond) : 0;
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the transfer rate limit");
+            }
+        }
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
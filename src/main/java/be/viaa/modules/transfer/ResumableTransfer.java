@@ -0,0 +1,192 @@
+package be.viaa.modules.transfer;
+
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.metrics.FtpMetrics;
+import be.viaa.modules.pool.BufferPool;
+import be.viaa.modules.utils.ReplayInputStream;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transfers a file over a session and, when the transfer breaks, reconnects and continues
+ * from where it stopped instead of starting over, up to the configured number of retries.
+ *
+ * Downloads continue with REST from the number of bytes already delivered. Uploads ask the
+ * server how much it received with SIZE and continue from there with REST and STOR, or with
+ * APPE when the server does not advertise REST STREAM. Since the content of an upload can
+ * only be read once, an upload can only be resumed when the bytes the server is missing are
+ * still within the last resumeBufferSize bytes read.
+ *
+ * Resumable transfers are always binary, since restart offsets and sizes are only
+ * meaningful for binary transfers.
+ *
+ * @author VIAA vzw
+ */
+public class ResumableTransfer {
+
+    private static final Logger LOGGER = LogManager.getLogger(ResumableTransfer.class);
+
+    private final FtpLiteConnectorConfig config;
+
+    private final String userName;
+
+    private final String hostName;
+
+    private final String port;
+
+    private final String password;
+
+    private FTPClient client;
+
+    public ResumableTransfer(FtpLiteConnectorConfig config, String userName, String hostName, String port,
+                             String password, FTPClient client) {
+        this.config = config;
+        this.userName = userName;
+        this.hostName = hostName;
+        this.port = port;
+        this.password = password;
+        this.client = client;
+    }
+
+    /**
+     * @return the session currently used, which changes when the transfer had to reconnect
+     */
+    public FTPClient getClient() {
+        return client;
+    }
+
+    /**
+     * Uploads a file
+     * @param fullPath the full path of the remote file
+     * @param content the content of the file
+     * @return false, without reading any content, when the server refuses the STOR
+     * @throws IOException when the upload failed and could not be resumed
+     */
+    public boolean upload(String fullPath, InputStream content) throws IOException {
+        ReplayInputStream source = new ReplayInputStream(content, config.getResumeBufferSize());
+        long start = System.nanoTime();
+        long offset = 0;
+        int attempt = 0;
+        while (true) {
+            try {
+                client.setFileType(FTP.BINARY_FILE_TYPE);
+                OutputStream out;
+                if (offset == 0) {
+                    out = client.storeFileStream(fullPath);
+                } else if (client.hasFeature("REST", "STREAM")) {
+                    client.setRestartOffset(offset);
+                    out = client.storeFileStream(fullPath);
+                } else {
+                    out = client.appendFileStream(fullPath);
+                }
+                if (out == null) {
+                    if (offset == 0 && attempt == 0) {
+                        return false;
+                    }
+                    throw new IOException("Could not resume upload of " + fullPath + ". " + client.getReplyString());
+                }
+                try {
+                    copy(source, out);
+                } finally {
+                    out.close();
+                }
+                if (!client.completePendingCommand()) {
+                    throw new IOException("Transfer of " + fullPath + " failed. " + client.getReplyString());
+                }
+                FtpMetrics.of(client).sent(source.getPosition(), System.nanoTime() - start);
+                FtpMetrics.of(client).time("transfer.upload", start);
+                return true;
+            } catch (IOException e) {
+                retryOrThrow(++attempt, fullPath, e);
+                long remoteSize = Math.max(0, FtpUtils.getRemoteSize(client, fullPath));
+                if (!source.rewindTo(remoteSize)) {
+                    FtpUtils.disconnect(client);
+                    throw new IOException("Could not resume upload of " + fullPath + " at " + remoteSize
+                            + ", the content from there on is no longer available", e);
+                }
+                offset = remoteSize;
+            }
+        }
+    }
+
+    /**
+     * Downloads a file
+     * @param fullPath the full path of the remote file
+     * @param out the stream to write the content to
+     * @return false, without writing anything, when the server refuses the RETR
+     * @throws IOException when the download failed and could not be resumed
+     */
+    public boolean download(String fullPath, OutputStream out) throws IOException {
+        long delivered = 0;
+        int attempt = 0;
+        while (true) {
+            try {
+                client.setFileType(FTP.BINARY_FILE_TYPE);
+                client.setRestartOffset(delivered);
+                InputStream in = client.retrieveFileStream(fullPath);
+                if (in == null) {
+                    if (delivered == 0 && attempt == 0) {
+                        return false;
+                    }
+                    throw new IOException("Could not resume download of " + fullPath + ". " + client.getReplyString());
+                }
+                try (BufferPool.Buffer buffer = BufferPool.of(client).acquire()) {
+                    byte[] array = buffer.array();
+                    int read;
+                    while ((read = in.read(array)) != -1) {
+                        out.write(array, 0, read);
+                        delivered += read;
+                    }
+                } finally {
+                    in.close();
+                }
+                if (!client.completePendingCommand()) {
+                    throw new IOException("Transfer of " + fullPath + " failed. " + client.getReplyString());
+                }
+                return true;
+            } catch (IOException e) {
+                retryOrThrow(++attempt, fullPath, e);
+            }
+        }
+    }
+
+    /**
+     * Throws the failure when all retries are used up, otherwise waits and replaces the session
+     */
+    private void retryOrThrow(int attempt, String fullPath, IOException e) throws IOException {
+        if (attempt > config.getTransferRetries()) {
+            throw e;
+        }
+        LOGGER.warn("Transfer of " + fullPath + " on " + hostName + " broke, resuming (attempt " + attempt + "). " + e);
+        try {
+            FtpUtils.invalidateSession(config, client);
+        } catch (FtpLiteException error) {
+            LOGGER.debug("Error closing broken session", error);
+        }
+        try {
+            Thread.sleep(config.getTransferRetryDelay());
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        client = FtpUtils.openSession(config, userName, hostName, port, password);
+    }
+
+    private void copy(InputStream in, OutputStream out) throws IOException {
+        try (BufferPool.Buffer buffer = BufferPool.of(client).acquire()) {
+            byte[] array = buffer.array();
+            int read;
+            while ((read = in.read(array)) != -1) {
+                out.write(array, 0, read);
+            }
+        }
+    }
+}
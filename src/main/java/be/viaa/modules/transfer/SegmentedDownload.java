@@ -0,0 +1,183 @@
+package be.viaa.modules.transfer;
+
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.metrics.FtpMetrics;
+import be.viaa.modules.pool.BufferPool;
+import be.viaa.modules.utils.TempFileInputStream;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file over several sessions at once. The file is split into contiguous segments;
+ * each segment is read by its own session, starting at its offset with REST, and written at
+ * that offset in the local file.
+ *
+ * Segments are always transferred in binary mode, since restart offsets are only meaningful
+ * for binary transfers.
+ *
+ * @author VIAA vzw
+ */
+public class SegmentedDownload {
+
+    private static final Logger LOGGER = LogManager.getLogger(SegmentedDownload.class);
+
+    private final FtpLiteConnectorConfig config;
+
+    private final String userName;
+
+    private final String hostName;
+
+    private final String port;
+
+    private final String password;
+
+    public SegmentedDownload(FtpLiteConnectorConfig config, String userName, String hostName, String port, String password) {
+        this.config = config;
+        this.userName = userName;
+        this.hostName = hostName;
+        this.port = port;
+        this.password = password;
+    }
+
+    /**
+     * Returns whether a file is large enough to be downloaded in segments
+     * @param config the connector configuration
+     * @param size the size of the file
+     * @return true if the configuration allows more than one segment for this size
+     */
+    public static boolean appliesTo(FtpLiteConnectorConfig config, long size) {
+        return config.getSegmentCount() > 1 && size >= config.getSegmentThreshold() && segments(config, size) > 1;
+    }
+
+    /**
+     * Downloads a file into a temporary file and returns a stream over it. The temporary file is
+     * deleted once the stream is fully read or closed.
+     * @param fullPath the full path of the remote file
+     * @param size the size of the remote file
+     * @return a stream over the downloaded file
+     */
+    public InputStream open(String fullPath, long size) {
+        File target = null;
+        try {
+            target = File.createTempFile("ftplite-", ".part");
+            download(fullPath, size, target);
+            return new TempFileInputStream(target);
+        } catch (IOException | RuntimeException e) {
+            if (target != null) {
+                target.delete();
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new FtpLiteException("Error creating temporary file for " + fullPath + ". " + e);
+        }
+    }
+
+    /**
+     * Downloads a file into a local file
+     * @param fullPath the full path of the remote file
+     * @param size the size of the remote file
+     * @param target the local file to write to, overwritten if it exists
+     */
+    public void download(String fullPath, long size, File target) {
+        int segments = segments(config, size);
+        long segmentLength = (size + segments - 1) / segments;
+        ExecutorService executor = Executors.newFixedThreadPool(segments, runnable -> {
+            Thread thread = new Thread(runnable, "ftplite-segment-" + hostName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+            List<Future<?>> futures = new ArrayList<>(segments);
+            for (int i = 0; i < segments; i++) {
+                long offset = i * segmentLength;
+                long length = Math.min(segmentLength, size - offset);
+                futures.add(executor.submit(() -> {
+                    downloadSegment(fullPath, offset, length, channel);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new FtpLiteException("Error retrieving file segment from SFTP. " + cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FtpLiteException("Interrupted while retrieving file segments from SFTP");
+        } catch (IOException e) {
+            throw new FtpLiteException("Error writing file segments to " + target + ". " + e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void downloadSegment(String fullPath, long offset, long length, FileChannel channel) throws IOException {
+        // Sessions are not pooled, since a segment that stops before the end of the file leaves the session mid-transfer
+        FTPClient client = FtpUtils.createSession(config, userName, hostName, port, password);
+        long start = System.nanoTime();
+        try {
+            client.setFileType(FTP.BINARY_FILE_TYPE);
+            client.setRestartOffset(offset);
+            InputStream in = client.retrieveFileStream(fullPath);
+            if (in == null) {
+                throw new FtpLiteException("Error retrieving file segment from SFTP. " + client.getReplyString());
+            }
+            try (BufferPool.Buffer pooled = BufferPool.of(client).acquire()) {
+                ByteBuffer buffer = ByteBuffer.wrap(pooled.array());
+                long position = offset;
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), remaining));
+                    if (read == -1) {
+                        throw new FtpLiteException("File ended before the end of the segment at " + position);
+                    }
+                    buffer.limit(read);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                    remaining -= read;
+                }
+            } finally {
+                in.close();
+            }
+            FtpMetrics.of(client).received(length, System.nanoTime() - start);
+            FtpMetrics.of(client).time("transfer.segment", start);
+        } finally {
+            try {
+                client.disconnect();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing segment session", e);
+            }
+        }
+    }
+
+    private static int segments(FtpLiteConnectorConfig config, long size) {
+        long segmentSize = Math.max(1, config.getSegmentSize());
+        return (int) Math.max(1, Math.min(config.getSegmentCount(), (size + segmentSize - 1) / segmentSize));
+    }
+}
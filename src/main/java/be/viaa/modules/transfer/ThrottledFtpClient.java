@@ -0,0 +1,125 @@
+package be.viaa.modules.transfer;
+
+import be.viaa.modules.metrics.HostMetrics;
+import be.viaa.modules.metrics.MeteredFtpClient;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Metered FTP client whose data transfers are held to the rate limits of its host and user.
+ * Only file contents are limited, listings and commands are not.
+ *
+ * @author VIAA vzw
+ */
+public class ThrottledFtpClient extends MeteredFtpClient {
+
+    /**
+     * The most bytes passed on at once, so limited transfers flow evenly instead of in bursts
+     */
+    private static final int CHUNK_SIZE = 16384;
+
+    private final List<RateLimiter> limiters;
+
+    public ThrottledFtpClient(HostMetrics metrics, List<RateLimiter> limiters) {
+        super(metrics);
+        this.limiters = limiters;
+    }
+
+    @Override
+    public InputStream retrieveFileStream(String remote) throws IOException {
+        InputStream stream = super.retrieveFileStream(remote);
+        return stream == null ? null : new ThrottledInputStream(stream);
+    }
+
+    @Override
+    public OutputStream storeFileStream(String remote) throws IOException {
+        OutputStream stream = super.storeFileStream(remote);
+        return stream == null ? null : new ThrottledOutputStream(stream);
+    }
+
+    @Override
+    public OutputStream appendFileStream(String remote) throws IOException {
+        OutputStream stream = super.appendFileStream(remote);
+        return stream == null ? null : new ThrottledOutputStream(stream);
+    }
+
+    @Override
+    public boolean retrieveFile(String remote, OutputStream local) throws IOException {
+        return super.retrieveFile(remote, new ThrottledOutputStream(local));
+    }
+
+    @Override
+    public boolean storeFile(String remote, InputStream local) throws IOException {
+        return super.storeFile(remote, new ThrottledInputStream(local));
+    }
+
+    @Override
+    public boolean appendFile(String remote, InputStream local) throws IOException {
+        return super.appendFile(remote, new ThrottledInputStream(local));
+    }
+
+    private void acquire(int bytes) throws IOException {
+        for (RateLimiter limiter : limiters) {
+            limiter.acquire(bytes);
+        }
+    }
+
+    private final class ThrottledInputStream extends FilterInputStream {
+
+        private ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                acquire(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, Math.min(len, CHUNK_SIZE));
+            if (read > 0) {
+                acquire(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return in.skip(n);
+        }
+    }
+
+    private final class ThrottledOutputStream extends FilterOutputStream {
+
+        private ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, CHUNK_SIZE);
+                acquire(chunk);
+                out.write(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+    }
+}
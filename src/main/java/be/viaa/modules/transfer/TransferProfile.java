@@ -0,0 +1,197 @@
+package be.viaa.modules.transfer;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+
+/**
+ * Transfer and socket settings of a session. Settings that are left null are not changed,
+ * so a profile given to a single operation only overrides what it sets.
+ *
+ * @author VIAA vzw
+ */
+public class TransferProfile {
+
+    /**
+     * Whether files are transferred in binary instead of ASCII mode
+     */
+    private Boolean binary;
+
+    /**
+     * Whether data connections are opened by the client (passive) instead of the server (active)
+     */
+    private Boolean passive;
+
+    /**
+     * The size in bytes of the buffers used to copy data
+     */
+    private Integer bufferSize;
+
+    /**
+     * The send buffer size in bytes of data sockets
+     */
+    private Integer sendBufferSize;
+
+    /**
+     * The receive buffer size in bytes of data sockets
+     */
+    private Integer receiveBufferSize;
+
+    /**
+     * Whether Nagle's algorithm is disabled on the control connection
+     */
+    private Boolean tcpNoDelay;
+
+    /**
+     * The interval in seconds at which NOOPs are sent on the control connection during a transfer
+     */
+    private Integer controlKeepAliveTimeout;
+
+    /**
+     * The time in milliseconds to wait for a connection to the server
+     */
+    private Integer connectTimeout;
+
+    /**
+     * The time in milliseconds to wait for data on the control connection
+     */
+    private Integer controlTimeout;
+
+    /**
+     * The time in milliseconds to wait for data on a data connection
+     */
+    private Integer dataTimeout;
+
+    /**
+     * Applies the settings that can be set before connecting
+     * @param client the session to apply the settings to
+     */
+    public void applyBeforeConnect(FTPClient client) {
+        if (connectTimeout != null) {
+            client.setConnectTimeout(connectTimeout);
+        }
+        if (controlTimeout != null) {
+            client.setDefaultTimeout(controlTimeout);
+        }
+    }
+
+    /**
+     * Applies the settings to a connected and logged in session
+     * @param client the session to apply the settings to
+     * @throws IOException when the server refuses the transfer type or a socket option cannot be set
+     */
+    public void applyTo(FTPClient client) throws IOException {
+        if (binary != null && !client.setFileType(binary ? FTP.BINARY_FILE_TYPE : FTP.ASCII_FILE_TYPE)) {
+            throw new IOException("Server refused the transfer type. " + client.getReplyString());
+        }
+        if (passive != null) {
+            if (passive) {
+                client.enterLocalPassiveMode();
+            } else {
+                client.enterLocalActiveMode();
+            }
+        }
+        if (bufferSize != null) {
+            client.setBufferSize(bufferSize);
+        }
+        if (sendBufferSize != null) {
+            client.setSendDataSocketBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize != null) {
+            client.setReceieveDataSocketBufferSize(receiveBufferSize);
+        }
+        if (tcpNoDelay != null) {
+            client.setTcpNoDelay(tcpNoDelay);
+        }
+        if (controlKeepAliveTimeout != null) {
+            client.setControlKeepAliveTimeout(controlKeepAliveTimeout);
+        }
+        if (controlTimeout != null) {
+            client.setSoTimeout(controlTimeout);
+        }
+        if (dataTimeout != null) {
+            client.setDataTimeout(dataTimeout);
+        }
+    }
+
+    public Boolean getBinary() {
+        return binary;
+    }
+
+    public void setBinary(Boolean binary) {
+        this.binary = binary;
+    }
+
+    public Boolean getPassive() {
+        return passive;
+    }
+
+    public void setPassive(Boolean passive) {
+        this.passive = passive;
+    }
+
+    public Integer getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(Integer bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public Integer getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(Integer sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(Integer receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(Boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public Integer getControlKeepAliveTimeout() {
+        return controlKeepAliveTimeout;
+    }
+
+    public void setControlKeepAliveTimeout(Integer controlKeepAliveTimeout) {
+        this.controlKeepAliveTimeout = controlKeepAliveTimeout;
+    }
+
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Integer getControlTimeout() {
+        return controlTimeout;
+    }
+
+    public void setControlTimeout(Integer controlTimeout) {
+        this.controlTimeout = controlTimeout;
+    }
+
+    public Integer getDataTimeout() {
+        return dataTimeout;
+    }
+
+    public void setDataTimeout(Integer dataTimeout) {
+        this.dataTimeout = dataTimeout;
+    }
+}
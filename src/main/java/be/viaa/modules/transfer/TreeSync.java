@@ -0,0 +1,403 @@
+package be.viaa.modules.transfer;
+
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import be.viaa.modules.cache.FtpDirectoryCache;
+import be.viaa.modules.cache.FtpListingCache;
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.pool.FtpSessionKey;
+import be.viaa.modules.utils.FtpSyncResult;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+
+/**
+ * Synchronises a folder tree between the server and the local file system. Both trees are walked
+ * first, then the files that differ are transferred over a bounded number of sessions at once,
+ * each session taking the next file until none are left. Files whose size and modification time
+ * already match the destination are skipped, so a repeated sync only transfers what changed.
+ *
+ * Transfers are binary, so sizes can be compared. Downloads are written to a temporary file that
+ * is renamed into place, and get the remote modification time. Uploads get the local modification
+ * time through MFMT when the server supports it. Servers that only list with LIST give times to the
+ * minute (to the day for older files), in their own time zone, so the files that might be skipped
+ * are looked up with MDTM, and compared to the precision of the listing when the server does not
+ * answer MDTM either.
+ *
+ * @author VIAA vzw
+ */
+public class TreeSync {
+
+    private static final Logger LOGGER = LogManager.getLogger(TreeSync.class);
+
+    /**
+     * Modification times are compared with second precision, the best MLSD, MDTM and MFMT offer
+     */
+    private static final long TIME_PRECISION = 1000L;
+
+    /**
+     * The precision of the modification times in a LIST listing, which leaves out the seconds
+     */
+    private static final long LIST_PRECISION = 60000L;
+
+    /**
+     * LIST leaves out the time of day for files older than half a year, and gives only their date
+     */
+    private static final long LIST_DATE_AGE = 183L * 24 * 3600000L;
+
+    private static final long LIST_DATE_PRECISION = 24 * 3600000L;
+
+    private static final int DIRECTORY_CACHE_SIZE = 1000;
+
+    private static final long DIRECTORY_CACHE_TTL = 3600000L;
+
+    private final FtpLiteConnectorConfig config;
+
+    private final String userName;
+
+    private final String hostName;
+
+    private final String port;
+
+    private final String password;
+
+    public TreeSync(FtpLiteConnectorConfig config, String userName, String hostName, String port, String password) {
+        this.config = config;
+        this.userName = userName;
+        this.hostName = hostName;
+        this.port = port;
+        this.password = password;
+    }
+
+    /**
+     * Downloads a remote folder tree into a local folder
+     * @param remotePath the remote folder
+     * @param localDirectory the local folder, created when missing
+     * @param concurrency the maximum number of sessions used at once
+     * @return the outcome per file
+     */
+    public FtpSyncResult download(String remotePath, File localDirectory, int concurrency) {
+        String root = absolutePath(remotePath);
+        FtpSyncResult result = new FtpSyncResult();
+        Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        Map<String, RemoteFile> remote = walkRemote(root, relative -> {
+            File local = new File(localDirectory, relative);
+            return local.isFile() ? local.length() : -1;
+        });
+        for (Map.Entry<String, RemoteFile> entry : remote.entrySet()) {
+            String relative = entry.getKey();
+            RemoteFile file = entry.getValue();
+            File local = new File(localDirectory, relative);
+            if (local.isFile() && local.length() == file.size
+                    && (file.modified == null || Math.abs(local.lastModified() - file.modified) < file.precision)) {
+                result.skipped(relative);
+                continue;
+            }
+            tasks.add(new Task(relative, client -> {
+                long bytes = FtpUtils.downloadToFile(client, root, relative, local, config.getFileBufferPool());
+                Long modified = file.precision > TIME_PRECISION ? exactTime(client, join(root, relative), file) : file.modified;
+                if (modified != null) {
+                    local.setLastModified(modified);
+                }
+                result.transferred(relative, bytes);
+            }));
+        }
+        run(tasks, concurrency, result);
+        return result;
+    }
+
+    /**
+     * Uploads a local folder tree into a remote folder
+     * @param localDirectory the local folder
+     * @param remotePath the remote folder, created when missing
+     * @param concurrency the maximum number of sessions used at once
+     * @return the outcome per file
+     */
+    public FtpSyncResult upload(File localDirectory, String remotePath, int concurrency) {
+        if (!localDirectory.isDirectory()) {
+            throw new FtpLiteException("Local folder " + localDirectory + " does not exist");
+        }
+        String root = absolutePath(remotePath);
+        FtpSyncResult result = new FtpSyncResult();
+        Map<String, File> locals = walkLocal(localDirectory);
+        Map<String, RemoteFile> remote = walkRemote(root, relative -> {
+            File local = locals.get(relative);
+            return local == null ? -1 : local.length();
+        });
+        FtpSessionKey key = FtpUtils.sessionKey(userName, hostName, port, password);
+        // Directories created for one file are known to exist for the next ones
+        FtpDirectoryCache cache = config.getDirectoryCache() != null
+                ? config.getDirectoryCache() : new FtpDirectoryCache(DIRECTORY_CACHE_SIZE, DIRECTORY_CACHE_TTL);
+        Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        for (Map.Entry<String, File> entry : locals.entrySet()) {
+            String relative = entry.getKey();
+            File local = entry.getValue();
+            RemoteFile file = remote.get(relative);
+            if (file != null && file.size == local.length() && file.modified != null
+                    && file.modified + file.precision > local.lastModified()) {
+                // Without MFMT the remote time is the upload time, which is never older than the local file
+                result.skipped(relative);
+                continue;
+            }
+            tasks.add(new Task(relative, client -> {
+                long bytes = FtpUtils.uploadFromFile(client, local, root, relative, cache, key, config.getFileBufferPool());
+                setModificationTime(client, join(root, relative), local);
+                result.transferred(relative, bytes);
+            }));
+        }
+        try {
+            run(tasks, concurrency, result);
+        } finally {
+            FtpListingCache listings = config.getListingCache();
+            if (listings != null) {
+                listings.invalidate(key, root);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a remote folder against the home folder. Uploads change the working directory of
+     * their session, so relative paths would not point at the same folder for every file.
+     */
+    private String absolutePath(String remotePath) {
+        if (remotePath != null && remotePath.startsWith("/")) {
+            return remotePath;
+        }
+        FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+        try {
+            String home = client.printWorkingDirectory();
+            if (home == null) {
+                throw new FtpLiteException("Could not look up the home folder. " + client.getReplyString());
+            }
+            return remotePath == null ? home : join(home, remotePath);
+        } catch (IOException e) {
+            FtpUtils.disconnect(client);
+            throw new FtpLiteException("Error looking up the working directory");
+        } finally {
+            FtpUtils.closeSession(config, client);
+        }
+    }
+
+    /**
+     * Lists all files below a remote folder over a single session. When the server lists with LIST,
+     * the files whose size matches the local size, the only ones that can be skipped, are looked up
+     * with MDTM for a time to the second.
+     * @param localSize gives the size of the local file at a relative path, or -1 when there is none
+     * @return the files by their path relative to the folder
+     */
+    private Map<String, RemoteFile> walkRemote(String remotePath, ToLongFunction<String> localSize) {
+        Map<String, FTPFile> files = new LinkedHashMap<>();
+        Map<String, RemoteFile> remote = new LinkedHashMap<>();
+        Deque<String> folders = new ArrayDeque<>();
+        folders.add("");
+        FTPClient client = FtpUtils.openSession(config, userName, hostName, port, password);
+        try {
+            boolean mlsd = FtpUtils.listsWithMlsd(client);
+            while (!folders.isEmpty()) {
+                String folder = folders.poll();
+                for (FTPFile file : FtpUtils.initiateListing(client, join(remotePath, folder)).getFiles()) {
+                    if (file == null || ".".equals(file.getName()) || "..".equals(file.getName())) {
+                        continue;
+                    }
+                    String relative = folder.isEmpty() ? file.getName() : folder + "/" + file.getName();
+                    if (file.isDirectory()) {
+                        folders.add(relative);
+                    } else if (file.isFile()) {
+                        files.put(relative, file);
+                    }
+                }
+            }
+            for (Map.Entry<String, FTPFile> entry : files.entrySet()) {
+                String relative = entry.getKey();
+                FTPFile file = entry.getValue();
+                Long time = file.getTimestamp() == null ? null : file.getTimestamp().getTimeInMillis();
+                RemoteFile listed = new RemoteFile(file.getSize(), time, mlsd ? TIME_PRECISION : listPrecision(time));
+                if (!mlsd && file.getSize() == localSize.applyAsLong(relative)) {
+                    Long modified = FtpUtils.getModificationTime(client, join(remotePath, relative));
+                    remote.put(relative, modified == null ? listed : new RemoteFile(file.getSize(), modified, TIME_PRECISION));
+                } else {
+                    remote.put(relative, listed);
+                }
+            }
+        } catch (IOException e) {
+            FtpUtils.disconnect(client);
+            throw new FtpLiteException("There was an error fetching files from SFTP");
+        } finally {
+            FtpUtils.closeSession(config, client);
+        }
+        return remote;
+    }
+
+    private static long listPrecision(Long time) {
+        return time != null && System.currentTimeMillis() - time > LIST_DATE_AGE ? LIST_DATE_PRECISION : LIST_PRECISION;
+    }
+
+    /**
+     * Looks up the modification time of a remote file to the second, keeping the listed time when the server does not tell
+     */
+    private static Long exactTime(FTPClient client, String fullPath, RemoteFile file) {
+        Long modified = FtpUtils.getModificationTime(client, fullPath);
+        return modified == null ? file.modified : modified;
+    }
+
+    /**
+     * Lists all files below a local folder
+     * @return the files by their path relative to the folder
+     */
+    private static Map<String, File> walkLocal(File directory) {
+        Map<String, File> files = new LinkedHashMap<>();
+        Deque<String> folders = new ArrayDeque<>();
+        folders.add("");
+        while (!folders.isEmpty()) {
+            String folder = folders.poll();
+            File[] children = new File(directory, folder).listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                String relative = folder.isEmpty() ? child.getName() : folder + "/" + child.getName();
+                if (child.isDirectory()) {
+                    folders.add(relative);
+                } else if (child.isFile()) {
+                    files.put(relative, child);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Transfers the files over at most the given number of sessions. Each worker holds on to its
+     * session for all the files it takes, and replaces it when it gets disconnected.
+     */
+    private void run(Queue<Task> tasks, int concurrency, FtpSyncResult result) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        int workers = Math.max(1, Math.min(concurrency, tasks.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> work(tasks, result)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FtpLiteException("Interrupted while synchronising " + hostName);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof FtpLiteException
+                    ? (FtpLiteException) e.getCause() : new FtpLiteException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void work(Queue<Task> tasks, FtpSyncResult result) {
+        FTPClient client = null;
+        try {
+            Task task;
+            while ((task = tasks.poll()) != null && !Thread.currentThread().isInterrupted()) {
+                try {
+                    if (client == null || !client.isConnected()) {
+                        if (client != null) {
+                            FtpUtils.closeSession(config, client);
+                        }
+                        client = FtpUtils.openSession(config, userName, hostName, port, password);
+                        if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+                            throw new FtpLiteException("Could not switch to binary mode. " + client.getReplyString());
+                        }
+                    }
+                    task.transfer.run(client);
+                } catch (FtpLiteException | IOException e) {
+                    LOGGER.warn("Could not synchronise " + task.path + ": " + e.getMessage());
+                    result.failed(task.path, e.getMessage());
+                }
+            }
+        } finally {
+            if (client != null) {
+                FtpUtils.closeSession(config, client);
+            }
+        }
+    }
+
+    /**
+     * Gives an uploaded file the modification time of the local file, when the server supports MFMT
+     */
+    private static void setModificationTime(FTPClient client, String fullPath, File local) throws IOException {
+        if (client.hasFeature("MFMT")) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            // A refused MFMT only costs a transfer on the next sync
+            client.sendCommand("MFMT", format.format(new Date(local.lastModified())) + " " + fullPath);
+        }
+    }
+
+    private static String join(String folder, String relative) {
+        if (relative.isEmpty()) {
+            return folder;
+        }
+        if (folder == null || folder.isEmpty()) {
+            return relative;
+        }
+        return folder.endsWith("/") ? folder + relative : folder + "/" + relative;
+    }
+
+    private interface Transfer {
+        void run(FTPClient client) throws IOException;
+    }
+
+    private static final class RemoteFile {
+
+        private final long size;
+
+        private final Long modified;
+
+        /**
+         * How far apart the modification time and that of a local file may be, and still be the same time
+         */
+        private final long precision;
+
+        private RemoteFile(long size, Long modified, long precision) {
+            this.size = size;
+            this.modified = modified;
+            this.precision = precision;
+        }
+    }
+
+    private static class Task {
+
+        private final String path;
+
+        private final Transfer transfer;
+
+        private Task(String path, Transfer transfer) {
+            this.path = path;
+            this.transfer = transfer;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package be.viaa.modules.utils;
+
+import be.viaa.modules.pool.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands bytes from a writing thread to a reading thread through a bounded queue of pooled buffers,
+ * so the writer waits while the reader is behind and memory stays the same however much passes
+ * through. A failure of the writer is thrown to the reader once it has read everything before it,
+ * and closing the reader makes the writer fail. So does a reader that stops reading without closing,
+ * once the writer has waited for it for the stall timeout.
+ *
+ * @author VIAA vzw
+ */
+public class BlockingPipe {
+
+    /**
+     * Marks the end of the data
+     */
+    private static final Chunk END = new Chunk(null, 0);
+
+    private final BufferPool pool;
+
+    private final BlockingQueue<Chunk> chunks;
+
+    private final Sink sink = new Sink();
+
+    private final Source source = new Source();
+
+    private final long stallTimeout;
+
+    private volatile boolean closed;
+
+    /**
+     * Whether the writer gave up on a reader that stopped reading
+     */
+    private volatile boolean stalled;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param pool the pool of the buffers the data passes through
+     * @param capacity the maximum number of full buffers waiting to be read
+     * @param stallTimeout the time in milliseconds the writer waits for the reader to take a buffer
+     */
+    public BlockingPipe(BufferPool pool, int capacity, long stallTimeout) {
+        this.pool = pool;
+        this.chunks = new ArrayBlockingQueue<>(capacity + 1);
+        this.stallTimeout = stallTimeout;
+    }
+
+    public OutputStream getSink() {
+        return sink;
+    }
+
+    public InputStream getSource() {
+        return source;
+    }
+
+    /**
+     * Ends the data with a failure, thrown to the reader instead of the end of the stream
+     */
+    public void fail(Throwable cause) {
+        failure = cause;
+        sink.close();
+    }
+
+    private void put(Chunk chunk) throws IOException {
+        boolean queued = false;
+        long deadline = System.currentTimeMillis() + stallTimeout;
+        try {
+            while (!closed && !stalled && !(queued = chunks.offer(chunk, 100, TimeUnit.MILLISECONDS))) {
+                // wait for the reader to catch up, or to go away
+                if (System.currentTimeMillis() >= deadline) {
+                    stalled = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(chunk);
+            throw new InterruptedIOException("Interrupted while writing to the pipe");
+        }
+        if (closed || stalled) {
+            if (!queued) {
+                release(chunk);
+            }
+            drain();
+            throw new IOException(closed ? "Pipe was closed by the reader"
+                    : "The reader of the pipe did not read for " + stallTimeout + " ms");
+        }
+    }
+
+    private void drain() {
+        Chunk chunk;
+        while ((chunk = chunks.poll()) != null) {
+            release(chunk);
+        }
+    }
+
+    private static void release(Chunk chunk) {
+        if (chunk != null && chunk.buffer != null) {
+            chunk.buffer.close();
+        }
+    }
+
+    private static final class Chunk {
+
+        private final BufferPool.Buffer buffer;
+
+        private final int length;
+
+        private Chunk(BufferPool.Buffer buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+
+    private final class Sink extends OutputStream {
+
+        private BufferPool.Buffer current;
+
+        private int position;
+
+        private boolean ended;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (ended) {
+                throw new IOException("Pipe was closed by the writer");
+            }
+            while (len > 0) {
+                if (current == null) {
+                    current = pool.acquire();
+                    position = 0;
+                }
+                int count = Math.min(len, current.array().length - position);
+                System.arraycopy(b, off, current.array(), position, count);
+                position += count;
+                off += count;
+                len -= count;
+                if (position == current.array().length) {
+                    push();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            try {
+                if (current != null) {
+                    push();
+                }
+                put(END);
+            } catch (IOException e) {
+                // the reader is gone, nobody is waiting for the end
+            }
+        }
+
+        private void push() throws IOException {
+            Chunk chunk = new Chunk(current, position);
+            current = null;
+            put(chunk);
+        }
+    }
+
+    private final class Source extends InputStream {
+
+        private Chunk current;
+
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            Chunk chunk = next();
+            if (chunk == END) {
+                if (failure != null) {
+                    throw new IOException("Error writing to the pipe. " + failure.getMessage(), failure);
+                }
+                return -1;
+            }
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk.buffer.array(), position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current == null || current == END ? 0 : current.length - position;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (current != END) {
+                release(current);
+            }
+            current = END;
+            drain();
+        }
+
+        private Chunk next() throws IOException {
+            if (closed) {
+                throw new IOException("Pipe was closed");
+            }
+            if (stalled) {
+                throw new IOException("The writer of the pipe gave up after waiting " + stallTimeout + " ms for the reader");
+            }
+            while (current == null || current != END && position == current.length) {
+                release(current);
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    current = null;
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading from the pipe");
+                }
+                position = 0;
+            }
+            return current;
+        }
+    }
+}
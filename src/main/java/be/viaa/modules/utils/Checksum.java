@@ -0,0 +1,97 @@
+package be.viaa.modules.utils;
+
+import be.viaa.modules.transfer.DigestAlgorithm;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * A checksum computed over bytes as they are transferred
+ *
+ * @author VIAA vzw
+ */
+public class Checksum {
+
+    private final DigestAlgorithm algorithm;
+
+    private final MessageDigest digest;
+
+    private final CRC32 crc;
+
+    private long bytes;
+
+    private Checksum(DigestAlgorithm algorithm, MessageDigest digest, CRC32 crc) {
+        this.algorithm = algorithm;
+        this.digest = digest;
+        this.crc = crc;
+    }
+
+    /**
+     * @param algorithm the algorithm, or null
+     * @return a new checksum, or null when no algorithm is given
+     */
+    public static Checksum of(DigestAlgorithm algorithm) {
+        if (algorithm == null) {
+            return null;
+        }
+        if (algorithm == DigestAlgorithm.CRC32) {
+            return new Checksum(algorithm, null, new CRC32());
+        }
+        try {
+            return new Checksum(algorithm, MessageDigest.getInstance(algorithm.getHashName()), null);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm.getHashName() + " is not available", e);
+        }
+    }
+
+    public synchronized void update(byte[] b, int off, int len) {
+        if (digest != null) {
+            digest.update(b, off, len);
+        } else {
+            crc.update(b, off, len);
+        }
+        bytes += len;
+    }
+
+    public synchronized void update(int b) {
+        if (digest != null) {
+            digest.update((byte) b);
+        } else {
+            crc.update(b);
+        }
+        bytes++;
+    }
+
+    public DigestAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the number of bytes the checksum was computed over
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the checksum of the bytes so far, in lowercase hexadecimal digits
+     */
+    public synchronized String getValue() {
+        if (digest == null) {
+            return String.format("%08x", crc.getValue());
+        }
+        byte[] value;
+        try {
+            // Cloning keeps the digest going, getValue may be called before the transfer ends
+            value = ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder(value.length * 2);
+        for (byte b : value) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package be.viaa.modules.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Updates a checksum with the bytes read from another stream
+ *
+ * @author VIAA vzw
+ */
+public class ChecksumInputStream extends FilterInputStream {
+
+    private final Checksum checksum;
+
+    public ChecksumInputStream(InputStream in, Checksum checksum) {
+        super(in);
+        this.checksum = checksum;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            checksum.update(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            checksum.update(b, off, read);
+        }
+        return read;
+    }
+
+    /**
+     * Skipped bytes would be missing from the checksum, so they are read instead
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -0,0 +1,61 @@
+package be.viaa.modules.utils;
+
+/**
+ * The outcome of a single item of a batch operation.
+ *
+ * @author VIAA vzw
+ */
+public class FtpBatchResult {
+
+    private final String filePath;
+
+    private final String fileName;
+
+    private final boolean success;
+
+    private final String message;
+
+    private final Object result;
+
+    private FtpBatchResult(String filePath, String fileName, boolean success, String message, Object result) {
+        this.filePath = filePath;
+        this.fileName = fileName;
+        this.success = success;
+        this.message = message;
+        this.result = result;
+    }
+
+    public static FtpBatchResult success(String filePath, String fileName, Object result) {
+        return new FtpBatchResult(filePath, fileName, true, null, result);
+    }
+
+    public static FtpBatchResult failure(String filePath, String fileName, String message) {
+        return new FtpBatchResult(filePath, fileName, false, message, null);
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return the error message when the item failed, null otherwise
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the item's result, e.g. the content of a downloaded file, null when the item failed
+     */
+    public Object getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,57 @@
+package be.viaa.modules.utils;
+
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The files of a folder that were added, changed or removed since it was last polled.
+ *
+ * @author VIAA vzw
+ */
+public class FtpChanges implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<FTPFile> added = new ArrayList<>();
+
+    private final List<FTPFile> changed = new ArrayList<>();
+
+    private final List<String> removed = new ArrayList<>();
+
+    public void added(FTPFile file) {
+        added.add(file);
+    }
+
+    public void changed(FTPFile file) {
+        changed.add(file);
+    }
+
+    public void removed(String name) {
+        removed.add(name);
+    }
+
+    public List<FTPFile> getAdded() {
+        return added;
+    }
+
+    public List<FTPFile> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return the names of the files that were removed
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return whether nothing changed
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+}
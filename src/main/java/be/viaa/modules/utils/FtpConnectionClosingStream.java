@@ -1,6 +1,12 @@
 package be.viaa.modules.utils;
 
+import be.viaa.modules.FtpLiteConnectorConfig;
 import be.viaa.modules.FtpUtils;
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.metrics.FtpMetrics;
+import be.viaa.modules.metrics.HostMetrics;
+import be.viaa.modules.pool.BufferPool;
+import be.viaa.modules.transfer.CompressedTransfer;
 import org.apache.commons.net.ftp.FTPClient;
 
 import java.io.IOException;
@@ -17,60 +23,169 @@ import java.io.InputStream;
  */
 public class FtpConnectionClosingStream extends InputStream {
 
+    private final FtpLiteConnectorConfig config;
+
     private final FTPClient client;
 
     private final InputStream stream;
 
+    /**
+     * Whether the stream is the live data connection of a RETR that still needs to be completed
+     */
+    private final boolean pendingCommand;
+
+    private boolean released;
+
+    /**
+     * The checksum of the bytes read, or null
+     */
+    private final Checksum checksum;
+
+    /**
+     * The full path of the file, when its checksum is to be compared with the server's
+     */
+    private final String verifyPath;
+
+    private FtpDigest digest;
+
+    /**
+     * The number of bytes to read from a live data connection before the transfer is aborted, or -1
+     */
+    private final long limit;
+
+    /**
+     * The compression of a live data connection, whose session goes back to stream mode once it is read, or null
+     */
+    private final CompressedTransfer compressed;
+
+    /**
+     * The number of bytes read from a live data connection, and when reading started
+     */
+    private long bytes;
+
+    private final long start = System.nanoTime();
+
 
     public FtpConnectionClosingStream(FTPClient client, InputStream stream) {
+        this(null, client, stream);
+    }
+
+    public FtpConnectionClosingStream(FtpLiteConnectorConfig config, FTPClient client, InputStream stream) {
+        this(config, client, stream, false);
+    }
+
+    public FtpConnectionClosingStream(FtpLiteConnectorConfig config, FTPClient client, InputStream stream, boolean pendingCommand) {
+        this(config, client, stream, pendingCommand, null, null);
+    }
+
+    public FtpConnectionClosingStream(FtpLiteConnectorConfig config, FTPClient client, InputStream stream, boolean pendingCommand,
+                                      Checksum checksum, String verifyPath) {
+        this(config, client, stream, pendingCommand, checksum, verifyPath, -1);
+    }
+
+    public FtpConnectionClosingStream(FtpLiteConnectorConfig config, FTPClient client, InputStream stream, boolean pendingCommand,
+                                      Checksum checksum, String verifyPath, long limit) {
+        this(config, client, stream, pendingCommand, checksum, verifyPath, limit, null);
+    }
+
+    public FtpConnectionClosingStream(FtpLiteConnectorConfig config, FTPClient client, InputStream stream, boolean pendingCommand,
+                                      Checksum checksum, String verifyPath, long limit, CompressedTransfer compressed) {
+        this.config = config;
         this.client = client;
         this.stream = stream;
+        this.pendingCommand = pendingCommand;
+        this.checksum = checksum;
+        this.verifyPath = verifyPath;
+        this.limit = pendingCommand ? limit : -1;
+        this.compressed = pendingCommand ? compressed : null;
     }
 
     @Override
     public int read() throws IOException {
+        if (released) {
+            return -1;
+        }
+        if (bytes == limit) {
+            release(true);
+            return -1;
+        }
         int result = this.stream.read();
 
         if (result == -1) {
-            FtpUtils.disconnect(client);
+            release(true);
+        } else {
+            bytes++;
+            if (checksum != null) {
+                checksum.update(result);
+            }
+            if (bytes == limit) {
+                release(true);
+            }
         }
         return result;
     }
 
     @Override
     public int read(byte[] bytes) throws IOException {
-        int result = stream.read(bytes);
-
-        if (result == -1) {
-            FtpUtils.disconnect(client);
-        }
-        return result;
+        return read(bytes, 0, bytes.length);
     }
 
     @Override
     public int read(byte[] bytes, int i, int i2) throws IOException {
-        int result = stream.read(bytes, i, i2);
+        if (released) {
+            return -1;
+        }
+        if (this.bytes == limit) {
+            release(true);
+            return -1;
+        }
+        int result = stream.read(bytes, i, limit < 0 ? i2 : (int) Math.min(i2, limit - this.bytes));
 
         if (result == -1) {
-            FtpUtils.disconnect(client);
+            release(true);
+        } else {
+            this.bytes += result;
+            if (checksum != null) {
+                checksum.update(bytes, i, result);
+            }
+            if (this.bytes == limit) {
+                // Given back as soon as the range is read, rather than when the caller sees EOF
+                release(true);
+            }
         }
         return result;
     }
 
     @Override
     public long skip(long l) throws IOException {
-        return stream.skip(l);
+        if (checksum != null) {
+            // Skipped bytes would be missing from the checksum
+            try (BufferPool.Buffer buffer = BufferPool.of(client).acquire()) {
+                return Math.max(0, read(buffer.array(), 0, (int) Math.min(l, buffer.array().length)));
+            }
+        }
+        if (released) {
+            return 0;
+        }
+        long skipped = stream.skip(limit < 0 ? l : Math.min(l, limit - bytes));
+        if (limit >= 0) {
+            // Counted like read bytes, so the limit still ends the range where it should
+            bytes += skipped;
+            if (bytes == limit) {
+                release(true);
+            }
+        }
+        return skipped;
     }
 
     @Override
     public int available() throws IOException {
-        return stream.available();
+        return released ? 0 : stream.available();
     }
 
     @Override
     public void close() throws IOException {
-        FtpUtils.disconnect(client);
-        stream.close();
+        release(false);
     }
 
     @Override
@@ -88,6 +203,86 @@ public class FtpConnectionClosingStream extends InputStream {
         return stream.markSupported();
     }
 
+    /**
+     * Closes the underlying stream and gives the session back, only once, even when both
+     * EOF and close are seen. A pending RETR is completed first; when that fails, or when
+     * the transfer was cut short, the session is not reused. When the limit was read, the
+     * transfer is aborted instead, since the server may have more to send. A compressed transfer
+     * switches the session back to stream mode. Once the whole file was read, its checksum is
+     * compared with the server's over the same session.
+     *
+     * @param endOfStream whether the whole file was read
+     * @throws IOException when the server computed a different checksum
+     */
+    private synchronized void release(boolean endOfStream) throws IOException {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (pendingCommand) {
+            HostMetrics metrics = FtpMetrics.of(client);
+            metrics.received(bytes, System.nanoTime() - start);
+            metrics.time("transfer.download", start);
+        }
+        try {
+            stream.close();
+        } finally {
+            boolean complete = !pendingCommand || (bytes == limit ? abortTransfer() : completePendingCommand() && endOfStream);
+            complete = complete && endTransfer();
+            try {
+                if (complete && endOfStream && checksum != null) {
+                    digest = FtpUtils.verifyDigest(client, verifyPath, checksum, verifyPath != null);
+                }
+            } catch (FtpLiteException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                if (complete) {
+                    FtpUtils.closeSession(config, client);
+                } else {
+                    FtpUtils.invalidateSession(config, client);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the checksum of the bytes read so far, verified with the server's once the whole
+     * file was read; null when no checksum is computed
+     */
+    public synchronized FtpDigest getDigest() {
+        if (digest != null || checksum == null) {
+            return digest;
+        }
+        return new FtpDigest(checksum.getAlgorithm(), checksum.getValue(), null, checksum.getBytes());
+    }
+
+    private boolean completePendingCommand() {
+        try {
+            return client.completePendingCommand();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean endTransfer() {
+        try {
+            if (compressed != null) {
+                compressed.end(client);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean abortTransfer() {
+        try {
+            return FtpUtils.abortTransfer(client);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public InputStream getStream(){
         return stream;
     }
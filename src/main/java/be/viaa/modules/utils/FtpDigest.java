@@ -0,0 +1,67 @@
+package be.viaa.modules.utils;
+
+import be.viaa.modules.transfer.DigestAlgorithm;
+
+import java.io.Serializable;
+
+/**
+ * The checksum of a transferred file, and the one the server computed when it was asked
+ *
+ * @author VIAA vzw
+ */
+public class FtpDigest implements Serializable {
+
+    private static final long serialVersionUID = 2950117263381902655L;
+
+    private final DigestAlgorithm algorithm;
+
+    private final String value;
+
+    private final String serverValue;
+
+    private final long bytes;
+
+    public FtpDigest(DigestAlgorithm algorithm, String value, String serverValue, long bytes) {
+        this.algorithm = algorithm;
+        this.value = value;
+        this.serverValue = serverValue;
+        this.bytes = bytes;
+    }
+
+    public DigestAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the checksum of the transferred bytes, in lowercase hexadecimal digits
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the checksum the server computed, or null when the server was not asked or does not support it
+     */
+    public String getServerValue() {
+        return serverValue;
+    }
+
+    /**
+     * @return the number of bytes transferred
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return whether the server computed the same checksum
+     */
+    public boolean isVerified() {
+        return serverValue != null && serverValue.equalsIgnoreCase(value);
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + " " + value;
+    }
+}
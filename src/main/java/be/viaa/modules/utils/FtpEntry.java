@@ -0,0 +1,85 @@
+package be.viaa.modules.utils;
+
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+/**
+ * Lightweight directory entry, keeping only the name, size, type and modification time
+ * of an {@link FTPFile} and not the raw listing line.
+ *
+ * @author VIAA vzw
+ */
+public class FtpEntry implements Serializable {
+    private static final long serialVersionUID = 6049286104582619385L;
+
+    private final String name;
+
+    private final long size;
+
+    private final FtpEntryType type;
+
+    /**
+     * The modification time in milliseconds since the epoch, or null when the server did not report it
+     */
+    private final Long modified;
+
+    public FtpEntry(String name, long size, FtpEntryType type, Long modified) {
+        this.name = name;
+        this.size = size;
+        this.type = type;
+        this.modified = modified;
+    }
+
+    /**
+     * Creates a lightweight entry from a parsed listing entry
+     * @param file the parsed listing entry
+     * @return the lightweight entry
+     */
+    public static FtpEntry of(FTPFile file) {
+        return of(file.getName(), file);
+    }
+
+    /**
+     * Creates a lightweight entry from a parsed listing entry under a different name, e.g. for
+     * MLST replies which carry the full path
+     * @param name the name of the entry
+     * @param file the parsed listing entry
+     * @return the lightweight entry
+     */
+    public static FtpEntry of(String name, FTPFile file) {
+        Calendar timestamp = file.getTimestamp();
+        return new FtpEntry(name, file.getSize(), FtpEntryType.of(file),
+                timestamp == null ? null : timestamp.getTimeInMillis());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public FtpEntryType getType() {
+        return type;
+    }
+
+    public Long getModified() {
+        return modified;
+    }
+
+    public boolean isFile() {
+        return type == FtpEntryType.FILE;
+    }
+
+    public boolean isDirectory() {
+        return type == FtpEntryType.DIRECTORY;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,33 @@
+package be.viaa.modules.utils;
+
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * The type of a listing entry, also used to limit a listing to one type
+ *
+ * @author VIAA vzw
+ */
+public enum FtpEntryType {
+
+    FILE,
+
+    DIRECTORY,
+
+    LINK,
+
+    UNKNOWN;
+
+    /**
+     * @return the type of a parsed listing entry
+     */
+    public static FtpEntryType of(FTPFile file) {
+        if (file.isFile()) {
+            return FILE;
+        } else if (file.isDirectory()) {
+            return DIRECTORY;
+        } else if (file.isSymbolicLink()) {
+            return LINK;
+        }
+        return UNKNOWN;
+    }
+}
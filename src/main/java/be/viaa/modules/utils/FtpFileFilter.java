@@ -0,0 +1,160 @@
+package be.viaa.modules.utils;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Selects the entries of a listing by name, type, size and modification time. Used while the
+ * listing is parsed, so entries that do not match are dropped right away.
+ *
+ * Name patterns are globs (*, ? and [...] classes) unless prefixed with "regex:"; a "glob:"
+ * prefix is accepted as well. Patterns are matched against the whole name.
+ *
+ * @author VIAA vzw
+ */
+public class FtpFileFilter implements FTPFileFilter {
+
+    private static final String GLOB = "glob:";
+
+    private static final String REGEX = "regex:";
+
+    private final Pattern name;
+
+    /**
+     * The glob as sent to the server, when it only uses wildcards servers expand the same way
+     */
+    private final String serverPattern;
+
+    private final FtpEntryType type;
+
+    private final Long minSize;
+
+    private final Long maxSize;
+
+    private final Long modifiedSince;
+
+    private FtpFileFilter(Pattern name, String serverPattern, FtpEntryType type, Long minSize, Long maxSize, Long modifiedSince) {
+        this.name = name;
+        this.serverPattern = serverPattern;
+        this.type = type;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.modifiedSince = modifiedSince;
+    }
+
+    /**
+     * Creates a filter of the given criteria
+     * @param namePattern a glob or regex:-prefixed regular expression the name must match, or null
+     * @param type the type of the entries, or null for all types
+     * @param minSize the minimum size in bytes, or null
+     * @param maxSize the maximum size in bytes, or null
+     * @param modifiedSince the earliest modification time in milliseconds since the epoch, or null
+     * @return the filter, or null when no criteria are given
+     */
+    public static FtpFileFilter of(String namePattern, FtpEntryType type, Long minSize, Long maxSize, Long modifiedSince) {
+        if (namePattern == null && type == null && minSize == null && maxSize == null && modifiedSince == null) {
+            return null;
+        }
+        Pattern name = null;
+        String serverPattern = null;
+        if (namePattern != null) {
+            if (namePattern.startsWith(REGEX)) {
+                try {
+                    name = Pattern.compile(namePattern.substring(REGEX.length()));
+                } catch (PatternSyntaxException e) {
+                    throw new FtpLiteException("Invalid name pattern " + namePattern + ". " + e.getDescription());
+                }
+            } else {
+                String glob = namePattern.startsWith(GLOB) ? namePattern.substring(GLOB.length()) : namePattern;
+                name = Pattern.compile(globToRegex(glob));
+                serverPattern = glob.matches("[^\\[\\]\\\\/]*") ? glob : null;
+            }
+        }
+        return new FtpFileFilter(name, serverPattern, type, minSize, maxSize, modifiedSince);
+    }
+
+    @Override
+    public boolean accept(FTPFile file) {
+        if (file == null || !acceptName(file.getName())) {
+            return false;
+        }
+        if (type != null && FtpEntryType.of(file) != type) {
+            return false;
+        }
+        if (minSize != null && file.getSize() < minSize || maxSize != null && file.getSize() > maxSize) {
+            return false;
+        }
+        return modifiedSince == null
+                || file.getTimestamp() != null && file.getTimestamp().getTimeInMillis() >= modifiedSince;
+    }
+
+    public boolean acceptName(String fileName) {
+        return name == null || fileName != null && name.matcher(fileName).matches();
+    }
+
+    /**
+     * @return whether only the name is filtered on, so a listing of names is enough
+     */
+    public boolean isNameOnly() {
+        return type == null && minSize == null && maxSize == null && modifiedSince == null;
+    }
+
+    /**
+     * @return the glob to let the server match names with, or null when the pattern is not a simple glob
+     */
+    public String getServerPattern() {
+        return serverPattern;
+    }
+
+    /**
+     * Returns the entries of a listing that match
+     */
+    public FTPFile[] filter(FTPFile[] files) {
+        List<FTPFile> result = new ArrayList<>();
+        for (FTPFile file : files) {
+            if (accept(file)) {
+                result.add(file);
+            }
+        }
+        return result.toArray(new FTPFile[result.size()]);
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inClass = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                } else if (c == '\\' || c == '[' || c == '&') {
+                    regex.append('\\');
+                }
+                regex.append(c);
+            } else if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[') {
+                inClass = true;
+                regex.append('[');
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                    regex.append('^');
+                    i++;
+                }
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (inClass) {
+            throw new FtpLiteException("Unclosed character class in name pattern " + glob);
+        }
+        return regex.toString();
+    }
+}
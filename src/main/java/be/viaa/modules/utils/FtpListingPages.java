@@ -0,0 +1,53 @@
+package be.viaa.modules.utils;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Iterates over a directory listing in fixed-size pages. The raw listing is held in memory
+ * in full; its lines are only parsed into entries when the page they are on is requested.
+ *
+ * @param <T> the type of the entries in a page
+ * @author VIAA vzw
+ */
+public class FtpListingPages<T> implements Iterator<List<T>> {
+
+    private final FTPListParseEngine engine;
+
+    private final int pageSize;
+
+    private final Function<FTPFile, T> mapper;
+
+    public FtpListingPages(FTPListParseEngine engine, int pageSize, Function<FTPFile, T> mapper) {
+        this.engine = engine;
+        this.pageSize = pageSize > 0 ? pageSize : Integer.MAX_VALUE;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return engine.hasNext();
+    }
+
+    @Override
+    public List<T> next() {
+        if (!engine.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        FTPFile[] files = engine.getNext(pageSize);
+        List<T> page = new ArrayList<>(files.length);
+        for (FTPFile file : files) {
+            // Lines the parser could not make sense of come back as null
+            if (file != null) {
+                page.add(mapper.apply(file));
+            }
+        }
+        return page;
+    }
+}
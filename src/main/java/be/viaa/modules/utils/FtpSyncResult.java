@@ -0,0 +1,68 @@
+package be.viaa.modules.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of synchronising a folder tree.
+ *
+ * @author VIAA vzw
+ */
+public class FtpSyncResult {
+
+    private final List<String> transferred = new ArrayList<>();
+
+    private final List<String> skipped = new ArrayList<>();
+
+    private final Map<String, String> failed = new LinkedHashMap<>();
+
+    private long bytes;
+
+    public synchronized void transferred(String path, long size) {
+        transferred.add(path);
+        bytes += size;
+    }
+
+    public synchronized void skipped(String path) {
+        skipped.add(path);
+    }
+
+    public synchronized void failed(String path, String message) {
+        failed.put(path, message);
+    }
+
+    /**
+     * @return the relative paths of the files that were transferred
+     */
+    public synchronized List<String> getTransferred() {
+        return Collections.unmodifiableList(new ArrayList<>(transferred));
+    }
+
+    /**
+     * @return the relative paths of the files that were already up to date
+     */
+    public synchronized List<String> getSkipped() {
+        return Collections.unmodifiableList(new ArrayList<>(skipped));
+    }
+
+    /**
+     * @return the error message per relative path of the files that could not be transferred
+     */
+    public synchronized Map<String, String> getFailed() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failed));
+    }
+
+    /**
+     * @return the number of bytes transferred
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized boolean isSuccess() {
+        return failed.isEmpty();
+    }
+}
@@ -0,0 +1,116 @@
+package be.viaa.modules.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reads another stream in the gzip format, compressing it while it is read. Unlike a
+ * GZIPOutputStream, it can be handed to anything that reads its content.
+ *
+ * @author VIAA vzw
+ */
+public class GzipCompressingInputStream extends InputStream {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final int TRAILER_SIZE = 8;
+
+    private final InputStream source;
+
+    private final Deflater deflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] input;
+
+    private byte[] output;
+
+    private int outputPosition;
+
+    private int outputLength;
+
+    private boolean headerWritten;
+
+    private boolean trailerWritten;
+
+    public GzipCompressingInputStream(InputStream source, int level, int bufferSize) {
+        this.source = source;
+        this.deflater = new Deflater(level, true);
+        this.input = new byte[bufferSize];
+        this.output = new byte[Math.max(bufferSize, HEADER.length + TRAILER_SIZE)];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (outputPosition == outputLength) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, outputLength - outputPosition);
+        System.arraycopy(output, outputPosition, b, off, count);
+        outputPosition += count;
+        return count;
+    }
+
+    /**
+     * Fills the output buffer with the next compressed bytes
+     * @return false once everything, including the trailer, was read
+     */
+    private boolean fill() throws IOException {
+        outputPosition = 0;
+        outputLength = 0;
+        if (!headerWritten) {
+            System.arraycopy(HEADER, 0, output, 0, HEADER.length);
+            outputLength = HEADER.length;
+            headerWritten = true;
+            return true;
+        }
+        if (trailerWritten) {
+            return false;
+        }
+        if (deflater.finished()) {
+            writeInt((int) crc.getValue());
+            writeInt((int) deflater.getBytesRead());
+            deflater.end();
+            trailerWritten = true;
+            return true;
+        }
+        if (deflater.needsInput()) {
+            int read = source.read(input);
+            if (read == -1) {
+                deflater.finish();
+            } else if (read > 0) {
+                crc.update(input, 0, read);
+                deflater.setInput(input, 0, read);
+            }
+        }
+        outputLength = deflater.deflate(output);
+        return true;
+    }
+
+    private void writeInt(int value) {
+        for (int i = 0; i < 4; i++) {
+            output[outputLength++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!trailerWritten) {
+            deflater.end();
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,176 @@
+package be.viaa.modules.utils;
+
+import be.viaa.modules.pool.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Collects written bytes in buffers taken from a pool, instead of an array that is copied each
+ * time it grows. The content is read back with {@link #toInputStream()}, which gives each buffer
+ * back once it is read, and the rest when it is closed.
+ *
+ * @author VIAA vzw
+ */
+public class PooledBufferOutputStream extends OutputStream {
+
+    private final BufferPool pool;
+
+    private final Deque<BufferPool.Buffer> buffers = new ArrayDeque<>();
+
+    /**
+     * The number of bytes written to the last buffer
+     */
+    private int position;
+
+    private long size;
+
+    private boolean handedOver;
+
+    public PooledBufferOutputStream(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        current()[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            byte[] buffer = current();
+            int count = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, count);
+            position += count;
+            size += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Hands the collected bytes over to a stream that reads them back. Nothing can be written afterwards.
+     */
+    public InputStream toInputStream() {
+        handedOver = true;
+        return new Content(new ArrayDeque<>(buffers), position);
+    }
+
+    /**
+     * Gives the buffers back, unless they were handed over with {@link #toInputStream()}
+     */
+    @Override
+    public void close() {
+        if (!handedOver) {
+            handedOver = true;
+            for (BufferPool.Buffer buffer : buffers) {
+                buffer.close();
+            }
+        }
+    }
+
+    private byte[] current() throws IOException {
+        if (handedOver) {
+            throw new IOException("Stream was already handed over");
+        }
+        BufferPool.Buffer last = buffers.peekLast();
+        if (last == null || position == last.array().length) {
+            last = pool.acquire();
+            buffers.addLast(last);
+            position = 0;
+        }
+        return last.array();
+    }
+
+    private static final class Content extends InputStream {
+
+        private final Deque<BufferPool.Buffer> buffers;
+
+        /**
+         * The number of bytes in the last buffer
+         */
+        private final int lastLength;
+
+        private int position;
+
+        private Content(Deque<BufferPool.Buffer> buffers, int lastLength) {
+            this.buffers = buffers;
+            this.lastLength = lastLength;
+        }
+
+        @Override
+        public int read() {
+            byte[] buffer = next();
+            return buffer == null ? -1 : buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            byte[] buffer = next();
+            if (buffer == null) {
+                return -1;
+            }
+            int count = Math.min(len, length() - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            byte[] buffer;
+            while (skipped < n && (buffer = next()) != null) {
+                int count = (int) Math.min(n - skipped, length() - position);
+                position += count;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            long available = -position;
+            for (BufferPool.Buffer buffer : buffers) {
+                available += buffer == buffers.peekLast() ? lastLength : buffer.array().length;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, available));
+        }
+
+        @Override
+        public void close() {
+            BufferPool.Buffer buffer;
+            while ((buffer = buffers.pollFirst()) != null) {
+                buffer.close();
+            }
+        }
+
+        /**
+         * Returns the buffer to read from, giving back the buffers that were read completely
+         */
+        private byte[] next() {
+            while (!buffers.isEmpty() && position == length()) {
+                buffers.pollFirst().close();
+                position = 0;
+            }
+            BufferPool.Buffer first = buffers.peekFirst();
+            return first == null ? null : first.array();
+        }
+
+        private int length() {
+            return buffers.size() == 1 ? lastLength : buffers.peekFirst().array().length;
+        }
+    }
+}
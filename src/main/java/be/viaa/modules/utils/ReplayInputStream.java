@@ -0,0 +1,99 @@
+package be.viaa.modules.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream that keeps the last bytes it delivered, so it can be rewound to an earlier position
+ * within that window, e.g. to resume an upload from the size the server reports.
+ *
+ * @author VIAA vzw
+ */
+public class ReplayInputStream extends InputStream {
+
+    private final InputStream source;
+
+    private final byte[] window;
+
+    /**
+     * The number of bytes read from the source
+     */
+    private long sourcePosition;
+
+    /**
+     * The number of bytes delivered, lower than the source position while replaying
+     */
+    private long position;
+
+    public ReplayInputStream(InputStream source, int windowSize) {
+        this.source = source;
+        this.window = new byte[Math.max(1, windowSize)];
+    }
+
+    /**
+     * Moves back to an earlier position
+     * @param target the position to continue from
+     * @return false if the bytes from that position on are no longer kept
+     */
+    public boolean rewindTo(long target) {
+        if (target < 0 || target > sourcePosition || sourcePosition - target > Math.min(sourcePosition, window.length)) {
+            return false;
+        }
+        position = target;
+        return true;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position < sourcePosition) {
+            int index = (int) (position % window.length);
+            int count = (int) Math.min(Math.min(len, sourcePosition - position), window.length - index);
+            System.arraycopy(window, index, bytes, off, count);
+            position += count;
+            return count;
+        }
+        int read = source.read(bytes, off, len);
+        if (read > 0) {
+            remember(bytes, off, read);
+            sourcePosition += read;
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Copies freshly read bytes into the window, before the source position is moved past them
+     */
+    private void remember(byte[] bytes, int off, int len) {
+        long start = sourcePosition;
+        // Only the tail of a read larger than the window can be kept
+        if (len > window.length) {
+            start += len - window.length;
+            off += len - window.length;
+            len = window.length;
+        }
+        int index = (int) (start % window.length);
+        int first = Math.min(len, window.length - index);
+        System.arraycopy(bytes, off, window, index, first);
+        System.arraycopy(bytes, off + first, window, 0, len - first);
+    }
+}
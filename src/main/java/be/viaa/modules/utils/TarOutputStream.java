@@ -0,0 +1,153 @@
+package be.viaa.modules.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a tar archive in the ustar format. Names longer than the header allows are written in
+ * a GNU long name entry, sizes beyond 8 GiB in the binary notation of GNU and POSIX tar.
+ *
+ * @author VIAA vzw
+ */
+public class TarOutputStream extends FilterOutputStream {
+
+    private static final int BLOCK = 512;
+
+    private static final int NAME_LENGTH = 100;
+
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private static final String LONG_NAME = "././@LongLink";
+
+    /**
+     * The bytes still expected for the current entry, and the bytes written to it
+     */
+    private long remaining;
+
+    private long written;
+
+    private boolean finished;
+
+    public TarOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Starts an entry, whose size must be written before the next entry is started
+     * @param name the path of the entry within the archive, with / as separator
+     * @param size the size in bytes of a file, ignored for directories
+     * @param modified the modification time in milliseconds since the epoch
+     * @param directory whether the entry is a directory
+     */
+    public void putNextEntry(String name, long size, long modified, boolean directory) throws IOException {
+        if (directory && !name.endsWith("/")) {
+            name += "/";
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > NAME_LENGTH) {
+            writeHeader(LONG_NAME.getBytes(StandardCharsets.US_ASCII), nameBytes.length + 1, 0, 'L');
+            out.write(nameBytes);
+            out.write(0);
+            pad(nameBytes.length + 1);
+        }
+        writeHeader(nameBytes, directory ? 0 : size, modified, directory ? '5' : '0');
+        remaining = directory ? 0 : size;
+        written = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > remaining) {
+            throw new IOException("Entry is larger than its size of " + (written + remaining) + " bytes");
+        }
+        out.write(b, off, len);
+        remaining -= len;
+        written += len;
+    }
+
+    /**
+     * Ends the current entry
+     * @throws IOException when fewer bytes were written than its size
+     */
+    public void closeEntry() throws IOException {
+        if (remaining > 0) {
+            throw new IOException("Entry is smaller than its size of " + (written + remaining) + " bytes");
+        }
+        pad(written);
+        written = 0;
+    }
+
+    /**
+     * Ends the archive without closing the underlying stream
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            out.write(new byte[BLOCK * 2]);
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+
+    private void writeHeader(byte[] name, long size, long modified, char type) throws IOException {
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+        octal(header, 100, 8, type == '5' ? 0755 : 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        if (size > MAX_OCTAL_SIZE) {
+            header[124] = (byte) 0x80;
+            for (int i = 135; i > 124; i--, size >>>= 8) {
+                header[i] = (byte) size;
+            }
+        } else {
+            octal(header, 124, 12, size);
+        }
+        octal(header, 136, 12, Math.max(0, modified / 1000));
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        // The checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    /**
+     * Writes a number as zero-padded octal digits followed by a NUL
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int padding = length - 1 - digits.length();
+        for (int i = 0; i < length - 1; i++) {
+            header[offset + i] = (byte) (i < padding ? '0' : digits.charAt(i - padding));
+        }
+        header[offset + length - 1] = 0;
+    }
+
+    private void pad(long length) throws IOException {
+        int rest = (int) (length % BLOCK);
+        if (rest > 0) {
+            out.write(new byte[BLOCK - rest]);
+        }
+    }
+}
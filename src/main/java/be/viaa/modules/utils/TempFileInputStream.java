@@ -0,0 +1,53 @@
+package be.viaa.modules.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Stream over a temporary file that deletes the file once it is fully read or closed.
+ *
+ * @author VIAA vzw
+ */
+public class TempFileInputStream extends FileInputStream {
+
+    private final File file;
+
+    private boolean deleted;
+
+    public TempFileInputStream(File file) throws FileNotFoundException {
+        super(file);
+        this.file = file;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if (result == -1) {
+            close();
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        int result = super.read(bytes, off, len);
+        if (result == -1) {
+            close();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!deleted) {
+                deleted = true;
+                file.delete();
+            }
+        }
+    }
+}
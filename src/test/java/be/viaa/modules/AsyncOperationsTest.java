@@ -0,0 +1,94 @@
+package be.viaa.modules;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The asynchronous processors and awaitAll collecting their results
+ *
+ * @author VIAA vzw
+ */
+public class AsyncOperationsTest {
+
+    private static final byte[] CONTENT = "asynchronous".getBytes(StandardCharsets.UTF_8);
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setAsyncMaxPerHost(2);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void resultsComeInTheOrderOfTheFutures() throws Exception {
+        List<Object> uploaded = connector.awaitAll(Arrays.asList(
+                connector.uploadStreamAsync(HOST, USER, PASSWORD, server.getPort(), "/dir", "a", new ByteArrayInputStream(CONTENT), null, null),
+                connector.uploadStreamAsync(HOST, USER, PASSWORD, server.getPort(), "/dir", "b", new ByteArrayInputStream(CONTENT), null, null),
+                "not a future"), 10000);
+        assertEquals(Arrays.asList(null, null, "not a future"), uploaded);
+
+        List<Object> results = connector.awaitAll(Arrays.asList(
+                connector.fileExistsAsync(HOST, USER, PASSWORD, server.getPort(), "/dir", "a"),
+                connector.getFileContentAsync(HOST, USER, PASSWORD, server.getPort(), "/dir", "b", false, null, null, null, false),
+                connector.getFolderAsync(HOST, USER, PASSWORD, server.getPort(), "/dir"),
+                connector.deleteFileAsync(HOST, USER, PASSWORD, server.getPort(), "/dir", "a")), 10000);
+
+        assertEquals(true, results.get(0));
+        try (InputStream in = (InputStream) results.get(1)) {
+            assertArrayEquals(CONTENT, IOUtils.toByteArray(in));
+        }
+        assertEquals(2, ((FTPFile[]) results.get(2)).length);
+        assertEquals(true, results.get(3));
+        assertFalse(connector.fileExists(HOST, USER, PASSWORD, server.getPort(), "/dir", "a"));
+    }
+
+    @Test(expected = FtpLiteException.class)
+    public void failuresAreRethrown() {
+        connector.awaitAll(Collections.singletonList(connector.getFileContentAsync(
+                HOST, USER, PASSWORD, server.getPort(), "/", "missing", false, null, null, null, false)), 10000);
+    }
+
+    @Test
+    public void waitingIsBoundedByTheTimeout() {
+        long start = System.currentTimeMillis();
+        try {
+            connector.awaitAll(Collections.singletonList(new CompletableFuture<>()), 200);
+            throw new AssertionError("A future that never completes was awaited");
+        } catch (FtpLiteException e) {
+            assertNull(e.getCause());
+        }
+        assertEquals(200, System.currentTimeMillis() - start, 2000);
+    }
+}
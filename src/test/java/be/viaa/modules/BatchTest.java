@@ -0,0 +1,99 @@
+package be.viaa.modules;
+
+import be.viaa.modules.utils.FtpBatchResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batch operations report the outcome of each item, whatever fails
+ *
+ * @author VIAA vzw
+ */
+public class BatchTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        connector = new FtpLiteConnector();
+        connector.setConfig(EmbeddedFtpServer.config());
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void failingItemsDoNotStopTheBatch() throws Exception {
+        server.createFile("batch/one", 1);
+        server.createFile("batch/two", 1);
+
+        List<FtpBatchResult> results = connector.deleteBatch(HOST, USER, PASSWORD, server.getPort(), Arrays.asList(
+                item("/batch", "one", null),
+                item("/batch", "missing", null),
+                item(42, "one", null),
+                item("/batch", "two", null)));
+
+        assertEquals(4, results.size());
+        assertEquals(true, results.get(0).getResult());
+        assertEquals(false, results.get(1).getResult());
+        assertFalse(results.get(2).isSuccess());
+        assertEquals("42", results.get(2).getFilePath());
+        assertTrue(results.get(3).isSuccess());
+        assertFalse(server.getHome().toPath().resolve("batch/two").toFile().exists());
+    }
+
+    @Test
+    public void itemsAfterALostServerAreReportedAsFailed() throws Exception {
+        InputStream breaking = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                server.halt();
+                throw new IOException("Source went away");
+            }
+        };
+
+        List<FtpBatchResult> results = connector.uploadBatch(HOST, USER, PASSWORD, server.getPort(), Arrays.asList(
+                item("/up", "one", new ByteArrayInputStream(new byte[] {1})),
+                item("/up", "two", breaking),
+                item("/up", "three", new ByteArrayInputStream(new byte[] {3})),
+                item("/up", "four", new ByteArrayInputStream(new byte[] {4}))));
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertFalse(results.get(2).isSuccess());
+        assertTrue(results.get(2).getMessage().startsWith("Could not reopen the session"));
+        assertEquals("four", results.get(3).getFileName());
+        assertFalse(results.get(3).isSuccess());
+    }
+
+    private static Map<String, Object> item(Object filePath, String fileName, InputStream content) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("filePath", filePath);
+        item.put("fileName", fileName);
+        item.put("content", content);
+        return item;
+    }
+}
@@ -0,0 +1,75 @@
+package be.viaa.modules;
+
+import be.viaa.modules.transfer.Compression;
+import org.apache.commons.io.IOUtils;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.impl.MODE;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * getFileContent over a deflated data connection
+ *
+ * @author VIAA vzw
+ */
+public class CompressedTransferTest {
+
+    private final List<String> modes = Collections.synchronizedList(new ArrayList<>());
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void streamedTransfersGoBackToStreamMode() throws Exception {
+        Command mode = new MODE();
+        Map<String, Command> commands = new HashMap<>();
+        commands.put("FEAT", EmbeddedFtpServer.reply(211, "Extensions supported\n SIZE\n MODE Z\nEnd"));
+        commands.put("MODE", (session, context, request) -> {
+            modes.add(request.getArgument());
+            mode.execute(session, context, request);
+        });
+        server = EmbeddedFtpServer.start(commands);
+        connector = new FtpLiteConnector();
+        connector.setConfig(EmbeddedFtpServer.config());
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 7);
+        }
+        Files.write(server.createFile("file", 0).toPath(), content);
+
+        assertArrayEquals(content, read(true, Compression.MODE_Z));
+        assertEquals(Arrays.asList("Z", "S"), modes);
+        modes.clear();
+        assertArrayEquals(content, read(false, Compression.MODE_Z));
+        assertEquals(Arrays.asList("Z", "S"), modes);
+    }
+
+    private byte[] read(boolean streaming, Compression compression) throws Exception {
+        try (InputStream in = connector.getFileContent(HOST, USER, PASSWORD, server.getPort(), "/", "file", streaming,
+                null, compression, null, false, null, null)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package be.viaa.modules;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * copyFile on a server without SITE CPFR, which copies the file through the connector
+ *
+ * @author VIAA vzw
+ */
+public class CopyFileTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    private void start(FtpLiteConnectorConfig config) throws Exception {
+        server = EmbeddedFtpServer.start();
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void copiesWithOneSessionPerHost() throws Exception {
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setHostMaxSessions(1);
+        config.setHostQueueTimeout(2000);
+        config.setPoolEnabled(true);
+        config.setPoolMaxPerKey(1);
+        config.setPoolMaxWait(2000);
+        start(config);
+        File source = server.createFile("from/file", 0);
+        Files.write(source.toPath(), new byte[] {1, 2, 3});
+
+        assertFalse(connector.copyFile(HOST, USER, PASSWORD, server.getPort(), "/from", "file", "/to", null));
+
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(new File(server.getHome(), "to/file").toPath()));
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(source.toPath()));
+    }
+}
@@ -0,0 +1,216 @@
+package be.viaa.modules;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.ClearTextPasswordEncryptor;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * In-process FTP server on localhost, serving a temporary home directory to two users.
+ * Used by the tests, and by the benchmarks through the test jar.
+ *
+ * @author VIAA vzw
+ */
+public class EmbeddedFtpServer {
+
+    public static final String HOST = "localhost";
+
+    public static final String USER = "bench";
+
+    public static final String PASSWORD = "bench";
+
+    /**
+     * A second user sharing the home directory and password, a tenant of its own to the connector
+     */
+    public static final String OTHER_USER = "other";
+
+    private final File home;
+
+    private final int port;
+
+    private final FtpServer server;
+
+    private EmbeddedFtpServer(File home, int port, FtpServer server) {
+        this.home = home;
+        this.port = port;
+        this.server = server;
+    }
+
+    /**
+     * The extensions the server advertises with FEAT
+     */
+    private static final List<String> FEATURES = Arrays.asList(
+            "SIZE", "MDTM", "REST STREAM", "MLST Size;Modify;Type;Perm", "UTF8", "TVFS", "MFMT");
+
+    /**
+     * Starts a server on a free port with an empty home directory
+     * @return the running server
+     */
+    public static EmbeddedFtpServer start() throws IOException, FtpException {
+        return start(new String[0]);
+    }
+
+    /**
+     * Starts a server on a free port with an empty home directory that does not implement some
+     * commands, e.g. to behave like a server that can only LIST
+     * @param unsupported the commands answered with 502, which FEAT does not advertise either
+     * @return the running server
+     */
+    public static EmbeddedFtpServer start(String... unsupported) throws IOException, FtpException {
+        return start(Collections.<String, Command>emptyMap(), unsupported);
+    }
+
+    /**
+     * Starts a server on a free port with an empty home directory that implements some commands
+     * its own way, e.g. to behave like a server that does not expand wildcards
+     * @param commands the implementations of the commands to replace
+     * @param unsupported the commands answered with 502, which FEAT does not advertise either
+     * @return the running server
+     */
+    public static EmbeddedFtpServer start(Map<String, Command> commands, String... unsupported)
+            throws IOException, FtpException {
+        File root = Files.createTempDirectory("ftplite-bench").toFile();
+        File home = new File(root, "home");
+        if (!home.mkdir()) {
+            throw new IOException("Could not create " + home);
+        }
+        File users = new File(root, "users.properties");
+        if (!users.createNewFile()) {
+            throw new IOException("Could not create " + users);
+        }
+
+        PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
+        userManagerFactory.setFile(users);
+        userManagerFactory.setPasswordEncryptor(new ClearTextPasswordEncryptor());
+        UserManager userManager = userManagerFactory.createUserManager();
+        for (String name : Arrays.asList(USER, OTHER_USER)) {
+            BaseUser user = new BaseUser();
+            user.setName(name);
+            user.setPassword(PASSWORD);
+            user.setHomeDirectory(home.getAbsolutePath());
+            user.setAuthorities(Collections.<Authority>singletonList(new WritePermission()));
+            userManager.save(user);
+        }
+
+        int port = freePort();
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress(HOST);
+        listenerFactory.setPort(port);
+
+        CommandFactoryFactory commandFactoryFactory = new CommandFactoryFactory();
+        List<String> features = new ArrayList<>();
+        for (String feature : FEATURES) {
+            if (!Arrays.asList(unsupported).contains(feature.split(" ")[0])) {
+                features.add(" " + feature);
+            }
+        }
+        commandFactoryFactory.addCommand("FEAT", reply(FtpReply.REPLY_211_SYSTEM_STATUS_REPLY,
+                "Extensions supported\n" + String.join("\n", features) + "\nEnd"));
+        for (Map.Entry<String, Command> command : commands.entrySet()) {
+            commandFactoryFactory.addCommand(command.getKey(), command.getValue());
+        }
+        for (String command : unsupported) {
+            commandFactoryFactory.addCommand(command, reply(FtpReply.REPLY_502_COMMAND_NOT_IMPLEMENTED, "Command not implemented."));
+        }
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.setUserManager(userManager);
+        serverFactory.setCommandFactory(commandFactoryFactory.createCommandFactory());
+        FtpServer server = serverFactory.createServer();
+        server.start();
+        return new EmbeddedFtpServer(home, port, server);
+    }
+
+    /**
+     * Stops the server and removes its files
+     */
+    public void stop() throws IOException {
+        server.stop();
+        try (Stream<java.nio.file.Path> paths = Files.walk(home.getParentFile().toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Stops accepting connections, so new sessions are refused while open ones carry on
+     */
+    public void halt() {
+        server.suspend();
+    }
+
+    /**
+     * Returns a configuration as Mule would create it with its defaults, using passive mode
+     * and binary transfers so local sizes match remote ones
+     */
+    public static FtpLiteConnectorConfig config() {
+        FtpLiteConnectorConfig config = new FtpLiteConnectorConfig();
+        config.setBinaryMode(true);
+        config.setPassiveMode(true);
+        return config;
+    }
+
+    public String getPort() {
+        return String.valueOf(port);
+    }
+
+    /**
+     * @return the directory the server serves as "/"
+     */
+    public File getHome() {
+        return home;
+    }
+
+    /**
+     * Creates a file of the given size in the served directory
+     * @param path the path of the file relative to the home directory
+     * @param size the size in bytes
+     */
+    public File createFile(String path, long size) throws IOException {
+        File file = new File(home, path);
+        file.getParentFile().mkdirs();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(size);
+        }
+        return file;
+    }
+
+    /**
+     * @return a command that only answers with the given reply
+     */
+    public static Command reply(int code, String message) {
+        return (session, context, request) -> {
+            session.resetState();
+            session.write(new DefaultFtpReply(code, message));
+        };
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package be.viaa.modules;
+
+import be.viaa.modules.utils.FtpEntry;
+import be.viaa.modules.utils.FtpEntryType;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.After;
+import org.junit.Test;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * File lookups on servers that lack MLST, or MLST, MDTM and SIZE
+ *
+ * @author VIAA vzw
+ */
+public class FileInfoTest {
+
+    private EmbeddedFtpServer server;
+
+    private FTPClient client;
+
+    private FTPClient connect(String... unsupported) throws Exception {
+        server = EmbeddedFtpServer.start(unsupported);
+        client = FtpUtils.createSession(EmbeddedFtpServer.config(), USER, HOST, server.getPort(), PASSWORD);
+        return client;
+    }
+
+    @After
+    public void stop() throws Exception {
+        FtpUtils.disconnect(client);
+        server.stop();
+    }
+
+    @Test
+    public void directoriesAreNotFilesWhenOnlyMdtmAnswers() throws Exception {
+        connect("MLST");
+        server.createFile("folder/sub/file", 1);
+
+        assertFalse(FtpUtils.fileExists(client, "/folder", "sub"));
+        assertEquals(FtpEntryType.DIRECTORY, FtpUtils.getFileInfo(client, "/folder", "sub").getType());
+        assertTrue(FtpUtils.fileExists(client, "/folder/sub", "file"));
+    }
+
+    @Test
+    public void listingFallbackKeepsTheWorkingDirectory() throws Exception {
+        connect("MLST", "MDTM", "SIZE");
+        server.createFile("folder/file", 7);
+        String workingDirectory = client.printWorkingDirectory();
+
+        FtpEntry info = FtpUtils.getFileInfo(client, "/folder", "file");
+
+        assertEquals(FtpEntryType.FILE, info.getType());
+        assertEquals(7, info.getSize());
+        assertNull(FtpUtils.getFileInfo(client, "/folder", "missing"));
+        assertEquals(workingDirectory, client.printWorkingDirectory());
+    }
+}
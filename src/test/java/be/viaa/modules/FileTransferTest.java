@@ -0,0 +1,89 @@
+package be.viaa.modules;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * uploadFromFile and downloadToFile copying between local files and the server
+ *
+ * @author VIAA vzw
+ */
+public class FileTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setFileBufferSize(4096);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void filesMakeTheRoundTrip() throws Exception {
+        byte[] content = new byte[1024 * 1024 + 17];
+        new Random(1).nextBytes(content);
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), content);
+
+        connector.uploadFromFile(HOST, USER, PASSWORD, server.getPort(), source.getPath(), "/in/dir", "file", null);
+        assertArrayEquals(content, Files.readAllBytes(new File(server.getHome(), "in/dir/file").toPath()));
+
+        File target = new File(folder.getRoot(), "out/sub/file");
+        long bytes = connector.downloadToFile(HOST, USER, PASSWORD, server.getPort(), "/in/dir", "file", target.getPath(), null);
+
+        assertEquals(content.length, bytes);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertArrayEquals(new String[] {"file"}, target.getParentFile().list());
+    }
+
+    @Test
+    public void failedDownloadsLeaveTheTargetAlone() throws Exception {
+        File target = folder.newFile("target");
+        Files.write(target.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            connector.downloadToFile(HOST, USER, PASSWORD, server.getPort(), "/", "missing", target.getPath(), null);
+            throw new AssertionError("A missing file was downloaded");
+        } catch (FtpLiteException expected) {
+            // refused
+        }
+
+        assertEquals("old", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+        assertArrayEquals(new String[] {"target"}, folder.getRoot().list());
+    }
+
+    @Test(expected = FtpLiteException.class)
+    public void missingLocalFilesAreNotUploaded() {
+        connector.uploadFromFile(HOST, USER, PASSWORD, server.getPort(), new File(folder.getRoot(), "missing").getPath(),
+                "/", "file", null);
+    }
+}
@@ -0,0 +1,148 @@
+package be.viaa.modules;
+
+import be.viaa.modules.transfer.ArchiveFormat;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * getFolderAsArchive streaming zip and tar archives, also to readers that change their mind
+ *
+ * @author VIAA vzw
+ */
+public class FolderArchiveTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void tarEntriesKeepTheSizeOfTheirHeader() throws Exception {
+        // As if each file changed to 600 bytes after it was listed, and back before it is retrieved
+        server = EmbeddedFtpServer.start(Collections.singletonMap("SIZE", EmbeddedFtpServer.reply(213, "600")));
+        connector = new FtpLiteConnector();
+        connector.setConfig(EmbeddedFtpServer.config());
+        byte[] large = filled(1000);
+        byte[] small = filled(10);
+        Files.write(server.createFile("archive/large", 0).toPath(), large);
+        Files.write(server.createFile("archive/small", 0).toPath(), small);
+
+        byte[] tar;
+        try (InputStream archive = connector.getFolderAsArchive(HOST, USER, PASSWORD, server.getPort(), "/archive",
+                ArchiveFormat.TAR, false, 0)) {
+            tar = IOUtils.toByteArray(archive);
+        }
+
+        Map<String, byte[]> entries = entries(tar);
+        assertEquals(Arrays.asList("large", "small"), Arrays.asList(entries.keySet().toArray()));
+        assertArrayEquals(Arrays.copyOf(large, 600), entries.get("large"));
+        assertArrayEquals(Arrays.copyOf(small, 600), entries.get("small"));
+    }
+
+    @Test
+    public void zipArchivesHoldEveryFileWithPrefetch() throws Exception {
+        start(EmbeddedFtpServer.config());
+        Map<String, byte[]> files = new TreeMap<>();
+        for (int i = 0; i < 5; i++) {
+            files.put("file" + i, filled(1000 * (i + 1)));
+            Files.write(server.createFile("archive/file" + i, 0).toPath(), files.get("file" + i));
+        }
+        server.createFile("archive/sub/nested", 3);
+
+        Map<String, byte[]> entries = new TreeMap<>();
+        try (ZipInputStream zip = new ZipInputStream(connector.getFolderAsArchive(HOST, USER, PASSWORD, server.getPort(),
+                "/archive", ArchiveFormat.ZIP, false, 2))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), IOUtils.toByteArray(zip));
+            }
+        }
+
+        assertEquals(files.keySet(), entries.keySet());
+        for (String name : files.keySet()) {
+            assertArrayEquals(files.get(name), entries.get(name));
+        }
+    }
+
+    @Test
+    public void abandonedArchivesGiveUpTheirSession() throws Exception {
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setPoolEnabled(true);
+        config.setPoolMaxPerKey(1);
+        config.setPoolMaxWait(5000);
+        config.setHostQueueTimeout(300);
+        start(config);
+        server.createFile("archive/large", 8 * 1024 * 1024);
+
+        InputStream abandoned = connector.getFolderAsArchive(HOST, USER, PASSWORD, server.getPort(), "/archive",
+                ArchiveFormat.TAR, false, 0);
+        assertTrue(abandoned.read() != -1);
+
+        // The only session of the pool, held by the archive until its writer gives up
+        assertEquals(1, connector.getFolder(HOST, USER, PASSWORD, server.getPort(), "/archive", null, null, null, null, null,
+                false).length);
+        try {
+            IOUtils.toByteArray(abandoned);
+            throw new AssertionError("An archive was read after its writer gave up");
+        } catch (IOException expected) {
+            // stalled
+        }
+        assertEquals(0, connector.getConfig().getMetrics().host(HOST).getActiveSessions());
+    }
+
+    private void start(FtpLiteConnectorConfig config) throws Exception {
+        server = EmbeddedFtpServer.start();
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+    }
+
+    private static byte[] filled(int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) 7);
+        return bytes;
+    }
+
+    /**
+     * Reads the entries of a tar archive, checking that it ends with two empty blocks
+     */
+    private static Map<String, byte[]> entries(byte[] tar) {
+        Map<String, byte[]> entries = new TreeMap<>();
+        int offset = 0;
+        while (tar[offset] != 0) {
+            int nameLength = 0;
+            while (nameLength < 100 && tar[offset + nameLength] != 0) {
+                nameLength++;
+            }
+            String name = new String(tar, offset, nameLength, StandardCharsets.UTF_8);
+            int size = Integer.parseInt(new String(tar, offset + 124, 11, StandardCharsets.US_ASCII), 8);
+            entries.put(name, Arrays.copyOfRange(tar, offset + 512, offset + 512 + size));
+            offset += 512 + (size + 511) / 512 * 512;
+        }
+        assertEquals(offset + 1024, tar.length);
+        return entries;
+    }
+}
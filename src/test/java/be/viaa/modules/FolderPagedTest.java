@@ -0,0 +1,77 @@
+package be.viaa.modules;
+
+import be.viaa.modules.utils.FtpEntry;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * getFolderPaged against a server that lists with MLSD
+ *
+ * @author VIAA vzw
+ */
+public class FolderPagedTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        connector = new FtpLiteConnector();
+        connector.setConfig(EmbeddedFtpServer.config());
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void returnsEveryEntryInPagesOfTheGivenSize() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            server.createFile("paged/file" + i, i);
+        }
+        Iterator<List<Object>> pages = connector.getFolderPaged(HOST, USER, PASSWORD, server.getPort(), "/paged", 10, true);
+
+        List<Integer> sizes = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        while (pages.hasNext()) {
+            List<Object> page = pages.next();
+            sizes.add(page.size());
+            for (Object entry : page) {
+                names.add(((FtpEntry) entry).getName());
+            }
+        }
+        assertEquals(3, sizes.size());
+        assertEquals(10, (int) sizes.get(0));
+        assertEquals(5, (int) sizes.get(2));
+        assertEquals(25, names.size());
+        assertTrue(names.contains("file24"));
+    }
+
+    @Test
+    public void returnsListingEntriesUnlessLightweight() throws Exception {
+        server.createFile("paged/file", 3);
+        Iterator<List<Object>> pages = connector.getFolderPaged(HOST, USER, PASSWORD, server.getPort(), "/paged", 10, false);
+
+        FTPFile file = (FTPFile) pages.next().get(0);
+        assertEquals("file", file.getName());
+        assertEquals(3, file.getSize());
+        assertFalse(pages.hasNext());
+    }
+}
@@ -0,0 +1,41 @@
+package be.viaa.modules;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a configuration created outside of Mule starts out at the defaults Mule applies.
+ *
+ * @author VIAA vzw
+ */
+public class FtpLiteConnectorConfigTest {
+
+    private static final Pattern DEFAULT = Pattern.compile(
+            "@Default\\((?:value\\s*=\\s*)?\"([^\"]*)\"\\)\\s*(?:@\\w+[^\\n]*\\s*)*private [\\w<>]+ (\\w+)");
+
+    @Test
+    public void fieldsStartAtTheirDefaults() throws IOException, ReflectiveOperationException {
+        String source = new String(Files.readAllBytes(
+                Paths.get("src/main/java/be/viaa/modules/FtpLiteConnectorConfig.java")), StandardCharsets.UTF_8);
+        FtpLiteConnectorConfig config = new FtpLiteConnectorConfig();
+        Matcher matcher = DEFAULT.matcher(source);
+        int fields = 0;
+        while (matcher.find()) {
+            Field field = FtpLiteConnectorConfig.class.getDeclaredField(matcher.group(2));
+            field.setAccessible(true);
+            assertEquals(field.getName(), matcher.group(1), String.valueOf(field.get(config)));
+            fields++;
+        }
+        assertTrue("No @Default fields found", fields > 0);
+    }
+}
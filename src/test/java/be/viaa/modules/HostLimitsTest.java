@@ -0,0 +1,135 @@
+package be.viaa.modules;
+
+import be.viaa.modules.exceptions.FtpLiteHostException;
+import be.viaa.modules.metrics.HostMetrics;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.OTHER_USER;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The limit of connections per host, and the transfer rate limits
+ *
+ * @author VIAA vzw
+ */
+public class HostLimitsTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnectorConfig config;
+
+    private FtpLiteConnector connector;
+
+    private HostMetrics metrics;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        config = EmbeddedFtpServer.config();
+        config.setHostMaxSessions(1);
+        config.setHostQueueTimeout(300);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+        metrics = config.getMetrics().host(HOST);
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void operationsOverTheLimitTimeOut() {
+        FTPClient first = open(USER);
+        long start = System.currentTimeMillis();
+        try {
+            open(OTHER_USER);
+            throw new AssertionError("A second connection was opened beyond the limit of one");
+        } catch (FtpLiteHostException expected) {
+            assertTrue(System.currentTimeMillis() - start >= 250);
+        }
+        FtpUtils.closeSession(config, first);
+    }
+
+    @Test
+    public void waitingOperationsTakeTheConnectionThatCloses() throws Exception {
+        config.setHostQueueTimeout(5000);
+        FTPClient first = open(USER);
+        CompletableFuture<FTPClient> waiting = CompletableFuture.supplyAsync(() -> open(OTHER_USER));
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+        assertEquals(1, metrics.getQueuedOperations());
+
+        FtpUtils.closeSession(config, first);
+
+        FTPClient second = waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(1, metrics.getOpenSessions());
+        FtpUtils.closeSession(config, second);
+    }
+
+    @Test(expected = FtpLiteHostException.class)
+    public void operationsBeyondTheQueueFailRightAway() {
+        config.setHostMaxQueued(0);
+        config.setHostQueueTimeout(5000);
+        open(USER);
+
+        open(OTHER_USER);
+    }
+
+    @Test
+    public void idlePooledSessionsHoldTheirConnection() throws Exception {
+        config.setPoolEnabled(true);
+        FTPClient idle = open(USER);
+        FtpUtils.closeSession(config, idle);
+        assertTrue(idle.isConnected());
+
+        // Warm sessions do not take a connection that is open already
+        try {
+            FtpUtils.createSession(config, OTHER_USER, HOST, server.getPort(), PASSWORD, false);
+            throw new AssertionError("A warm session was opened beyond the limit of one");
+        } catch (FtpLiteHostException expected) {
+            // refused
+        }
+
+        // Another tenant closes the idle session rather than waiting for it
+        long start = System.currentTimeMillis();
+        FTPClient other = open(OTHER_USER);
+        assertTrue(System.currentTimeMillis() - start < 300);
+        assertFalse(idle.isConnected());
+        assertEquals(1, metrics.getOpenSessions());
+        FtpUtils.closeSession(config, other);
+    }
+
+    @Test
+    public void transfersKeepToTheRateOfTheHost() throws Exception {
+        config.setHostMaxBytesPerSecond(100000);
+        server.createFile("file", 250000);
+
+        long start = System.currentTimeMillis();
+        try (InputStream in = connector.getFileContent(HOST, USER, PASSWORD, server.getPort(), "/", "file", true,
+                null, null, null, false, null, null)) {
+            assertEquals(250000, IOUtils.toByteArray(in).length);
+        }
+
+        // One second worth of bytes goes at once, the other 150000 take a second and a half
+        assertTrue(System.currentTimeMillis() - start >= 1300);
+    }
+
+    private FTPClient open(String userName) {
+        return FtpUtils.openSession(config, userName, HOST, server.getPort(), PASSWORD);
+    }
+}
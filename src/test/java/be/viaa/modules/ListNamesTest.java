@@ -0,0 +1,90 @@
+package be.viaa.modules;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.impl.NLST;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * getFolder with namesOnly, against servers that refuse wildcards or empty folders
+ *
+ * @author VIAA vzw
+ */
+public class ListNamesTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    private void start(Command nlst) throws Exception {
+        server = EmbeddedFtpServer.start(Collections.singletonMap("NLST", nlst));
+        connector = new FtpLiteConnector();
+        connector.setConfig(EmbeddedFtpServer.config());
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void refusedWildcardsAreMatchedByTheConnector() throws Exception {
+        Command nlst = new NLST();
+        start((session, context, request) -> {
+            if (request.getArgument() != null && request.getArgument().contains("*")) {
+                EmbeddedFtpServer.reply(550, "No such file or directory.").execute(session, context, request);
+            } else {
+                nlst.execute(session, context, request);
+            }
+        });
+        server.createFile("names/a.txt", 1);
+        server.createFile("names/b.txt", 1);
+        server.createFile("names/c.log", 1);
+
+        assertEquals(Arrays.asList("a.txt", "b.txt"), names("/names", "*.txt"));
+    }
+
+    @Test
+    public void refusedListingsOfEmptyFoldersAreEmpty() throws Exception {
+        start(EmbeddedFtpServer.reply(450, "No files found."));
+        new File(server.getHome(), "empty").mkdir();
+
+        assertEquals(Collections.emptyList(), names("/empty", null));
+        assertEquals(Collections.emptyList(), names("/empty", "*.txt"));
+    }
+
+    @Test(expected = FtpLiteException.class)
+    public void refusedListingsOfMissingFoldersFail() throws Exception {
+        start(EmbeddedFtpServer.reply(550, "No such file or directory."));
+
+        names("/missing", null);
+    }
+
+    @Test(expected = FtpLiteException.class)
+    public void brokenTransfersFail() throws Exception {
+        start(EmbeddedFtpServer.reply(425, "Can't open data connection."));
+        new File(server.getHome(), "folder").mkdir();
+
+        names("/folder", null);
+    }
+
+    private List<String> names(String path, String namePattern) {
+        FTPFile[] files = connector.getFolder(HOST, USER, PASSWORD, server.getPort(), path, namePattern,
+                null, null, null, null, true);
+        return Arrays.stream(files).map(FTPFile::getName).sorted().collect(Collectors.toList());
+    }
+}
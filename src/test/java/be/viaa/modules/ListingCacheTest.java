@@ -0,0 +1,84 @@
+package be.viaa.modules;
+
+import be.viaa.modules.exceptions.FtpLiteAuthException;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The listing cache only serves callers with the right credentials, and treats every way of
+ * writing a path as the same folder
+ *
+ * @author VIAA vzw
+ */
+public class ListingCacheTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setListingCacheEnabled(true);
+        config.setListingCacheTtl(60000);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test(expected = FtpLiteAuthException.class)
+    public void cachedListingsNeedTheRightPassword() throws Exception {
+        server.createFile("private/secret", 1);
+        assertEquals(1, list(PASSWORD, "/private").size());
+
+        list("wrong", "/private");
+    }
+
+    @Test
+    public void pathsOfTheSameFolderShareOneEntry() throws Exception {
+        server.createFile("dir/one", 1);
+        assertEquals(Arrays.asList("one"), list(PASSWORD, "dir"));
+
+        // Not seen through the cache, until the folder is changed through the connector
+        server.createFile("dir/two", 1);
+        assertEquals(Arrays.asList("one"), list(PASSWORD, "/dir"));
+        assertEquals(Arrays.asList("one"), list(PASSWORD, "/other/../dir/."));
+
+        connector.uploadStream(HOST, USER, PASSWORD, server.getPort(), "/dir/", "three",
+                new ByteArrayInputStream(new byte[] {3}), null, null);
+
+        assertEquals(Arrays.asList("one", "three", "two"), list(PASSWORD, "dir/"));
+    }
+
+    @Test
+    public void homeDirectoryIsTheSameFolderAsItsPath() throws Exception {
+        server.createFile("one", 1);
+        assertEquals(Arrays.asList("one"), list(PASSWORD, null));
+
+        server.createFile("two", 1);
+        assertEquals(Arrays.asList("one"), list(PASSWORD, "/"));
+    }
+
+    private List<String> list(String password, String path) {
+        FTPFile[] files = connector.getFolder(HOST, USER, password, server.getPort(), path, null, null, null, null, null, false);
+        return Arrays.stream(files).map(FTPFile::getName).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,129 @@
+package be.viaa.modules;
+
+import be.viaa.modules.utils.FtpChanges;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * pollChanges comparing listings of a folder with the snapshot of the previous poll
+ *
+ * @author VIAA vzw
+ */
+public class PollChangesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        connector = connector();
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void reportsWhatChangedSinceThePreviousPoll() throws Exception {
+        server.createFile("inbox/kept", 1);
+        File changed = server.createFile("inbox/changed", 1);
+        File removed = server.createFile("inbox/removed", 1);
+
+        FtpChanges first = poll(false);
+        assertEquals(3, first.getAdded().size());
+
+        resize(changed, 2);
+        removed.delete();
+        server.createFile("inbox/added", 1);
+        FtpChanges second = poll(false);
+
+        assertEquals(Collections.singletonList("added"), names(second.getAdded()));
+        assertEquals(Collections.singletonList("changed"), names(second.getChanged()));
+        assertEquals(Collections.singletonList("removed"), second.getRemoved());
+        assertTrue(poll(false).isEmpty());
+    }
+
+    @Test
+    public void stableOnlyHoldsFilesBackUntilTheyStopChanging() throws Exception {
+        File growing = server.createFile("inbox/growing", 1);
+
+        assertTrue(poll(true).isEmpty());
+        resize(growing, 2);
+        assertTrue(poll(true).isEmpty());
+        assertEquals(Collections.singletonList("growing"), names(poll(true).getAdded()));
+        assertTrue(poll(true).isEmpty());
+    }
+
+    @Test
+    public void everyWayOfWritingTheFolderSharesASnapshot() throws Exception {
+        server.createFile("file", 1);
+        server.createFile("inbox/file", 1);
+
+        assertEquals(1, poll(false).getAdded().size());
+        for (String path : Arrays.asList("/inbox/", "inbox", "./inbox", "/other/../inbox")) {
+            assertTrue(path, connector.pollChanges(HOST, USER, PASSWORD, server.getPort(), path, false).isEmpty());
+        }
+
+        assertEquals(1, connector.pollChanges(HOST, USER, PASSWORD, server.getPort(), null, false).getAdded().size());
+        assertTrue(connector.pollChanges(HOST, USER, PASSWORD, server.getPort(), "/", false).isEmpty());
+    }
+
+    @Test
+    public void snapshotsSurviveARestart() throws Exception {
+        connector.stop();
+        connector = connector();
+        server.createFile("inbox/file", 1);
+        assertEquals(1, poll(false).getAdded().size());
+
+        connector.stop();
+        connector = connector();
+
+        assertTrue(poll(false).isEmpty());
+    }
+
+    private FtpLiteConnector connector() throws Exception {
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setPollSnapshotDirectory(new File(folder.getRoot(), "snapshots").getAbsolutePath());
+        FtpLiteConnector connector = new FtpLiteConnector();
+        connector.setConfig(config);
+        return connector;
+    }
+
+    private FtpChanges poll(boolean stableOnly) {
+        return connector.pollChanges(HOST, USER, PASSWORD, server.getPort(), "/inbox", stableOnly);
+    }
+
+    private static void resize(File file, long size) throws Exception {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(size);
+        }
+    }
+
+    private static List<String> names(List<FTPFile> files) {
+        return files.stream().map(FTPFile::getName).collect(Collectors.toList());
+    }
+}
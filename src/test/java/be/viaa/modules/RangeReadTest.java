@@ -0,0 +1,118 @@
+package be.viaa.modules;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+import be.viaa.modules.metrics.HostMetrics;
+import org.apache.commons.io.IOUtils;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.impl.ABOR;
+import org.apache.ftpserver.command.impl.REST;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * getFileContent reading a range of a file with REST, and aborting the transfer at its end
+ *
+ * @author VIAA vzw
+ */
+public class RangeReadTest {
+
+    private final byte[] content = new byte[1024 * 1024];
+
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void rangesStartAtTheOffsetAndStopAtTheLength() throws Exception {
+        start(new ABOR());
+
+        for (boolean streaming : new boolean[] {false, true}) {
+            try (InputStream in = read(streaming, 1000L, 500L)) {
+                assertArrayEquals(Arrays.copyOfRange(content, 1000, 1500), IOUtils.toByteArray(in));
+            }
+        }
+
+        // The rest of the file is not sent
+        assertEquals(Arrays.asList("REST 1000", "ABOR", "REST 1000", "ABOR"), commands);
+    }
+
+    @Test
+    public void offsetsAloneReadToTheEnd() throws Exception {
+        start(new ABOR());
+
+        try (InputStream in = read(false, 1000L, null)) {
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, content.length), IOUtils.toByteArray(in));
+        }
+
+        assertEquals(Collections.singletonList("REST 1000"), commands);
+    }
+
+    @Test
+    public void sessionsWhoseAbortFailsAreNotReused() throws Exception {
+        start(EmbeddedFtpServer.reply(500, "Not aborted"));
+        HostMetrics metrics = connector.getConfig().getMetrics().host(HOST);
+
+        try {
+            read(false, 1000L, 500L);
+            throw new AssertionError("A range was read although the abort failed");
+        } catch (FtpLiteException expected) {
+            // refused
+        }
+
+        // Disconnected rather than given back to the pool, where its replies would be out of step
+        assertEquals(0, metrics.getOpenSessions());
+        try (InputStream in = read(false, 0L, null)) {
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        }
+    }
+
+    private void start(Command abort) throws Exception {
+        Command rest = new REST();
+        Map<String, Command> overrides = new HashMap<>();
+        overrides.put("REST", (session, context, request) -> {
+            commands.add("REST " + request.getArgument());
+            rest.execute(session, context, request);
+        });
+        overrides.put("ABOR", (session, context, request) -> {
+            commands.add("ABOR");
+            abort.execute(session, context, request);
+        });
+        server = EmbeddedFtpServer.start(overrides);
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setPoolEnabled(true);
+        config.setPoolMaxPerKey(1);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+        new Random(1).nextBytes(content);
+        Files.write(server.createFile("file", 0).toPath(), content);
+    }
+
+    private InputStream read(boolean streaming, Long offset, Long length) {
+        return connector.getFileContent(HOST, USER, PASSWORD, server.getPort(), "/", "file", streaming,
+                null, null, null, false, offset, length);
+    }
+}
@@ -0,0 +1,98 @@
+package be.viaa.modules;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.impl.REST;
+import org.apache.ftpserver.command.impl.RETR;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Downloads with transferRetries, from a server whose first transfer breaks halfway
+ *
+ * @author VIAA vzw
+ */
+public class ResumableTransferTest {
+
+    private static final int BROKEN_AT = 1000;
+
+    private final List<String> offsets = Collections.synchronizedList(new ArrayList<>());
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void brokenDownloadsResumeWhereTheyBroke() throws Exception {
+        byte[] content = new byte[5000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        AtomicBoolean broken = new AtomicBoolean();
+        Command retr = new RETR();
+        Command rest = new REST();
+        Map<String, Command> commands = new HashMap<>();
+        commands.put("REST", (session, context, request) -> {
+            offsets.add(request.getArgument());
+            rest.execute(session, context, request);
+        });
+        commands.put("RETR", (session, context, request) -> {
+            if (broken.getAndSet(true)) {
+                retr.execute(session, context, request);
+                return;
+            }
+            session.resetState();
+            session.write(new DefaultFtpReply(150, "Opening data connection."));
+            try {
+                DataConnection data = session.getDataConnection().openConnection();
+                data.transferToClient(session.getFtpletSession(), new ByteArrayInputStream(content, 0, BROKEN_AT));
+            } catch (Exception e) {
+                throw new IOException(e);
+            } finally {
+                session.getDataConnection().closeDataConnection();
+            }
+            session.write(new DefaultFtpReply(426, "Connection closed; transfer aborted."));
+        });
+        server = EmbeddedFtpServer.start(commands);
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setTransferRetries(2);
+        config.setTransferRetryDelay(10);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+        Files.write(server.createFile("file", 0).toPath(), content);
+
+        byte[] read;
+        try (InputStream in = connector.getFileContent(HOST, USER, PASSWORD, server.getPort(), "/", "file", false,
+                null, null, null, false, null, null)) {
+            read = IOUtils.toByteArray(in);
+        }
+
+        assertArrayEquals(content, read);
+        assertEquals(Collections.singletonList(String.valueOf(BROKEN_AT)), offsets);
+    }
+}
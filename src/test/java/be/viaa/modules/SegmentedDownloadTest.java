@@ -0,0 +1,101 @@
+package be.viaa.modules;
+
+import be.viaa.modules.utils.FtpConnectionClosingStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.impl.REST;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * getFileContent splitting files above the segment threshold over several sessions
+ *
+ * @author VIAA vzw
+ */
+public class SegmentedDownloadTest {
+
+    private final byte[] content = new byte[10000];
+
+    private final List<String> offsets = Collections.synchronizedList(new ArrayList<>());
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        Command rest = new REST();
+        // The embedded server leaves out the space MLST replies start their entry with, its size would be lost
+        server = EmbeddedFtpServer.start(Collections.singletonMap("REST", (session, context, request) -> {
+            offsets.add(request.getArgument());
+            rest.execute(session, context, request);
+        }), "MLST");
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setSegmentCount(4);
+        config.setSegmentThreshold(5000);
+        config.setSegmentSize(1000);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+        new Random(1).nextBytes(content);
+        Files.write(server.createFile("file", 0).toPath(), content);
+        Files.write(server.createFile("small", 0).toPath(), Arrays.copyOf(content, 4000));
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void largeFilesAreReadInSegments() throws Exception {
+        try (InputStream in = read("file", false)) {
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        }
+
+        List<String> sorted = new ArrayList<>(offsets);
+        Collections.sort(sorted);
+        // The first segment starts at 0, which needs no REST
+        assertEquals(Arrays.asList("2500", "5000", "7500"), sorted);
+    }
+
+    @Test
+    public void smallFilesAreReadInOnePiece() throws Exception {
+        try (InputStream in = read("small", false)) {
+            assertArrayEquals(Arrays.copyOf(content, 4000), IOUtils.toByteArray(in));
+        }
+
+        assertTrue(offsets.isEmpty());
+    }
+
+    @Test
+    public void streamedFilesAreNotSegmented() throws Exception {
+        try (InputStream in = read("file", true)) {
+            assertTrue(in instanceof FtpConnectionClosingStream);
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        }
+
+        assertTrue(offsets.isEmpty());
+    }
+
+    private InputStream read(String fileName, boolean streaming) {
+        return connector.getFileContent(HOST, USER, PASSWORD, server.getPort(), "/", fileName, streaming,
+                null, null, null, false, null, null);
+    }
+}
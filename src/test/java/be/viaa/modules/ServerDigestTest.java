@@ -0,0 +1,71 @@
+package be.viaa.modules;
+
+import be.viaa.modules.transfer.DigestAlgorithm;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * getServerDigest against a server that offers HASH with SHA-256 selected
+ *
+ * @author VIAA vzw
+ */
+public class ServerDigestTest {
+
+    private static final String MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+
+    private static final String SHA_256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private final List<String> options = new ArrayList<>();
+
+    private String selected = "SHA-256";
+
+    private EmbeddedFtpServer server;
+
+    private FTPClient client;
+
+    @After
+    public void stop() throws Exception {
+        FtpUtils.disconnect(client);
+        server.stop();
+    }
+
+    @Test
+    public void selectsTheServersAlgorithmAgain() throws Exception {
+        Map<String, Command> commands = new HashMap<>();
+        commands.put("FEAT", EmbeddedFtpServer.reply(211, "Extensions supported\n HASH MD5;SHA-256*\nEnd"));
+        commands.put("OPTS", (session, context, request) -> {
+            session.resetState();
+            options.add(request.getArgument());
+            selected = request.getArgument().substring("HASH ".length());
+            session.write(new DefaultFtpReply(200, selected));
+        });
+        commands.put("HASH", (session, context, request) -> {
+            session.resetState();
+            String hash = "MD5".equals(selected) ? MD5 : SHA_256;
+            session.write(new DefaultFtpReply(213, selected + " 0-0 " + hash + " " + request.getArgument()));
+        });
+        server = EmbeddedFtpServer.start(commands);
+        client = FtpUtils.createSession(EmbeddedFtpServer.config(), USER, HOST, server.getPort(), PASSWORD);
+
+        assertEquals(MD5, FtpUtils.getServerDigest(client, "/file", DigestAlgorithm.MD5));
+        assertEquals(SHA_256, FtpUtils.getServerDigest(client, "/file", DigestAlgorithm.SHA_256));
+        assertEquals(MD5, FtpUtils.getServerDigest(client, "/file", DigestAlgorithm.MD5));
+
+        assertEquals(Arrays.asList("HASH MD5", "HASH SHA-256", "HASH MD5", "HASH SHA-256"), options);
+        assertEquals("SHA-256", selected);
+    }
+}
@@ -0,0 +1,90 @@
+package be.viaa.modules;
+
+import be.viaa.modules.metrics.HostMetrics;
+import be.viaa.modules.utils.FtpConnectionClosingStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * getFileContent in streaming mode, reading straight from the data connection
+ *
+ * @author VIAA vzw
+ */
+public class StreamingContentTest {
+
+    private final byte[] content = new byte[3 * 1024 * 1024];
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    private HostMetrics metrics;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        FtpLiteConnectorConfig config = EmbeddedFtpServer.config();
+        config.setPoolEnabled(true);
+        config.setPoolMaxPerKey(1);
+        config.setPoolMaxWait(500);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+        metrics = config.getMetrics().host(HOST);
+        new Random(1).nextBytes(content);
+        Files.write(server.createFile("file", 0).toPath(), content);
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void theSessionIsHeldUntilTheFileIsRead() throws Exception {
+        byte[] read;
+        try (InputStream in = open()) {
+            assertTrue(in instanceof FtpConnectionClosingStream);
+            assertEquals(1, metrics.getActiveSessions());
+            read = IOUtils.toByteArray(in);
+            assertEquals(0, metrics.getActiveSessions());
+        }
+
+        assertArrayEquals(content, read);
+        assertEquals(1, metrics.getOpenSessions());
+    }
+
+    @Test
+    public void closingEarlyGivesTheSessionBack() throws Exception {
+        byte[] start = new byte[100];
+        try (InputStream in = open()) {
+            IOUtils.readFully(in, start);
+        }
+
+        assertArrayEquals(Arrays.copyOf(content, start.length), start);
+        assertEquals(0, metrics.getActiveSessions());
+        // The pool allows one session, a leaked or broken one would fail this
+        try (InputStream in = open()) {
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        }
+    }
+
+    private InputStream open() {
+        return connector.getFileContent(HOST, USER, PASSWORD, server.getPort(), "/", "file", true,
+                null, null, null, false, null, null);
+    }
+}
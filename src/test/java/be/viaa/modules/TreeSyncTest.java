@@ -0,0 +1,101 @@
+package be.viaa.modules;
+
+import be.viaa.modules.utils.FtpSyncResult;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Repeated syncs against a server that only lists with LIST, which leaves out the seconds
+ *
+ * @author VIAA vzw
+ */
+public class TreeSyncTest {
+
+    /**
+     * A modification time half way through a minute, old enough to be listed with its date only
+     */
+    private static final long MODIFIED = 1546338630000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnector connector;
+
+    private void start(String... unsupported) throws Exception {
+        server = EmbeddedFtpServer.start(unsupported);
+        connector = new FtpLiteConnector();
+        connector.setConfig(EmbeddedFtpServer.config());
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void unchangedUploadsAreSkippedWithMdtm() throws Exception {
+        start("MLST");
+        uploadTwice(MODIFIED);
+    }
+
+    @Test
+    public void unchangedUploadsAreSkippedToTheMinuteWithoutMdtm() throws Exception {
+        start("MLST", "MDTM");
+        // An hour ago, half way through the minute
+        uploadTwice((System.currentTimeMillis() / 60000 - 60) * 60000 + 30000);
+    }
+
+    @Test
+    public void unchangedOldUploadsAreSkippedToTheDayWithoutMdtm() throws Exception {
+        start("MLST", "MDTM");
+        uploadTwice(MODIFIED);
+    }
+
+    @Test
+    public void unchangedDownloadsAreSkipped() throws Exception {
+        start("MLST");
+        File remote = server.createFile("tree/sub/file", 5);
+        remote.setLastModified(MODIFIED);
+        String local = folder.newFolder("local").getAbsolutePath();
+
+        FtpSyncResult first = connector.downloadTree(HOST, USER, PASSWORD, server.getPort(), "/tree", local, 2);
+        FtpSyncResult second = connector.downloadTree(HOST, USER, PASSWORD, server.getPort(), "/tree", local, 2);
+
+        assertEquals(Collections.singletonList("sub/file"), first.getTransferred());
+        assertEquals(MODIFIED, new File(local, "sub/file").lastModified());
+        assertEquals(Collections.emptyList(), second.getTransferred());
+        assertEquals(Collections.singletonList("sub/file"), second.getSkipped());
+    }
+
+    private void uploadTwice(long modified) throws Exception {
+        File local = folder.newFolder("local");
+        for (String name : Arrays.asList("one", "sub/two")) {
+            File file = new File(local, name);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), name.getBytes("UTF-8"));
+            file.setLastModified(modified);
+        }
+
+        FtpSyncResult first = connector.uploadTree(HOST, USER, PASSWORD, server.getPort(), local.getAbsolutePath(), "/tree", 2);
+        FtpSyncResult second = connector.uploadTree(HOST, USER, PASSWORD, server.getPort(), local.getAbsolutePath(), "/tree", 2);
+
+        assertEquals(first.getFailed().toString(), 2, first.getTransferred().size());
+        assertEquals(Collections.emptyList(), second.getTransferred());
+        assertEquals(2, second.getSkipped().size());
+    }
+}
@@ -0,0 +1,87 @@
+package be.viaa.modules.async;
+
+import be.viaa.modules.exceptions.FtpLiteException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Operations capped per host, queued without holding a thread
+ *
+ * @author VIAA vzw
+ */
+public class FtpOperationExecutorTest {
+
+    private final FtpOperationExecutor executor = new FtpOperationExecutor(4, 2);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void close() {
+        release.countDown();
+        executor.close();
+    }
+
+    @Test
+    public void operationsOverTheCapWaitForTheirHost() throws Exception {
+        CompletableFuture<String> first = executor.submit("ftp.example.com", this::blocked);
+        CompletableFuture<String> second = executor.submit("FTP.example.com", this::blocked);
+        CompletableFuture<String> third = executor.submit("ftp.example.com", () -> "third");
+        CompletableFuture<String> other = executor.submit("ftp.example.org", () -> "other");
+
+        assertEquals("other", other.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getQueued("ftp.example.com"));
+        assertFalse(third.isDone());
+
+        release.countDown();
+
+        assertEquals("third", third.get(5, TimeUnit.SECONDS));
+        assertEquals("blocked", first.get(5, TimeUnit.SECONDS));
+        assertEquals("blocked", second.get(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueued("ftp.example.com"));
+    }
+
+    @Test
+    public void failuresCompleteTheFuture() throws Exception {
+        CompletableFuture<Object> failed = executor.submit("ftp.example.com", () -> {
+            throw new FtpLiteException("refused");
+        });
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("The operation failed, its future did not");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FtpLiteException);
+        }
+        // The failure freed its place
+        assertEquals("next", executor.submit("ftp.example.com", () -> "next").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closingFailsQueuedOperations() throws Exception {
+        executor.submit("ftp.example.com", this::blocked);
+        executor.submit("ftp.example.com", this::blocked);
+        CompletableFuture<String> queued = executor.submit("ftp.example.com", () -> "queued");
+
+        executor.close();
+
+        try {
+            queued.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("A queued operation ran after the executor was closed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FtpLiteException);
+        }
+    }
+
+    private String blocked() throws InterruptedException {
+        release.await();
+        return "blocked";
+    }
+}
@@ -0,0 +1,76 @@
+package be.viaa.modules.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Each configuration's metrics are registered, bounded and unregistered on their own
+ *
+ * @author VIAA vzw
+ */
+public class FtpMetricsTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final FtpMetrics first = new FtpMetrics();
+
+    private final FtpMetrics second = new FtpMetrics();
+
+    @After
+    public void close() {
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void closingOneRegistryKeepsTheOthers() throws Exception {
+        HostMetrics one = first.host("ftp.example.com");
+        HostMetrics two = second.host("ftp.example.com");
+        assertNotSame(one, two);
+        assertEquals(2, hostBeans("\"ftp.example.com\"").size());
+
+        first.close();
+
+        Set<ObjectName> left = hostBeans("\"ftp.example.com\"");
+        assertEquals(1, left.size());
+        assertSame(two, second.host("ftp.example.com"));
+    }
+
+    @Test
+    public void hostNamesAreNormalized() {
+        assertSame(first.host("ftp.example.com"), first.host(" FTP.Example.com. "));
+    }
+
+    @Test
+    public void hostsPastTheLimitShareMetrics() throws Exception {
+        for (int i = 0; i < FtpMetrics.MAX_HOSTS; i++) {
+            first.host("host" + i);
+        }
+        HostMetrics other = first.host("one-too-many");
+        assertSame(other, first.host("yet-another"));
+        assertEquals("(other)", other.getHostName());
+        assertSame(first.host("host0"), first.host("HOST0"));
+        assertTrue(hostBeans("*").size() >= FtpMetrics.MAX_HOSTS + 1);
+    }
+
+    @Test
+    public void hostsUsedAfterClosingAreNotRegistered() throws Exception {
+        first.close();
+        first.host("late.example.com");
+        assertTrue(hostBeans("\"late.example.com\"").isEmpty());
+    }
+
+    private Set<ObjectName> hostBeans(String host) throws Exception {
+        return server.queryNames(new ObjectName("be.viaa.modules:type=FtpLiteConnector,host=" + host + ",*"), null);
+    }
+}
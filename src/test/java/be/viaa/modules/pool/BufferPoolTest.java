@@ -0,0 +1,43 @@
+package be.viaa.modules.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Buffers given back to the pool and taken again
+ *
+ * @author VIAA vzw
+ */
+public class BufferPoolTest {
+
+    private final BufferPool pool = new BufferPool(16, 4, false);
+
+    @Test
+    public void closedBuffersAreReused() {
+        BufferPool.Buffer first = pool.acquire();
+        byte[] array = first.array();
+        first.close();
+
+        assertSame(array, pool.acquire().array());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void closingAgainDoesNotReleaseTheNextOwnersBuffer() {
+        BufferPool.Buffer stale = pool.acquire();
+        stale.close();
+        BufferPool.Buffer owner = pool.acquire();
+
+        stale.close();
+
+        assertEquals(1, pool.getOutstandingBuffers());
+        assertEquals(0, pool.getIdleBuffers());
+        assertNotSame(owner.array(), pool.acquire().array());
+        owner.close();
+        assertEquals(1, pool.getOutstandingBuffers());
+    }
+}
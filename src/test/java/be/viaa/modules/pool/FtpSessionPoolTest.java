@@ -0,0 +1,103 @@
+package be.viaa.modules.pool;
+
+import be.viaa.modules.EmbeddedFtpServer;
+import be.viaa.modules.FtpLiteConnector;
+import be.viaa.modules.FtpLiteConnectorConfig;
+import be.viaa.modules.FtpUtils;
+import be.viaa.modules.exceptions.FtpLiteAuthException;
+import be.viaa.modules.exceptions.FtpLiteHostException;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static be.viaa.modules.EmbeddedFtpServer.HOST;
+import static be.viaa.modules.EmbeddedFtpServer.PASSWORD;
+import static be.viaa.modules.EmbeddedFtpServer.USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sessions borrowed from and given back to the pool of a configuration
+ *
+ * @author VIAA vzw
+ */
+public class FtpSessionPoolTest {
+
+    private EmbeddedFtpServer server;
+
+    private FtpLiteConnectorConfig config;
+
+    private FtpLiteConnector connector;
+
+    @Before
+    public void start() throws Exception {
+        server = EmbeddedFtpServer.start();
+        config = EmbeddedFtpServer.config();
+        config.setPoolEnabled(true);
+        config.setPoolMaxPerKey(1);
+        config.setPoolMaxWait(200);
+        connector = new FtpLiteConnector();
+        connector.setConfig(config);
+        new File(server.getHome(), "sub").mkdir();
+    }
+
+    @After
+    public void stop() throws Exception {
+        connector.stop();
+        server.stop();
+    }
+
+    @Test
+    public void sessionsAreReusedFromTheirHomeDirectory() throws Exception {
+        FTPClient first = open(PASSWORD);
+        assertTrue(first.changeWorkingDirectory("/sub"));
+        FtpUtils.closeSession(config, first);
+
+        FTPClient second = open(PASSWORD);
+
+        assertSame(first, second);
+        assertEquals("/", second.printWorkingDirectory());
+        FtpUtils.closeSession(config, second);
+    }
+
+    @Test
+    public void borrowersWaitForTheLimitPerKey() {
+        FTPClient first = open(PASSWORD);
+        try {
+            open(PASSWORD);
+            throw new AssertionError("A second session was borrowed beyond the limit of one");
+        } catch (FtpLiteHostException expected) {
+            // timed out
+        }
+        FtpUtils.closeSession(config, first);
+        FtpUtils.closeSession(config, open(PASSWORD));
+    }
+
+    @Test
+    public void invalidatedSessionsAreReplaced() {
+        FTPClient first = open(PASSWORD);
+        FtpUtils.invalidateSession(config, first);
+
+        FTPClient second = open(PASSWORD);
+
+        assertNotSame(first, second);
+        assertTrue(second.isConnected());
+        FtpUtils.closeSession(config, second);
+    }
+
+    @Test(expected = FtpLiteAuthException.class)
+    public void idleSessionsNeedTheRightPassword() {
+        FtpUtils.closeSession(config, open(PASSWORD));
+
+        open("wrong");
+    }
+
+    private FTPClient open(String password) {
+        return FtpUtils.openSession(config, USER, HOST, server.getPort(), password);
+    }
+}